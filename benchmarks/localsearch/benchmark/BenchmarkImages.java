@@ -0,0 +1,30 @@
+package localsearch.benchmark;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Loading of the bundled images for the benchmarks. The images are looked up in the directory given by the
+ * {@code benchmark.data} system property, {@code data} by default.
+ *
+ * @author Ondřej Kratochvíl
+ */
+final class BenchmarkImages {
+
+    // fixed seed, so that all benchmarks work with the same circles
+    final static long SEED = 42;
+
+    private BenchmarkImages() {
+    }
+
+    static BufferedImage load(String name) throws IOException {
+        File file = new File(System.getProperty("benchmark.data", "data"), name);
+        BufferedImage image = ImageIO.read(file);
+        if (image == null) {
+            throw new IOException("Cannot read image " + file.getAbsolutePath());
+        }
+        return image;
+    }
+}
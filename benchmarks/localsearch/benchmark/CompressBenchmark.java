@@ -0,0 +1,66 @@
+package localsearch.benchmark;
+
+import localsearch.Circle;
+import localsearch.CompressionQuality;
+import localsearch.GraphicHelper;
+import localsearch.HillClimber;
+import localsearch.RasterEngine;
+import localsearch.UniformCandidateSampler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end benchmark of the sequential compression with the default configuration of {@code LocalSearch}, for
+ * each quality level. The random generator is seeded, so every invocation places the same circles.
+ *
+ * @author Ondřej Kratochvíl
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompressBenchmark {
+
+    private final static int CIRCLE_PLACEMENT_RETRY_COUNT = 50;
+
+    @Param({"Mona_Lisa.bmp", "abstraktni_krivky.bmp", "house.bmp", "kubismus_krajina.bmp"})
+    public String image;
+
+    @Param({"LOW", "MEDIUM", "HIGH"})
+    public CompressionQuality quality;
+
+    private BufferedImage inputImage;
+
+    @Setup
+    public void setUp() throws IOException {
+        inputImage = BenchmarkImages.load(image);
+    }
+
+    @Benchmark
+    public Circle[] compress() {
+        int width = inputImage.getWidth();
+        int height = inputImage.getHeight();
+        HillClimber climber = new HillClimber(inputImage, new RasterEngine(inputImage), quality,
+                CIRCLE_PLACEMENT_RETRY_COUNT, GraphicHelper::getMajorityColour,
+                new UniformCandidateSampler(width, height), (width * height) / quality.getFactor());
+        climber.setRandom(new Random(BenchmarkImages.SEED));
+        climber.run();
+        return climber.getCircles();
+    }
+}
@@ -0,0 +1,54 @@
+package localsearch.benchmark;
+
+import localsearch.GraphicHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Microbenchmark of {@link GraphicHelper#mixColour(int, int)}, reported per mixed pair of colours.
+ *
+ * @author Ondřej Kratochvíl
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MixColourBenchmark {
+
+    private final static int COLOURS = 1024;
+
+    private int[] colours;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(BenchmarkImages.SEED);
+        colours = new int[COLOURS];
+        for (int i = 0; i < COLOURS; ++i) {
+            colours[i] = 0xff000000 | random.nextInt(0x1000000);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COLOURS)
+    public int mixColour() {
+        int result = 0;
+        for (int i = 0; i < COLOURS; ++i) {
+            result ^= GraphicHelper.mixColour(colours[i], colours[(i + 1) & (COLOURS - 1)]);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,141 @@
+package localsearch.benchmark;
+
+import localsearch.Circle;
+import localsearch.CompressionQuality;
+import localsearch.FitnessKernel;
+import localsearch.GraphicHelper;
+import localsearch.HillClimber;
+import localsearch.HistogramColourPicker;
+import localsearch.OptimalColourPicker;
+import localsearch.RasterEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Microbenchmarks of the per-candidate operations of the hill climbing: scoring, drawing and colour picking. The
+ * candidate circles have diameters drawn from the schedule of {@link HillClimber#getMaxDiameter} for the given
+ * quality and stage of the algorithm, and are evaluated against a partially approximated output image. The
+ * per-channel scorings use the kernel of {@link FitnessKernel#getInstance()}, run with
+ * {@code -jvmArgs --add-modules=jdk.incubator.vector} to benchmark the Vector API kernel.
+ *
+ * @author Ondřej Kratochvíl
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RasterBenchmark {
+
+    // power of two, so that the next circle can be selected by masking
+    private final static int CIRCLES = 1024;
+
+    @Param({"Mona_Lisa.bmp", "abstraktni_krivky.bmp", "house.bmp", "kubismus_krajina.bmp"})
+    public String image;
+
+    @Param({"LOW", "MEDIUM", "HIGH"})
+    public CompressionQuality quality;
+
+    // percentage of the placed circles, selects the phase of the diameter schedule
+    @Param({"0", "50", "100"})
+    public int percentageDone;
+
+    private BufferedImage inputImage;
+    private RasterEngine engine;
+    private HistogramColourPicker histogramColourPicker;
+    private OptimalColourPicker optimalColourPicker;
+    private Circle[] circles;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        inputImage = BenchmarkImages.load(image);
+        int width = inputImage.getWidth();
+        int height = inputImage.getHeight();
+        engine = new RasterEngine(inputImage);
+        Random random = new Random(BenchmarkImages.SEED);
+        int maxDiameter = HillClimber.getMaxDiameter(Math.min(width, height), quality, percentageDone);
+        // approximate the output by the input colours under the circles, up to a quarter of the circle budget
+        int placedCircles = (int) ((long) width * height / quality.getFactor() * percentageDone / 400);
+        for (int i = 0; i < placedCircles; ++i) {
+            int x = random.nextInt(width);
+            int y = random.nextInt(height);
+            engine.drawCircle(new Circle(x, y, random.nextInt(maxDiameter), inputImage.getRGB(x, y)));
+        }
+        circles = new Circle[CIRCLES];
+        for (int i = 0; i < CIRCLES; ++i) {
+            int x = random.nextInt(width);
+            int y = random.nextInt(height);
+            int diameter = random.nextInt(maxDiameter);
+            circles[i] = new Circle(x, y, diameter, GraphicHelper.getMajorityColour(inputImage, x, y, diameter));
+        }
+        histogramColourPicker = new HistogramColourPicker(5);
+        optimalColourPicker = (OptimalColourPicker) new OptimalColourPicker().bind(engine, 0, 0, width, height);
+    }
+
+    private Circle nextCircle() {
+        Circle circle = circles[next];
+        next = (next + 1) & (CIRCLES - 1);
+        return circle;
+    }
+
+    @Benchmark
+    public long calculateFitnessChange() {
+        return engine.calculateFitnessChange(nextCircle());
+    }
+
+    @Benchmark
+    public long calculateErrorChange() {
+        return engine.calculateErrorChange(nextCircle());
+    }
+
+    @Benchmark
+    public long calculateSquaredErrorChange() {
+        return engine.calculateSquaredErrorChange(nextCircle());
+    }
+
+    @Benchmark
+    public Circle drawCircle() {
+        return engine.drawCircle(nextCircle());
+    }
+
+    @Benchmark
+    public int getMajorityColour() {
+        Circle circle = nextCircle();
+        return GraphicHelper.getMajorityColour(inputImage, circle.getX(), circle.getY(), circle.getDiameter());
+    }
+
+    @Benchmark
+    public int getDominantColour() {
+        Circle circle = nextCircle();
+        return GraphicHelper.getDominantColour(inputImage, circle.getX(), circle.getY(), circle.getDiameter());
+    }
+
+    @Benchmark
+    public int histogramColourPicker() {
+        Circle circle = nextCircle();
+        return histogramColourPicker.pick(inputImage, circle.getX(), circle.getY(), circle.getDiameter());
+    }
+
+    @Benchmark
+    public int optimalColourPicker() {
+        Circle circle = nextCircle();
+        return optimalColourPicker.pick(circle.getX(), circle.getY(), circle.getDiameter());
+    }
+}
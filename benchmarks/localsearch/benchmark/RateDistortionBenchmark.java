@@ -0,0 +1,392 @@
+package localsearch.benchmark;
+
+import localsearch.CircleFileWriter;
+import localsearch.CompressionMetrics;
+import localsearch.CompressionQuality;
+import localsearch.CompressionResult;
+import localsearch.Compressor;
+import localsearch.CompressorConfig;
+import localsearch.GraphicHelper;
+import localsearch.HistogramColourPicker;
+import localsearch.OptimalColourPicker;
+import localsearch.PaletteColourPicker;
+import localsearch.TetraFunction;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rate-distortion benchmark, which compresses every {@code *.bmp} image of the data directory at each
+ * {@link CompressionQuality} with each colour picking strategy, and records the wall time, the amount of placed
+ * circles, the amount of circles placed because the retry count was exhausted, the size of the binary circle file
+ * and the PSNR and SSIM of the output against the input. The compressions are seeded, so two runs of the same code
+ * place the same circles, and any change of the rate or the distortion is caused by a change of the code. Each
+ * compression is repeated {@code benchmark.repetitions} times ({@link #REPETITIONS} by default), and the shortest
+ * time is reported.
+ * <p>
+ * Unlike the JMH benchmarks, it is a plain program, run from the benchmark jar:
+ * <pre>
+ * java -cp target/benchmarks.jar localsearch.benchmark.RateDistortionBenchmark run report.csv
+ * java -cp target/benchmarks.jar localsearch.benchmark.RateDistortionBenchmark diff baseline.csv report.csv
+ * </pre>
+ * The report is written as CSV, or as JSON when its name ends with {@code .json}. The runs can be restricted by the
+ * {@code benchmark.qualities} and {@code benchmark.strategies} system properties (comma separated), and the seed is
+ * given by {@code benchmark.seed}. The diff mode compares the runs of two reports and exits with status 1 when a run
+ * got slower by more than {@link #TIME_TOLERANCE} percent (or the first optional argument) and by more than
+ * {@link #TIME_NOISE} milliseconds, or when its PSNR dropped by more than {@link #PSNR_TOLERANCE} dB (or the second
+ * optional argument), its SSIM by more than {@link #SSIM_TOLERANCE}, or its circle file grew by more than
+ * {@link #SIZE_TOLERANCE} percent.
+ *
+ * @author Ondřej Kratochvíl
+ */
+public class RateDistortionBenchmark {
+
+    private final static int REPETITIONS = 3;
+    // percent
+    private final static double TIME_TOLERANCE = 10;
+    // milliseconds, smaller changes of the time are not reported as regressions
+    private final static long TIME_NOISE = 10;
+    // dB
+    private final static double PSNR_TOLERANCE = 0.05;
+    private final static double SSIM_TOLERANCE = 0.002;
+    // percent
+    private final static double SIZE_TOLERANCE = 1;
+    // side and stride of the windows of the SSIM
+    private final static int SSIM_WINDOW = 8;
+    private final static int SSIM_STRIDE = 4;
+    private final static double SSIM_C1 = (0.01 * 255) * (0.01 * 255);
+    private final static double SSIM_C2 = (0.03 * 255) * (0.03 * 255);
+    // PSNR reported for identical images
+    private final static double MAX_PSNR = 100;
+    private final static String[] COLUMNS = {"image", "quality", "strategy", "seed", "time_ms", "circles",
+            "retries_exhausted", "encoded_bytes", "psnr", "ssim"};
+    private final static Pattern JSON_FIELD = Pattern.compile("\"(\\w+)\":\\s*(?:\"([^\"]*)\"|([^,}\\s]+))");
+
+    private final static Map<String, Supplier<TetraFunction<BufferedImage, Integer, Integer, Integer, Integer>>>
+            STRATEGIES = new LinkedHashMap<>();
+
+    static {
+        STRATEGIES.put("majority", () -> GraphicHelper::getMajorityColour);
+        STRATEGIES.put("dominant", () -> GraphicHelper::getDominantColour);
+        STRATEGIES.put("palette", () -> new PaletteColourPicker(16));
+        STRATEGIES.put("histogram", () -> new HistogramColourPicker(5));
+        STRATEGIES.put("optimal", OptimalColourPicker::new);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 2 && "run".equals(args[0])) {
+            run(new File(args[1]));
+        } else if (args.length >= 3 && args.length <= 5 && "diff".equals(args[0])) {
+            double timeTolerance = args.length > 3 ? Double.parseDouble(args[3]) : TIME_TOLERANCE;
+            double psnrTolerance = args.length > 4 ? Double.parseDouble(args[4]) : PSNR_TOLERANCE;
+            int regressions = diff(read(new File(args[1])), read(new File(args[2])), timeTolerance, psnrTolerance);
+            System.exit(regressions > 0 ? 1 : 0);
+        } else {
+            System.err.println("Usage: run <report> | diff <baseline report> <report> [time tolerance %] " +
+                    "[PSNR tolerance dB]");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Compress all images with all qualities and strategies, and write the report.
+     */
+    private static void run(File reportFile) throws IOException {
+        File directory = new File(System.getProperty("benchmark.data", "data"));
+        File[] images = directory.listFiles((dir, name) -> name.toLowerCase(Locale.ROOT).endsWith(".bmp"));
+        if (images == null || images.length == 0) {
+            throw new IOException("No images in " + directory.getAbsolutePath());
+        }
+        Arrays.sort(images);
+        List<String> qualities = getSelection("benchmark.qualities", CompressionQuality.values());
+        List<String> strategies = getSelection("benchmark.strategies", STRATEGIES.keySet().toArray());
+        long seed = Long.getLong("benchmark.seed", BenchmarkImages.SEED);
+        int repetitions = Math.max(1, Integer.getInteger("benchmark.repetitions", REPETITIONS));
+        List<Map<String, String>> rows = new ArrayList<>();
+        for (File image : images) {
+            BufferedImage inputImage = BenchmarkImages.load(image.getName());
+            for (String quality : qualities) {
+                for (String strategy : strategies) {
+                    if (!STRATEGIES.containsKey(strategy)) {
+                        throw new IllegalArgumentException("Unknown strategy: " + strategy);
+                    }
+                    Compressor compressor = new Compressor(CompressorConfig.builder()
+                            .quality(CompressionQuality.valueOf(quality))
+                            .colourPickingStrategy(STRATEGIES.get(strategy).get())
+                            .seed(seed)
+                            .build());
+                    // the seeded repetitions place the same circles
+                    CompressionResult result = null;
+                    long time = Long.MAX_VALUE;
+                    for (int i = 0; i < repetitions; ++i) {
+                        long startTime = System.nanoTime();
+                        result = compressor.compress(inputImage);
+                        time = Math.min(time, (System.nanoTime() - startTime) / 1_000_000);
+                    }
+                    ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+                    CircleFileWriter.write(encoded, result.getWidth(), result.getHeight(), result.getBackground(),
+                            result.getCircles());
+
+                    Map<String, String> row = new LinkedHashMap<>();
+                    row.put("image", image.getName());
+                    row.put("quality", quality);
+                    row.put("strategy", strategy);
+                    row.put("seed", Long.toString(seed));
+                    row.put("time_ms", Long.toString(time));
+                    row.put("circles", Integer.toString(result.getCircles().length));
+                    row.put("retries_exhausted", Long.toString(
+                            result.getMetrics().get(CompressionMetrics.Counter.RETRIES_EXHAUSTED)));
+                    row.put("encoded_bytes", Integer.toString(encoded.size()));
+                    row.put("psnr", format(getPsnr(inputImage, result.getImage())));
+                    row.put("ssim", format(getSsim(inputImage, result.getImage())));
+                    rows.add(row);
+                    System.out.println(String.join(" ", row.values()));
+                }
+            }
+        }
+        write(rows, reportFile);
+    }
+
+    private static List<String> getSelection(String property, Object[] all) {
+        String selection = System.getProperty(property);
+        List<String> selected = new ArrayList<>();
+        if (selection != null) {
+            selected.addAll(Arrays.asList(selection.split(",")));
+        } else {
+            for (Object value : all) {
+                selected.add(value.toString());
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Compare the runs present in both reports, and print the changes.
+     *
+     * @return amount of regressed runs
+     */
+    private static int diff(List<Map<String, String>> baseline, List<Map<String, String>> current,
+                            double timeTolerance, double psnrTolerance) {
+        Map<String, Map<String, String>> baselineRuns = new LinkedHashMap<>();
+        for (Map<String, String> row : baseline) {
+            baselineRuns.put(getKey(row), row);
+        }
+        int regressions = 0;
+        for (Map<String, String> row : current) {
+            Map<String, String> base = baselineRuns.remove(getKey(row));
+            if (base == null) {
+                System.out.println(String.format("%-50s new run", getKey(row)));
+                continue;
+            }
+            double timeChange = getChange(base, row, "time_ms");
+            double sizeChange = getChange(base, row, "encoded_bytes");
+            double psnrChange = getDouble(row, "psnr") - getDouble(base, "psnr");
+            double ssimChange = getDouble(row, "ssim") - getDouble(base, "ssim");
+            List<String> flags = new ArrayList<>();
+            double timeDifference = getDouble(row, "time_ms") - getDouble(base, "time_ms");
+            if (timeChange > timeTolerance && timeDifference > TIME_NOISE) {
+                flags.add("SLOWER");
+            }
+            if (psnrChange < -psnrTolerance || ssimChange < -SSIM_TOLERANCE) {
+                flags.add("WORSE");
+            }
+            if (sizeChange > SIZE_TOLERANCE) {
+                flags.add("LARGER");
+            }
+            if (!flags.isEmpty()) {
+                ++regressions;
+            }
+            System.out.println(String.format(Locale.ROOT,
+                    "%-50s time %+7.1f%%  size %+6.2f%%  psnr %+7.3f dB  ssim %+7.4f  %s", getKey(row), timeChange,
+                    sizeChange, psnrChange, ssimChange, String.join(" ", flags)));
+        }
+        for (String key : baselineRuns.keySet()) {
+            System.out.println(String.format("%-50s missing", key));
+        }
+        System.out.println(String.format("Regressions: %d", regressions));
+        return regressions;
+    }
+
+    private static String getKey(Map<String, String> row) {
+        return row.get("image") + " " + row.get("quality") + " " + row.get("strategy");
+    }
+
+    /**
+     * @return change of the value in percent of the baseline value
+     */
+    private static double getChange(Map<String, String> baseline, Map<String, String> current, String column) {
+        double base = getDouble(baseline, column);
+        return base == 0 ? 0 : (getDouble(current, column) - base) / base * 100;
+    }
+
+    private static double getDouble(Map<String, String> row, String column) {
+        String value = row.get(column);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing column " + column + " of run " + getKey(row));
+        }
+        return Double.parseDouble(value);
+    }
+
+    /**
+     * Peak signal-to-noise ratio of the RGB channels.
+     */
+    static double getPsnr(BufferedImage input, BufferedImage output) {
+        int width = input.getWidth();
+        int height = input.getHeight();
+        int[] inputPixels = input.getRGB(0, 0, width, height, null, 0, width);
+        int[] outputPixels = output.getRGB(0, 0, width, height, null, 0, width);
+        double squaredError = 0;
+        for (int i = 0; i < inputPixels.length; ++i) {
+            for (int shift = 0; shift <= 16; shift += 8) {
+                int difference = ((inputPixels[i] >> shift) & 0xff) - ((outputPixels[i] >> shift) & 0xff);
+                squaredError += difference * difference;
+            }
+        }
+        if (squaredError == 0) {
+            return MAX_PSNR;
+        }
+        return Math.min(MAX_PSNR, 10 * Math.log10(255.0 * 255 / (squaredError / (3.0 * inputPixels.length))));
+    }
+
+    /**
+     * Structural similarity of the luma, averaged over windows of {@link #SSIM_WINDOW} pixels overlapping by half.
+     */
+    static double getSsim(BufferedImage input, BufferedImage output) {
+        int width = input.getWidth();
+        int height = input.getHeight();
+        double[] inputLuma = getLuma(input);
+        double[] outputLuma = getLuma(output);
+        int windowSize = SSIM_WINDOW * SSIM_WINDOW;
+        double sum = 0;
+        int windows = 0;
+        for (int y = 0; y + SSIM_WINDOW <= height; y += SSIM_STRIDE) {
+            for (int x = 0; x + SSIM_WINDOW <= width; x += SSIM_STRIDE) {
+                double inputSum = 0;
+                double outputSum = 0;
+                double inputSquares = 0;
+                double outputSquares = 0;
+                double products = 0;
+                for (int j = y; j < y + SSIM_WINDOW; ++j) {
+                    for (int i = x; i < x + SSIM_WINDOW; ++i) {
+                        double a = inputLuma[j * width + i];
+                        double b = outputLuma[j * width + i];
+                        inputSum += a;
+                        outputSum += b;
+                        inputSquares += a * a;
+                        outputSquares += b * b;
+                        products += a * b;
+                    }
+                }
+                double inputMean = inputSum / windowSize;
+                double outputMean = outputSum / windowSize;
+                double inputVariance = inputSquares / windowSize - inputMean * inputMean;
+                double outputVariance = outputSquares / windowSize - outputMean * outputMean;
+                double covariance = products / windowSize - inputMean * outputMean;
+                sum += (2 * inputMean * outputMean + SSIM_C1) * (2 * covariance + SSIM_C2) /
+                        ((inputMean * inputMean + outputMean * outputMean + SSIM_C1) *
+                                (inputVariance + outputVariance + SSIM_C2));
+                ++windows;
+            }
+        }
+        return windows > 0 ? sum / windows : 1;
+    }
+
+    private static double[] getLuma(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        double[] luma = new double[pixels.length];
+        for (int i = 0; i < pixels.length; ++i) {
+            luma[i] = 0.299 * ((pixels[i] >> 16) & 0xff) + 0.587 * ((pixels[i] >> 8) & 0xff) +
+                    0.114 * (pixels[i] & 0xff);
+        }
+        return luma;
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.4f", value);
+    }
+
+    private static boolean isJson(File file) {
+        return file.getName().toLowerCase(Locale.ROOT).endsWith(".json");
+    }
+
+    /**
+     * Write the runs as CSV with a header, or as a JSON array of objects, one per line.
+     */
+    private static void write(List<Map<String, String>> rows, File file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            if (isJson(file)) {
+                writer.write("[");
+                for (int i = 0; i < rows.size(); ++i) {
+                    List<String> fields = new ArrayList<>();
+                    for (Map.Entry<String, String> field : rows.get(i).entrySet()) {
+                        boolean text = field.getKey().equals("image") || field.getKey().equals("quality") ||
+                                field.getKey().equals("strategy");
+                        fields.add("\"" + field.getKey() + "\": " +
+                                (text ? "\"" + field.getValue() + "\"" : field.getValue()));
+                    }
+                    writer.newLine();
+                    writer.write("  {" + String.join(", ", fields) + "}" + (i + 1 < rows.size() ? "," : ""));
+                }
+                writer.newLine();
+                writer.write("]");
+            } else {
+                writer.write(String.join(",", COLUMNS));
+                for (Map<String, String> row : rows) {
+                    writer.newLine();
+                    writer.write(String.join(",", row.values()));
+                }
+            }
+            writer.newLine();
+        }
+    }
+
+    /**
+     * Read the runs of a report written by {@link #write(List, File)}.
+     */
+    private static List<Map<String, String>> read(File file) throws IOException {
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        List<Map<String, String>> rows = new ArrayList<>();
+        if (isJson(file)) {
+            for (String line : lines) {
+                Matcher matcher = JSON_FIELD.matcher(line);
+                Map<String, String> row = new LinkedHashMap<>();
+                while (matcher.find()) {
+                    row.put(matcher.group(1), matcher.group(2) != null ? matcher.group(2) : matcher.group(3));
+                }
+                if (!row.isEmpty()) {
+                    rows.add(row);
+                }
+            }
+        } else if (!lines.isEmpty()) {
+            String[] header = lines.get(0).split(",");
+            for (String line : lines.subList(1, lines.size())) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] values = line.split(",");
+                Map<String, String> row = new LinkedHashMap<>();
+                for (int i = 0; i < header.length && i < values.length; ++i) {
+                    row.put(header[i], values[i]);
+                }
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+}
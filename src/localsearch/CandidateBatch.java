@@ -0,0 +1,181 @@
+package localsearch;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Batch of candidate circles, whose colours are picked and fitness changes scored concurrently on a
+ * {@link ForkJoinPool}. Scoring only reads the rasters, so all candidates of the batch can be evaluated in parallel
+ * between two drawing steps.
+ *
+ * @author Ondřej Kratochvíl
+ */
+public class CandidateBatch {
+
+    private final Circle[] candidates;
+    private final long[] fitnessChanges;
+    private final LongAdder colourPickingNanos = new LongAdder();
+    private final LongAdder scoringNanos = new LongAdder();
+    private int size;
+
+    /**
+     * @param capacity maximum amount of candidates in the batch
+     */
+    public CandidateBatch(int capacity) {
+        this.candidates = new Circle[capacity];
+        this.fitnessChanges = new long[capacity];
+    }
+
+    /**
+     * Remove all candidates from the batch.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Add a candidate circle to the batch. Its colour is picked during {@link #evaluate}.
+     *
+     * @param candidate candidate circle
+     */
+    public void add(Circle candidate) {
+        candidates[size++] = candidate;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Pick the colours and calculate the fitness changes of all candidates in the batch concurrently.
+     *
+     * @param pool pool to run the evaluation on
+     * @param inputImage source image
+     * @param colourPickingStrategy strategy for choosing the colour of the candidates
+     * @param engine raster engine holding the current output
+     */
+    public void evaluate(ForkJoinPool pool, BufferedImage inputImage,
+                         TetraFunction<BufferedImage, Integer, Integer, Integer, Integer> colourPickingStrategy,
+                         RasterEngine engine) {
+        pool.invoke(new EvaluationTask(0, size, inputImage, colourPickingStrategy, engine));
+    }
+
+    /**
+     * @return time spent picking the colours of the candidates of all batches so far, summed over the threads
+     */
+    public long getColourPickingNanos() {
+        return colourPickingNanos.sum();
+    }
+
+    /**
+     * @return time spent scoring the candidates of all batches so far, summed over the threads
+     */
+    public long getScoringNanos() {
+        return scoringNanos.sum();
+    }
+
+    /**
+     * @return the candidate with the highest fitness change, or {@code null} if the batch is empty
+     */
+    public Circle getBest() {
+        int best = -1;
+        for (int i = 0; i < size; ++i) {
+            if (best == -1 || fitnessChanges[i] > fitnessChanges[best]) {
+                best = i;
+            }
+        }
+        return best == -1 ? null : candidates[best];
+    }
+
+    /**
+     * Select the improving candidates (with positive fitness change) to be drawn. When selecting multiple
+     * candidates, they are picked greedily by their fitness change, skipping those whose circumscribed square
+     * overlaps an already selected one. Non-overlapping candidates do not affect the fitness change of each other,
+     * so all of them can be drawn.
+     *
+     * @param multiple whether to select multiple non-overlapping candidates, or only the best one
+     * @param limit maximum amount of selected candidates
+     * @return selected candidates in the order they should be drawn, empty if there is no improving candidate
+     */
+    public List<Circle> selectImproving(boolean multiple, int limit) {
+        List<Circle> selected = new ArrayList<>();
+        boolean[] used = new boolean[size];
+        while (selected.size() < limit) {
+            int best = -1;
+            for (int i = 0; i < size; ++i) {
+                if (used[i] || fitnessChanges[i] <= 0) {
+                    continue;
+                }
+                if (best == -1 || fitnessChanges[i] > fitnessChanges[best]) {
+                    best = i;
+                }
+            }
+            if (best == -1) {
+                break;
+            }
+            used[best] = true;
+            if (!overlapsAny(candidates[best], selected)) {
+                selected.add(candidates[best]);
+                if (!multiple) {
+                    break;
+                }
+            }
+        }
+        return selected;
+    }
+
+    private static boolean overlapsAny(Circle circle, List<Circle> circles) {
+        for (Circle other : circles) {
+            int distance = circle.getDiameter() + other.getDiameter();
+            if (Math.abs(circle.getX() - other.getX()) < distance && Math.abs(circle.getY() - other.getY()) < distance) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private class EvaluationTask extends RecursiveAction {
+
+        private final static long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final BufferedImage inputImage;
+        private final TetraFunction<BufferedImage, Integer, Integer, Integer, Integer> colourPickingStrategy;
+        private final RasterEngine engine;
+
+        EvaluationTask(int from, int to, BufferedImage inputImage,
+                       TetraFunction<BufferedImage, Integer, Integer, Integer, Integer> colourPickingStrategy,
+                       RasterEngine engine) {
+            this.from = from;
+            this.to = to;
+            this.inputImage = inputImage;
+            this.colourPickingStrategy = colourPickingStrategy;
+            this.engine = engine;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new EvaluationTask(from, middle, inputImage, colourPickingStrategy, engine),
+                        new EvaluationTask(middle, to, inputImage, colourPickingStrategy, engine));
+                return;
+            }
+            for (int i = from; i < to; ++i) {
+                Circle candidate = candidates[i];
+                long startTime = System.nanoTime();
+                candidate.setColour(colourPickingStrategy.apply(inputImage, candidate.getX(), candidate.getY(),
+                        candidate.getDiameter()));
+                long pickedTime = System.nanoTime();
+                fitnessChanges[i] = engine.calculateFitnessChange(candidate);
+                colourPickingNanos.add(pickedTime - startTime);
+                scoringNanos.add(System.nanoTime() - pickedTime);
+            }
+        }
+    }
+}
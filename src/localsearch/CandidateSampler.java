@@ -0,0 +1,22 @@
+package localsearch;
+
+import java.util.Random;
+
+/**
+ * Strategy for generating the geometry of candidate circles in the hill climbing algorithm. The colour of the
+ * generated candidate is picked afterwards.
+ *
+ * @author Ondřej Kratochvíl
+ */
+@FunctionalInterface
+public interface CandidateSampler {
+
+    /**
+     * Generate a new candidate circle.
+     *
+     * @param random source of randomness
+     * @param maxDiameter upper bound (exclusive) of the diameter of the circle
+     * @return candidate circle without colour
+     */
+    Circle sample(Random random, int maxDiameter);
+}
@@ -0,0 +1,170 @@
+package localsearch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Snapshot of a running {@link HillClimber}, from which an interrupted compression can be resumed. The output image
+ * is not stored, since it is restored by drawing the placed circles again. The file has the following structure:
+ * <pre>
+ * magic "LSCK", {version} (int)
+ * {width} (int), {height} (int), {quality} (UTF), {total amount of circles} (int)
+ * {retries} (int), {elapsed milliseconds} (long), {amount of placed circles} (int)
+ * [for each placed circle]
+ *     {x} (int), {y} (int), {diameter} (int), {colour} (int)
+ * </pre>
+ * The state of the random generator is not stored, so a resumed run places different circles than the interrupted
+ * one would have.
+ *
+ * @author Ondřej Kratochvíl
+ */
+public class Checkpoint {
+
+    private final static byte[] MAGIC = {'L', 'S', 'C', 'K'};
+    private final static int VERSION = 1;
+
+    private final int width;
+    private final int height;
+    private final CompressionQuality quality;
+    private final int circleCount;
+    private final int retries;
+    private final long elapsed;
+    private final Circle[] circles;
+
+    /**
+     * @param width width of the image
+     * @param height height of the image
+     * @param quality quality of the compression
+     * @param circleCount total amount of circles to be placed
+     * @param retries amount of failed tries since the last placed circle
+     * @param elapsed milliseconds spent by the compression so far
+     * @param circles placed circles, in the order they were drawn
+     */
+    public Checkpoint(int width, int height, CompressionQuality quality, int circleCount, int retries, long elapsed,
+                      Circle[] circles) {
+        this.width = width;
+        this.height = height;
+        this.quality = quality;
+        this.circleCount = circleCount;
+        this.retries = retries;
+        this.elapsed = elapsed;
+        this.circles = circles;
+    }
+
+    /**
+     * Read the checkpoint.
+     *
+     * @param file checkpoint file
+     * @return read checkpoint
+     * @throws IOException if the file cannot be read or is not a valid checkpoint
+     */
+    public static Checkpoint read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a checkpoint file: " + file);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported version of checkpoint file: " + version);
+            }
+            int width = in.readInt();
+            int height = in.readInt();
+            CompressionQuality quality = CompressionQuality.valueOf(in.readUTF());
+            int circleCount = in.readInt();
+            int retries = in.readInt();
+            long elapsed = in.readLong();
+            Circle[] circles = new Circle[in.readInt()];
+            for (int i = 0; i < circles.length; ++i) {
+                circles[i] = new Circle(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+            }
+            return new Checkpoint(width, height, quality, circleCount, retries, elapsed, circles);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid checkpoint file: " + file, e);
+        }
+    }
+
+    /**
+     * Write the checkpoint. The file is first written under a temporary name and then moved over the target, so an
+     * interruption never leaves a corrupted checkpoint behind.
+     *
+     * @param file checkpoint file
+     * @throws IOException if the file cannot be written
+     */
+    public void write(File file) throws IOException {
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temporaryFile), 1 << 16))) {
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeUTF(quality.name());
+            out.writeInt(circleCount);
+            out.writeInt(retries);
+            out.writeLong(elapsed);
+            out.writeInt(circles.length);
+            for (Circle circle : circles) {
+                out.writeInt(circle.getX());
+                out.writeInt(circle.getY());
+                out.writeInt(circle.getDiameter());
+                out.writeInt(circle.getColour());
+            }
+        }
+        try {
+            Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Check whether the checkpoint belongs to a compression of an image of given size with given parameters.
+     *
+     * @return {@code true} if the compression can be resumed from the checkpoint
+     */
+    public boolean matches(int width, int height, CompressionQuality quality, int circleCount) {
+        return this.width == width && this.height == height && this.quality == quality &&
+                this.circleCount == circleCount && circles.length <= circleCount;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public CompressionQuality getQuality() {
+        return quality;
+    }
+
+    public int getCircleCount() {
+        return circleCount;
+    }
+
+    public int getRetries() {
+        return retries;
+    }
+
+    public long getElapsed() {
+        return elapsed;
+    }
+
+    public Circle[] getCircles() {
+        return circles;
+    }
+}
@@ -0,0 +1,129 @@
+package localsearch;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Circles of a data file loaded into primitive arrays, in the order they should be drawn. Both the text format
+ * written by {@link LocalSearch} and the binary format of {@link CircleFileWriter} are supported.
+ *
+ * @author Ondřej Kratochvíl
+ */
+public class CircleData {
+
+    private final int width;
+    private final int height;
+    private final int background;
+    private final int[] x;
+    private final int[] y;
+    private final int[] diameter;
+    private final int[] colour;
+
+    public CircleData(int width, int height, int background, int[] x, int[] y, int[] diameter, int[] colour) {
+        this.width = width;
+        this.height = height;
+        this.background = background;
+        this.x = x;
+        this.y = y;
+        this.diameter = diameter;
+        this.colour = colour;
+    }
+
+    /**
+     * Load the circle data file, detecting its format.
+     *
+     * @param file text or binary circle data file
+     * @return loaded circles
+     * @throws IOException if the file cannot be read or has invalid format
+     */
+    public static CircleData read(File file) throws IOException {
+        if (CircleFileReader.isBinary(file)) {
+            try (CircleFileReader reader = new CircleFileReader(file)) {
+                int count = reader.getCircleCount();
+                CircleData data = new CircleData(reader.getWidth(), reader.getHeight(), reader.getBackground(),
+                        new int[count], new int[count], new int[count], new int[count]);
+                int[] index = {0};
+                reader.forEach((x, y, diameter, colour) -> {
+                    data.x[index[0]] = x;
+                    data.y[index[0]] = y;
+                    data.diameter[index[0]] = diameter;
+                    data.colour[index[0]++] = colour;
+                });
+                return data;
+            }
+        }
+        return readText(file);
+    }
+
+    private static CircleData readText(File file) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String[] dimensions = readLine(reader).trim().split(" ");
+            int count = Integer.parseInt(readLine(reader).trim());
+            String[] background = readLine(reader).trim().split(" ");
+            CircleData data = new CircleData(Integer.parseInt(dimensions[0]), Integer.parseInt(dimensions[1]),
+                    toColour(background[0], background[1], background[2], "255"),
+                    new int[count], new int[count], new int[count], new int[count]);
+            // empty line separating the header
+            readLine(reader);
+            for (int i = 0; i < count; ++i) {
+                // XcoordOfCenter,YcoordOfCenter,diameter,R G B A
+                String[] attributes = readLine(reader).split(",");
+                String[] rgba = attributes[3].split(" ");
+                data.x[i] = Integer.parseInt(attributes[0]);
+                data.y[i] = Integer.parseInt(attributes[1]);
+                data.diameter[i] = Integer.parseInt(attributes[2]);
+                data.colour[i] = toColour(rgba[0], rgba[1], rgba[2], rgba[3]);
+            }
+            return data;
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Invalid circle data file: " + file, e);
+        }
+    }
+
+    private static String readLine(BufferedReader reader) throws IOException {
+        String line = reader.readLine();
+        if (line == null) {
+            throw new IOException("Circle data file is truncated");
+        }
+        return line;
+    }
+
+    private static int toColour(String red, String green, String blue, String alpha) {
+        return (Integer.parseInt(alpha) << 24) + (Integer.parseInt(red) << 16) + (Integer.parseInt(green) << 8) +
+                Integer.parseInt(blue);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getBackground() {
+        return background;
+    }
+
+    public int size() {
+        return x.length;
+    }
+
+    public int getX(int index) {
+        return x[index];
+    }
+
+    public int getY(int index) {
+        return y[index];
+    }
+
+    public int getDiameter(int index) {
+        return diameter[index];
+    }
+
+    public int getColour(int index) {
+        return colour[index];
+    }
+}
@@ -0,0 +1,325 @@
+package localsearch;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reader of the binary circle data file written by {@link CircleFileWriter}. The file is memory-mapped through a
+ * window of at most {@link #WINDOW_SIZE} bytes, which slides along the file as it is read, so files larger than a
+ * single mapping can be read as well. The circles are streamed to a {@link CircleVisitor}, without materializing
+ * {@link Circle} objects.
+ *
+ * @author Ondřej Kratochvíl
+ */
+public class CircleFileReader implements Closeable {
+
+    // bytes of the file mapped at once
+    private final static long WINDOW_SIZE = 1 << 30;
+
+    private final FileChannel channel;
+    private final long size;
+    private final long windowSize;
+    // currently mapped part of the file, starting at windowStart
+    private MappedByteBuffer window;
+    private long windowStart;
+    private final int width;
+    private final int height;
+    private final int circleCount;
+    private final int background;
+    // RGB colours of the palette, or null if the colours are stored directly
+    private final int[] palette;
+    // position of the first circle in the file
+    private final long circlesOffset;
+
+    /**
+     * Open the file and read its header.
+     *
+     * @param file binary circle data file
+     * @throws IOException if the file cannot be read or is not a valid circle data file
+     */
+    public CircleFileReader(File file) throws IOException {
+        this(file, WINDOW_SIZE);
+    }
+
+    /**
+     * Open the file with given size of the mapped window.
+     */
+    CircleFileReader(File file, long windowSize) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.windowSize = windowSize;
+        try {
+            this.size = channel.size();
+            seek(0);
+            byte[] magic = new byte[CircleFileWriter.MAGIC.length];
+            for (int i = 0; i < magic.length; ++i) {
+                magic[i] = get();
+            }
+            if (!Arrays.equals(magic, CircleFileWriter.MAGIC)) {
+                throw new IOException("Not a circle data file: " + file);
+            }
+            int version = get() & 0xff;
+            if (version != CircleFileWriter.VERSION) {
+                throw new IOException("Unsupported version of circle data file: " + version);
+            }
+            int flags = get() & 0xff;
+            this.width = readVarint();
+            this.height = readVarint();
+            this.circleCount = readVarint();
+            this.background = readColour();
+            if ((flags & CircleFileWriter.FLAG_PALETTE) != 0) {
+                int paletteSize = readVarint();
+                if (paletteSize < 0 || paletteSize > 1 << 24) {
+                    throw new IOException("Invalid circle data file: " + file);
+                }
+                palette = new int[paletteSize];
+                for (int i = 0; i < palette.length; ++i) {
+                    palette[i] = readColour();
+                }
+            } else {
+                palette = null;
+            }
+            this.circlesOffset = position();
+        } catch (BufferUnderflowException e) {
+            channel.close();
+            throw new IOException("Circle data file is truncated: " + file, e);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Check whether the file starts with the magic bytes of the binary circle data file.
+     *
+     * @param file file to be checked
+     * @return {@code true} if the file is a binary circle data file
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean isBinary(File file) throws IOException {
+        byte[] magic = new byte[CircleFileWriter.MAGIC.length];
+        try (InputStream in = new FileInputStream(file)) {
+            return in.read(magic) == magic.length && Arrays.equals(magic, CircleFileWriter.MAGIC);
+        }
+    }
+
+    /**
+     * Stream all circles to the visitor, in the order they should be drawn. Can be called repeatedly, but not
+     * concurrently.
+     *
+     * @param visitor visitor receiving the circles
+     * @throws IOException if the file is truncated or invalid
+     */
+    public void forEach(CircleVisitor visitor) throws IOException {
+        seek(circlesOffset);
+        int x = 0;
+        int y = 0;
+        int diameter = 0;
+        try {
+            for (int i = 0; i < circleCount; ++i) {
+                x += unzigzag(readVarint());
+                y += unzigzag(readVarint());
+                diameter += unzigzag(readVarint());
+                checkDiameter(diameter);
+                int colour = palette != null ? readPaletteColour() : readColour();
+                visitor.visit(x, y, diameter, colour);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Circle data file is truncated", e);
+        }
+    }
+
+    /**
+     * Stream the sync points of the circles, at which the decoding can start, to the visitor: for every
+     * {@code interval}-th circle, its position in the file and the attributes of the preceding circle, which its
+     * deltas are relative to. Can be called repeatedly, but not concurrently with other methods.
+     *
+     * @param interval amount of circles between the sync points
+     * @param visitor visitor receiving the sync points
+     * @throws IOException if the file is truncated, or the visitor fails
+     */
+    void forEachSyncPoint(int interval, SyncPointVisitor visitor) throws IOException {
+        seek(circlesOffset);
+        int x = 0;
+        int y = 0;
+        int diameter = 0;
+        try {
+            for (int i = 0; i < circleCount; ++i) {
+                if (i % interval == 0) {
+                    visitor.visit(position(), x, y, diameter);
+                }
+                x += unzigzag(readVarint());
+                y += unzigzag(readVarint());
+                diameter += unzigzag(readVarint());
+                if (palette != null) {
+                    readVarint();
+                } else {
+                    readColour();
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Circle data file is truncated", e);
+        }
+    }
+
+    /**
+     * Decode consecutive circles starting at a sync point (see {@link #forEachSyncPoint}) into the arrays. Can be
+     * called repeatedly, but not concurrently with other methods.
+     *
+     * @param position position of the first circle in the file
+     * @param x x coordinate of the center of the preceding circle
+     * @param y y coordinate of the center of the preceding circle
+     * @param diameter diameter of the preceding circle
+     * @param count amount of circles to be decoded
+     * @param xs target x coordinates of the centers
+     * @param ys target y coordinates of the centers
+     * @param diameters target diameters
+     * @param colours target colours
+     * @throws IOException if the file is truncated or invalid
+     */
+    void read(long position, int x, int y, int diameter, int count, int[] xs, int[] ys, int[] diameters,
+              int[] colours) throws IOException {
+        if (position < circlesOffset || position > size) {
+            throw new IOException("Invalid position of circle data: " + position);
+        }
+        try {
+            seek(position);
+            for (int i = 0; i < count; ++i) {
+                x += unzigzag(readVarint());
+                y += unzigzag(readVarint());
+                diameter += unzigzag(readVarint());
+                checkDiameter(diameter);
+                xs[i] = x;
+                ys[i] = y;
+                diameters[i] = diameter;
+                colours[i] = palette != null ? readPaletteColour() : readColour();
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Circle data file is truncated", e);
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getCircleCount() {
+        return circleCount;
+    }
+
+    public int getBackground() {
+        return background;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Move the window, if needed, so that the next byte is read from given position of the file.
+     */
+    private void seek(long position) throws IOException {
+        if (window != null && position >= windowStart && position < windowStart + window.limit()) {
+            window.position((int) (position - windowStart));
+        } else {
+            map(position);
+        }
+    }
+
+    private void map(long position) throws IOException {
+        windowStart = position;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.max(0, Math.min(windowSize,
+                size - position)));
+    }
+
+    private long position() {
+        return windowStart + window.position();
+    }
+
+    private byte get() throws IOException {
+        if (!window.hasRemaining()) {
+            long position = position();
+            if (position >= size) {
+                throw new BufferUnderflowException();
+            }
+            map(position);
+        }
+        return window.get();
+    }
+
+    private int readVarint() throws IOException {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Read an unsigned LEB128 value, see {@link CircleFileWriter}.
+     */
+    static int readVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private int readPaletteColour() throws IOException {
+        int index = readVarint();
+        if (index < 0 || index >= palette.length) {
+            throw new IOException("Invalid circle data file: palette index " + index + " out of range");
+        }
+        return palette[index];
+    }
+
+    private static void checkDiameter(int diameter) throws IOException {
+        if (diameter < 0) {
+            throw new IOException("Invalid circle data file: negative diameter " + diameter);
+        }
+    }
+
+    private int readColour() throws IOException {
+        return (0xff << 24) + ((get() & 0xff) << 16) + ((get() & 0xff) << 8) + (get() & 0xff);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Callback receiving the sync points, see {@link #forEachSyncPoint(int, SyncPointVisitor)}.
+     */
+    @FunctionalInterface
+    interface SyncPointVisitor {
+
+        /**
+         * @param position position of the circle in the file
+         * @param x x coordinate of the center of the preceding circle
+         * @param y y coordinate of the center of the preceding circle
+         * @param diameter diameter of the preceding circle
+         * @throws IOException if the sync point cannot be processed
+         */
+        void visit(long position, int x, int y, int diameter) throws IOException;
+    }
+}
@@ -0,0 +1,208 @@
+package localsearch;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writer of the compact binary circle data file. The file has the following structure (varint stands for unsigned
+ * LEB128, zigzag for a signed value mapped to varint):
+ * <pre>
+ * magic "LSCC", {version} (byte), {flags} (byte)
+ * {width} (varint), {height} (varint), {amount of circles} (varint), {background colour} (3 bytes RGB)
+ * [if FLAG_PALETTE]
+ *     {palette size} (varint), {colour} (3 bytes RGB) for each palette entry
+ * [for each circle]
+ *     {x - previous x} (zigzag), {y - previous y} (zigzag), {diameter - previous diameter} (zigzag),
+ *     {palette index} (varint) or {colour} (3 bytes RGB)
+ * </pre>
+ * The alpha channel of the colours is not stored, since {@link GraphicHelper#mixColour(int, int)} ignores it. The
+ * palette is used whenever it makes the file smaller, with the most frequent colours getting the shortest indices.
+ *
+ * @author Ondřej Kratochvíl
+ */
+public final class CircleFileWriter {
+
+    public final static byte[] MAGIC = {'L', 'S', 'C', 'C'};
+    public final static int VERSION = 1;
+    public final static int FLAG_PALETTE = 1;
+
+    private CircleFileWriter() {
+    }
+
+    /**
+     * Write the circles into a binary data file.
+     *
+     * @param file target file
+     * @param width width of the image
+     * @param height height of the image
+     * @param background background colour of the image
+     * @param circles circles in the order they should be drawn
+     * @return size of the written file in bytes
+     * @throws IOException if the file cannot be written
+     */
+    public static long write(File file, int width, int height, int background, Circle[] circles)
+            throws IOException {
+        try (CountingOutputStream out = new CountingOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            write(out, width, height, background, circles);
+            return out.count;
+        }
+    }
+
+    /**
+     * Write the circles in the binary format into given stream.
+     *
+     * @param out target stream, not closed by this method
+     * @param width width of the image
+     * @param height height of the image
+     * @param background background colour of the image
+     * @param circles circles in the order they should be drawn
+     * @throws IOException if the stream cannot be written
+     */
+    public static void write(OutputStream out, int width, int height, int background, Circle[] circles)
+            throws IOException {
+        write(out, width, height, background, circles.length, Arrays.asList(circles).iterator(),
+                createPalette(circles));
+    }
+
+    /**
+     * Write circles, which do not have to fit into the memory, in the binary format into given stream. The colours
+     * are stored directly, since the palette would need another pass over the circles.
+     *
+     * @param out target stream, not closed by this method
+     * @param width width of the image
+     * @param height height of the image
+     * @param background background colour of the image
+     * @param circleCount amount of the circles
+     * @param circles circles in the order they should be drawn
+     * @throws IOException if the stream cannot be written
+     */
+    public static void write(OutputStream out, int width, int height, int background, int circleCount,
+                             Iterator<Circle> circles) throws IOException {
+        write(out, width, height, background, circleCount, circles, null);
+    }
+
+    private static void write(OutputStream out, int width, int height, int background, int circleCount,
+                              Iterator<Circle> circles, Map<Integer, Integer> palette) throws IOException {
+        out.write(MAGIC);
+        out.write(VERSION);
+        out.write(palette == null ? 0 : FLAG_PALETTE);
+        writeVarint(out, width);
+        writeVarint(out, height);
+        writeVarint(out, circleCount);
+        writeColour(out, background);
+        if (palette != null) {
+            int[] entries = new int[palette.size()];
+            for (Map.Entry<Integer, Integer> entry : palette.entrySet()) {
+                entries[entry.getValue()] = entry.getKey();
+            }
+            writeVarint(out, entries.length);
+            for (int colour : entries) {
+                writeColour(out, colour);
+            }
+        }
+        int previousX = 0;
+        int previousY = 0;
+        int previousDiameter = 0;
+        while (circles.hasNext()) {
+            Circle circle = circles.next();
+            writeVarint(out, zigzag(circle.getX() - previousX));
+            writeVarint(out, zigzag(circle.getY() - previousY));
+            writeVarint(out, zigzag(circle.getDiameter() - previousDiameter));
+            if (palette != null) {
+                writeVarint(out, palette.get(circle.getColour() & 0xffffff));
+            } else {
+                writeColour(out, circle.getColour());
+            }
+            previousX = circle.getX();
+            previousY = circle.getY();
+            previousDiameter = circle.getDiameter();
+        }
+    }
+
+    /**
+     * Create the palette, if it makes the file smaller.
+     *
+     * @return mapping of RGB colours to palette indices, or {@code null} if the colours should be stored directly
+     */
+    private static Map<Integer, Integer> createPalette(Circle[] circles) {
+        Map<Integer, int[]> frequencies = new HashMap<>();
+        for (Circle circle : circles) {
+            frequencies.computeIfAbsent(circle.getColour() & 0xffffff, colour -> new int[1])[0]++;
+        }
+        List<Map.Entry<Integer, int[]>> entries = new ArrayList<>(frequencies.entrySet());
+        entries.sort((first, second) -> Integer.compare(second.getValue()[0], first.getValue()[0]));
+        long paletteSize = varintSize(entries.size()) + 3L * entries.size();
+        long directSize = 3L * circles.length;
+        Map<Integer, Integer> palette = new HashMap<>();
+        for (int i = 0; i < entries.size(); ++i) {
+            paletteSize += (long) varintSize(i) * entries.get(i).getValue()[0];
+            palette.put(entries.get(i).getKey(), i);
+        }
+        return paletteSize < directSize ? palette : null;
+    }
+
+    /**
+     * Map a signed value to an unsigned one, so that values close to zero have short varint encoding.
+     */
+    public static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    /**
+     * @return amount of bytes of the varint encoding of the (unsigned) value
+     */
+    public static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7f) != 0) {
+            value >>>= 7;
+            ++size;
+        }
+        return size;
+    }
+
+    static void writeVarint(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static void writeColour(OutputStream out, int colour) throws IOException {
+        out.write(GraphicHelper.getRed(colour));
+        out.write(GraphicHelper.getGreen(colour));
+        out.write(GraphicHelper.getBlue(colour));
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            ++count;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
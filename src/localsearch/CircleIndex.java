@@ -0,0 +1,399 @@
+package localsearch;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Spatial index of a binary circle data file, stored in a separate file next to it, which lets a region of the image
+ * be rendered from the circles intersecting it only (see {@link Decoder#decodeRegion}). The image is divided into a
+ * grid of square cells, and each cell lists the circles whose circumscribed square intersects it. Since the circles
+ * are delta-encoded, the index also holds a sync point every {@link #SYNC_INTERVAL} circles, at which the decoding of
+ * the circle file can start. The time of decoding a region therefore depends on the amount of circles intersecting
+ * it, not on the amount of all circles.
+ * <p>
+ * The file has the following structure (int and long stand for big-endian 32-bit and 64-bit values, varint for
+ * unsigned LEB128):
+ * <pre>
+ * magic "LSCI", {version} (byte)
+ * {width} (int), {height} (int), {amount of circles} (int), {cell size} (int), {sync interval} (int)
+ * [for each sync point]
+ *     {position of the circle in the circle file} (long), {x} (int), {y} (int), {diameter} (int) of the preceding
+ *     circle
+ * [for each cell in row-major order, and once more]
+ *     {position of the list of the cell, relative to the first list} (long)
+ * [for each cell]
+ *     {first index} (varint), {index - previous index} (varint) for each other circle intersecting the cell
+ * </pre>
+ * The index is written in two passes over the circle file, the first one measuring the lists of the cells and the
+ * second one writing them at their offsets, so building it takes memory proportional to the amount of cells only.
+ * Both the index and the circle file may be larger than 2 GB.
+ *
+ * @author Ondřej Kratochvíl
+ */
+public class CircleIndex implements Closeable {
+
+    public final static byte[] MAGIC = {'L', 'S', 'C', 'I'};
+    public final static int VERSION = 2;
+    // pixels
+    public final static int DEFAULT_CELL_SIZE = 64;
+    // amount of circles between the sync points
+    private final static int SYNC_INTERVAL = 16;
+    private final static int HEADER_SIZE = MAGIC.length + 1 + 5 * Integer.BYTES;
+    private final static int SYNC_POINT_SIZE = Long.BYTES + 3 * Integer.BYTES;
+    // bytes of the file in a single mapping
+    private final static long MAPPING_SIZE = 1 << 30;
+    // bytes by which the mappings overlap, so that an int or a long never spans two of them
+    private final static long MAPPING_OVERLAP = Long.BYTES;
+
+    private final FileChannel channel;
+    // consecutive parts of the file, MAPPING_SIZE bytes apart
+    private final MappedByteBuffer[] mappings;
+    private final long size;
+    private final int width;
+    private final int height;
+    private final int circleCount;
+    private final int cellSize;
+    private final int syncInterval;
+    private final int columns;
+    private final int rows;
+    private final long syncPointsOffset;
+    private final long cellsOffset;
+    private final long listsOffset;
+
+    /**
+     * Open the index file and read its header.
+     *
+     * @param file index file
+     * @throws IOException if the file cannot be read or is not a valid index file
+     */
+    public CircleIndex(File file) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            this.size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new IOException("Circle index file is truncated: " + file);
+            }
+            this.mappings = new MappedByteBuffer[(int) ((size + MAPPING_SIZE - 1) / MAPPING_SIZE)];
+            for (int i = 0; i < mappings.length; ++i) {
+                long start = i * MAPPING_SIZE;
+                mappings[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(MAPPING_SIZE + MAPPING_OVERLAP, size - start));
+            }
+            byte[] magic = new byte[MAGIC.length];
+            for (int i = 0; i < magic.length; ++i) {
+                magic[i] = getByte(i);
+            }
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a circle index file: " + file);
+            }
+            int version = getByte(MAGIC.length) & 0xff;
+            if (version != VERSION) {
+                throw new IOException("Unsupported version of circle index file: " + version);
+            }
+            long position = MAGIC.length + 1;
+            this.width = getInt(position);
+            this.height = getInt(position += Integer.BYTES);
+            this.circleCount = getInt(position += Integer.BYTES);
+            this.cellSize = getInt(position += Integer.BYTES);
+            this.syncInterval = getInt(position += Integer.BYTES);
+            if (width < 0 || height < 0 || circleCount < 0 || cellSize < 1 || syncInterval < 1) {
+                throw new IOException("Invalid circle index file: " + file);
+            }
+            this.columns = (width + cellSize - 1) / cellSize;
+            this.rows = (height + cellSize - 1) / cellSize;
+            this.syncPointsOffset = HEADER_SIZE;
+            this.cellsOffset = syncPointsOffset
+                    + (long) SYNC_POINT_SIZE * getSyncPointCount(circleCount, syncInterval);
+            this.listsOffset = cellsOffset + ((long) columns * rows + 1) * Long.BYTES;
+            if (listsOffset > size) {
+                throw new IOException("Circle index file is truncated: " + file);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Get the index file belonging to a circle data file, e.g. {@code data.idx} for {@code data.bin}.
+     *
+     * @param circleFile binary circle data file
+     * @return index file next to it
+     */
+    public static File getIndexFile(File circleFile) {
+        String name = circleFile.getName();
+        String baseName = name.contains(".") ? name.substring(0, name.lastIndexOf('.')) : name;
+        return new File(circleFile.getAbsoluteFile().getParentFile(), baseName + ".idx");
+    }
+
+    /**
+     * Build the index of a binary circle data file.
+     *
+     * @param circleFile binary circle data file
+     * @param indexFile target index file
+     * @param cellSize side of the cells of the grid in pixels
+     * @return size of the written index file in bytes
+     * @throws IOException if the circle file cannot be read or the index file cannot be written
+     */
+    public static long write(File circleFile, File indexFile, int cellSize) throws IOException {
+        if (cellSize < 1) {
+            throw new IllegalArgumentException("Cell size must be positive, got " + cellSize);
+        }
+        try (CircleFileReader reader = new CircleFileReader(circleFile)) {
+            int width = reader.getWidth();
+            int height = reader.getHeight();
+            int columns = (width + cellSize - 1) / cellSize;
+            int rows = (height + cellSize - 1) / cellSize;
+            if ((long) columns * rows >= Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Too many cells of size " + cellSize + " for " + width + "x"
+                        + height + " image");
+            }
+            int cellCount = columns * rows;
+
+            // first pass: measure the delta-encoded list of each cell, to get the offsets of the lists
+            int[] previous = new int[cellCount];
+            long[] offsets = new long[cellCount + 1];
+            int[] index = {0};
+            reader.forEach((x, y, diameter, colour) -> {
+                forEachCell(x, y, diameter, width, height, cellSize, columns, cell -> {
+                    offsets[cell + 1] += CircleFileWriter.varintSize(index[0] - previous[cell]);
+                    previous[cell] = index[0];
+                });
+                ++index[0];
+            });
+            for (int cell = 0; cell < cellCount; ++cell) {
+                offsets[cell + 1] += offsets[cell];
+            }
+
+            long listsOffset;
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(indexFile), 1 << 16))) {
+                out.write(MAGIC);
+                out.write(VERSION);
+                out.writeInt(width);
+                out.writeInt(height);
+                out.writeInt(reader.getCircleCount());
+                out.writeInt(cellSize);
+                out.writeInt(SYNC_INTERVAL);
+                reader.forEachSyncPoint(SYNC_INTERVAL, (position, x, y, diameter) -> {
+                    out.writeLong(position);
+                    out.writeInt(x);
+                    out.writeInt(y);
+                    out.writeInt(diameter);
+                });
+                for (long offset : offsets) {
+                    out.writeLong(offset);
+                }
+                listsOffset = HEADER_SIZE + (long) SYNC_POINT_SIZE
+                        * getSyncPointCount(reader.getCircleCount(), SYNC_INTERVAL) + (long) offsets.length * Long.BYTES;
+            }
+
+            // second pass: write the index of each circle at the end of the lists of the cells it intersects
+            long listsSize = offsets[cellCount];
+            try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                MappedByteBuffer[] lists =
+                        new MappedByteBuffer[(int) ((listsSize + MAPPING_SIZE - 1) / MAPPING_SIZE)];
+                for (int i = 0; i < lists.length; ++i) {
+                    long start = i * MAPPING_SIZE;
+                    lists[i] = channel.map(FileChannel.MapMode.READ_WRITE, listsOffset + start,
+                            Math.min(MAPPING_SIZE, listsSize - start));
+                }
+                Arrays.fill(previous, 0);
+                index[0] = 0;
+                reader.forEach((x, y, diameter, colour) -> {
+                    forEachCell(x, y, diameter, width, height, cellSize, columns, cell -> {
+                        offsets[cell] = putVarint(lists, offsets[cell], index[0] - previous[cell]);
+                        previous[cell] = index[0];
+                    });
+                    ++index[0];
+                });
+                for (MappedByteBuffer mapping : lists) {
+                    mapping.force();
+                }
+            }
+            return listsOffset + listsSize;
+        }
+    }
+
+    /**
+     * Write an unsigned LEB128 value at given position of the mapped lists.
+     *
+     * @return position following the value
+     */
+    private static long putVarint(MappedByteBuffer[] lists, long position, int value) {
+        while ((value & ~0x7f) != 0) {
+            putByte(lists, position++, (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        putByte(lists, position++, value);
+        return position;
+    }
+
+    private static void putByte(MappedByteBuffer[] lists, long position, int value) {
+        lists[(int) (position / MAPPING_SIZE)].put((int) (position % MAPPING_SIZE), (byte) value);
+    }
+
+    /**
+     * Call the consumer with each cell intersecting the circumscribed (right-open) square of the circle.
+     */
+    private static void forEachCell(int x, int y, int diameter, int width, int height, int cellSize, int columns,
+                                    IntConsumer consumer) {
+        int lowerBoundX = Math.max(0, x - diameter);
+        int upperBoundX = Math.min(width, x + diameter);
+        int lowerBoundY = Math.max(0, y - diameter);
+        int upperBoundY = Math.min(height, y + diameter);
+        if (lowerBoundX >= upperBoundX || lowerBoundY >= upperBoundY) {
+            return;
+        }
+        for (int row = lowerBoundY / cellSize; row <= (upperBoundY - 1) / cellSize; ++row) {
+            for (int column = lowerBoundX / cellSize; column <= (upperBoundX - 1) / cellSize; ++column) {
+                consumer.accept(row * columns + column);
+            }
+        }
+    }
+
+    private static int getSyncPointCount(int circleCount, int syncInterval) {
+        return (circleCount + syncInterval - 1) / syncInterval;
+    }
+
+    /**
+     * Stream the circles whose circumscribed square intersects the region to the visitor, in the order they should
+     * be drawn. Can be called repeatedly, but not concurrently with other methods of the reader.
+     *
+     * @param reader reader of the indexed circle file
+     * @param x left border of the region
+     * @param y top border of the region
+     * @param regionWidth width of the region
+     * @param regionHeight height of the region
+     * @param visitor visitor receiving the circles
+     * @throws IOException if the index or the circle file is truncated, or if the index belongs to another file
+     */
+    public void forEachIntersecting(CircleFileReader reader, int x, int y, int regionWidth, int regionHeight,
+                                    CircleVisitor visitor) throws IOException {
+        if (reader.getWidth() != width || reader.getHeight() != height || reader.getCircleCount() != circleCount) {
+            throw new IOException("Circle index does not belong to the circle data file");
+        }
+        int lowerBoundX = Math.max(0, x);
+        int upperBoundX = Math.min(width, x + regionWidth);
+        int lowerBoundY = Math.max(0, y);
+        int upperBoundY = Math.min(height, y + regionHeight);
+        if (lowerBoundX >= upperBoundX || lowerBoundY >= upperBoundY) {
+            return;
+        }
+        int[] circles = collectCircles(lowerBoundX, upperBoundX, lowerBoundY, upperBoundY);
+
+        int[] xs = new int[syncInterval];
+        int[] ys = new int[syncInterval];
+        int[] diameters = new int[syncInterval];
+        int[] colours = new int[syncInterval];
+        int decodedSyncPoint = -1;
+        int previous = -1;
+        for (int circle : circles) {
+            if (circle == previous) {
+                continue;
+            }
+            previous = circle;
+            int syncPoint = circle / syncInterval;
+            if (syncPoint != decodedSyncPoint) {
+                long position = syncPointsOffset + (long) SYNC_POINT_SIZE * syncPoint;
+                reader.read(getLong(position), getInt(position + Long.BYTES),
+                        getInt(position + Long.BYTES + Integer.BYTES),
+                        getInt(position + Long.BYTES + 2 * Integer.BYTES),
+                        Math.min(syncInterval, circleCount - syncPoint * syncInterval), xs, ys, diameters, colours);
+                decodedSyncPoint = syncPoint;
+            }
+            int i = circle - syncPoint * syncInterval;
+            // the cells may extend beyond the region
+            if (xs[i] - diameters[i] < upperBoundX && xs[i] + diameters[i] > lowerBoundX &&
+                    ys[i] - diameters[i] < upperBoundY && ys[i] + diameters[i] > lowerBoundY) {
+                visitor.visit(xs[i], ys[i], diameters[i], colours[i]);
+            }
+        }
+    }
+
+    /**
+     * Collect the indices of the circles of all cells intersecting the region.
+     *
+     * @return sorted indices, with duplicates
+     */
+    private int[] collectCircles(int lowerBoundX, int upperBoundX, int lowerBoundY, int upperBoundY)
+            throws IOException {
+        int[] circles = new int[64];
+        int size = 0;
+        for (int row = lowerBoundY / cellSize; row <= (upperBoundY - 1) / cellSize; ++row) {
+            for (int column = lowerBoundX / cellSize; column <= (upperBoundX - 1) / cellSize; ++column) {
+                long cell = (long) row * columns + column;
+                long position = listsOffset + getLong(cellsOffset + cell * Long.BYTES);
+                long end = listsOffset + getLong(cellsOffset + (cell + 1) * Long.BYTES);
+                if (position < listsOffset || end < position || end > this.size) {
+                    throw new IOException("Invalid circle index file: list of cell " + cell + " out of range");
+                }
+                int circle = 0;
+                while (position < end) {
+                    // read an unsigned LEB128 value, see CircleFileWriter
+                    int delta = 0;
+                    for (int shift = 0; ; shift += 7) {
+                        if (position >= end || shift > 28) {
+                            throw new IOException("Invalid circle index file: malformed list of cell " + cell);
+                        }
+                        byte b = getByte(position++);
+                        delta |= (b & 0x7f) << shift;
+                        if (b >= 0) {
+                            break;
+                        }
+                    }
+                    circle += delta;
+                    if (circle < 0 || circle >= circleCount) {
+                        throw new IOException("Invalid circle index file: circle " + circle + " out of range");
+                    }
+                    if (size == circles.length) {
+                        circles = Arrays.copyOf(circles, 2 * size);
+                    }
+                    circles[size++] = circle;
+                }
+            }
+        }
+        Arrays.sort(circles, 0, size);
+        return Arrays.copyOf(circles, size);
+    }
+
+    private byte getByte(long position) throws IOException {
+        checkPosition(position, Byte.BYTES);
+        return mappings[(int) (position / MAPPING_SIZE)].get((int) (position % MAPPING_SIZE));
+    }
+
+    private int getInt(long position) throws IOException {
+        checkPosition(position, Integer.BYTES);
+        return mappings[(int) (position / MAPPING_SIZE)].getInt((int) (position % MAPPING_SIZE));
+    }
+
+    private long getLong(long position) throws IOException {
+        checkPosition(position, Long.BYTES);
+        return mappings[(int) (position / MAPPING_SIZE)].getLong((int) (position % MAPPING_SIZE));
+    }
+
+    private void checkPosition(long position, int bytes) throws IOException {
+        if (position < 0 || position > size - bytes) {
+            throw new IOException("Circle index file is truncated");
+        }
+    }
+
+    public int getCellSize() {
+        return cellSize;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,385 @@
+package localsearch;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntConsumer;
+
+import static localsearch.GraphicHelper.*;
+
+/**
+ * Refinement of already placed circles, run after the hill climbing algorithm. Random circles are moved, resized,
+ * recoloured or deleted, and each mutation is kept if it decreases the error of the output (see
+ * {@link RasterEngine#getError()}). Deletions are also kept when the error does not change.
+ * <p>
+ * Since the colour of a pixel depends on the order the circles covering it were mixed in, a mutation is scored by
+ * compositing the region covered by the old and the new circle again, from the background and in the original
+ * order. The circles are found by an index of uniform cells of {@link #CELL_SIZE} pixels, each holding the sorted
+ * ids of the circles covering it, so only the circles around the mutated one are composited.
+ *
+ * @author Ondřej Kratochvíl
+ */
+public class CircleRefinement {
+
+    /**
+     * Kind of mutation of a circle.
+     */
+    public enum Mutation {
+        MOVE,
+        RESIZE,
+        RECOLOUR,
+        DELETE
+    }
+
+    // side of the cells of the index in pixels
+    private final static int CELL_SIZE = 16;
+    // maximum change of each colour channel by a recolouring
+    private final static int RECOLOUR_STEP = 16;
+    // amount of iterations between the checks of the deadline
+    private final static int DEADLINE_CHECK_INTERVAL = 256;
+
+    private final RasterEngine engine;
+    private final int background;
+    private final int width;
+    private final int height;
+    // circles in the drawing order, deleted ones are null
+    private final Circle[] circles;
+    // neighbouring circles which are not deleted, -1 if there is none
+    private final int[] previous;
+    private final int[] next;
+    private final int columns;
+    private final int[][] cells;
+    private final int[] cellSizes;
+    // ids of the circles composited by the current mutation
+    private int[] affected = new int[64];
+    // the mutation in which each circle was last added to the affected circles
+    private final int[] stamps;
+    private int stamp;
+    private int[] region = new int[0];
+    private final long[] proposed = new long[Mutation.values().length];
+    private final long[] accepted = new long[Mutation.values().length];
+    private FramePublisher.Channel channel;
+    private StopCondition stopCondition;
+    private Random random;
+
+    /**
+     * @param engine raster engine with the output image rendered from the circles
+     * @param circles placed circles, in the order they were drawn. The array and the circles are not modified
+     * @param background colour of the output image before the first circle was drawn
+     */
+    public CircleRefinement(RasterEngine engine, Circle[] circles, int background) {
+        this.engine = engine;
+        this.background = background;
+        this.width = engine.getWidth();
+        this.height = engine.getHeight();
+        this.circles = new Circle[circles.length];
+        this.previous = new int[circles.length];
+        this.next = new int[circles.length];
+        this.stamps = new int[circles.length];
+        this.columns = (width + CELL_SIZE - 1) / CELL_SIZE;
+        int rows = (height + CELL_SIZE - 1) / CELL_SIZE;
+        this.cells = new int[columns * rows][];
+        this.cellSizes = new int[columns * rows];
+        for (int i = 0; i < circles.length; ++i) {
+            Circle circle = circles[i];
+            this.circles[i] = new Circle(circle.getX(), circle.getY(), circle.getDiameter(), circle.getColour());
+            previous[i] = i - 1;
+            next[i] = i + 1 < circles.length ? i + 1 : -1;
+            addToCells(i, this.circles[i]);
+        }
+    }
+
+    /**
+     * @param publisher publisher each changed region is published to for visualization, or {@code null}
+     */
+    public void setPublisher(FramePublisher publisher) {
+        this.channel = publisher != null ? publisher.openChannel() : null;
+    }
+
+    /**
+     * @param stopCondition stop condition of the compression, whose deadline ends the refinement and whose size
+     *                      budget the mutations have to fit into, or {@code null}
+     */
+    public void setStopCondition(StopCondition stopCondition) {
+        this.stopCondition = stopCondition;
+    }
+
+    /**
+     * @param random source of randomness of the refinement, or {@code null} to use {@link ThreadLocalRandom}
+     */
+    public void setRandom(Random random) {
+        this.random = random;
+    }
+
+    /**
+     * Propose given amount of mutations of random circles, or less if the deadline passes or the compression is
+     * cancelled.
+     *
+     * @param iterations amount of proposed mutations
+     * @return refined circles, in the order they are drawn
+     */
+    public Circle[] refine(int iterations) {
+        Random random = this.random != null ? this.random : ThreadLocalRandom.current();
+        for (int iteration = 0; iteration < iterations && circles.length > 0; ++iteration) {
+            if (iteration % DEADLINE_CHECK_INTERVAL == 0 && stopCondition != null &&
+                    (stopCondition.isDeadlinePassed() || stopCondition.isCancelled())) {
+                break;
+            }
+            int id = random.nextInt(circles.length);
+            Circle circle = circles[id];
+            if (circle == null) {
+                continue;
+            }
+            Mutation mutation = Mutation.values()[random.nextInt(Mutation.values().length)];
+            ++proposed[mutation.ordinal()];
+            if (tryMutation(id, mutate(circle, mutation, random))) {
+                ++accepted[mutation.ordinal()];
+            }
+        }
+        return getCircles();
+    }
+
+    /**
+     * @return the current circles, in the order they are drawn
+     */
+    public Circle[] getCircles() {
+        return Arrays.stream(circles).filter(Objects::nonNull).toArray(Circle[]::new);
+    }
+
+    /**
+     * @param mutation kind of mutation
+     * @return amount of proposed mutations of given kind
+     */
+    public long getProposed(Mutation mutation) {
+        return proposed[mutation.ordinal()];
+    }
+
+    /**
+     * @param mutation kind of mutation
+     * @return amount of accepted mutations of given kind
+     */
+    public long getAccepted(Mutation mutation) {
+        return accepted[mutation.ordinal()];
+    }
+
+    /**
+     * @return mutated copy of the circle, or {@code null} for a deletion
+     */
+    private Circle mutate(Circle circle, Mutation mutation, Random random) {
+        int x = circle.getX();
+        int y = circle.getY();
+        int diameter = circle.getDiameter();
+        int colour = circle.getColour();
+        switch (mutation) {
+            case MOVE:
+                int distance = Math.max(1, diameter / 2);
+                x = Math.min(width - 1, Math.max(0, x + random.nextInt(2 * distance + 1) - distance));
+                y = Math.min(height - 1, Math.max(0, y + random.nextInt(2 * distance + 1) - distance));
+                break;
+            case RESIZE:
+                int change = Math.max(1, diameter / 4);
+                diameter = Math.max(1, diameter + random.nextInt(2 * change + 1) - change);
+                break;
+            case RECOLOUR:
+                int red = clamp(getRed(colour) + random.nextInt(2 * RECOLOUR_STEP + 1) - RECOLOUR_STEP);
+                int green = clamp(getGreen(colour) + random.nextInt(2 * RECOLOUR_STEP + 1) - RECOLOUR_STEP);
+                int blue = clamp(getBlue(colour) + random.nextInt(2 * RECOLOUR_STEP + 1) - RECOLOUR_STEP);
+                colour = (colour & 0xff000000) | (red << 16) | (green << 8) | blue;
+                break;
+            default:
+                return null;
+        }
+        return new Circle(x, y, diameter, colour);
+    }
+
+    /**
+     * Replace the circle by its mutation, if it decreases the error of the output.
+     *
+     * @param id id of the circle
+     * @param mutated mutated circle, or {@code null} for a deletion
+     * @return {@code true} if the mutation was accepted
+     */
+    private boolean tryMutation(int id, Circle mutated) {
+        Circle circle = circles[id];
+        int lowerBoundX = Math.max(0, Math.min(circle.getX() - circle.getDiameter(),
+                mutated != null ? mutated.getX() - mutated.getDiameter() : Integer.MAX_VALUE));
+        int lowerBoundY = Math.max(0, Math.min(circle.getY() - circle.getDiameter(),
+                mutated != null ? mutated.getY() - mutated.getDiameter() : Integer.MAX_VALUE));
+        int upperBoundX = Math.min(width, Math.max(circle.getX() + circle.getDiameter(),
+                mutated != null ? mutated.getX() + mutated.getDiameter() : Integer.MIN_VALUE));
+        int upperBoundY = Math.min(height, Math.max(circle.getY() + circle.getDiameter(),
+                mutated != null ? mutated.getY() + mutated.getDiameter() : Integer.MIN_VALUE));
+        if (lowerBoundX >= upperBoundX || lowerBoundY >= upperBoundY) {
+            return false;
+        }
+        int affectedCount = collectAffected(id, lowerBoundX, lowerBoundY, upperBoundX, upperBoundY);
+        int regionWidth = upperBoundX - lowerBoundX;
+        int regionHeight = upperBoundY - lowerBoundY;
+        if (region.length < regionWidth * regionHeight) {
+            region = new int[regionWidth * regionHeight];
+        }
+        Arrays.fill(region, 0, regionWidth * regionHeight, background);
+        for (int i = 0; i < affectedCount; ++i) {
+            Circle drawn = affected[i] == id ? mutated : circles[affected[i]];
+            if (drawn != null) {
+                composite(drawn, lowerBoundX, lowerBoundY, upperBoundX, upperBoundY);
+            }
+        }
+        long errorChange = getErrorChange(lowerBoundX, lowerBoundY, upperBoundX, upperBoundY);
+        if (errorChange > 0 || (errorChange == 0 && mutated != null)) {
+            return false;
+        }
+        if (stopCondition != null && !stopCondition.fits(getEncodedSizeChange(id, mutated))) {
+            return false;
+        }
+        engine.replaceRegion(lowerBoundX, lowerBoundY, upperBoundX, upperBoundY, region);
+        removeFromCells(id, circle);
+        if (mutated != null) {
+            circles[id] = mutated;
+            addToCells(id, mutated);
+        } else {
+            circles[id] = null;
+            if (previous[id] != -1) {
+                next[previous[id]] = next[id];
+            }
+            if (next[id] != -1) {
+                previous[next[id]] = previous[id];
+            }
+        }
+        if (channel != null) {
+            channel.publish(lowerBoundX, lowerBoundY, upperBoundX, upperBoundY);
+        }
+        return true;
+    }
+
+    /**
+     * Collect the sorted ids of the circles covering the cells of the region, including the mutated circle.
+     *
+     * @return amount of collected ids
+     */
+    private int collectAffected(int id, int lowerBoundX, int lowerBoundY, int upperBoundX, int upperBoundY) {
+        ++stamp;
+        int count = 0;
+        stamps[id] = stamp;
+        affected[count++] = id;
+        for (int row = lowerBoundY / CELL_SIZE; row <= (upperBoundY - 1) / CELL_SIZE; ++row) {
+            for (int column = lowerBoundX / CELL_SIZE; column <= (upperBoundX - 1) / CELL_SIZE; ++column) {
+                int cell = row * columns + column;
+                for (int i = 0; i < cellSizes[cell]; ++i) {
+                    int circle = cells[cell][i];
+                    if (stamps[circle] != stamp) {
+                        stamps[circle] = stamp;
+                        if (count == affected.length) {
+                            affected = Arrays.copyOf(affected, 2 * count);
+                        }
+                        affected[count++] = circle;
+                    }
+                }
+            }
+        }
+        Arrays.sort(affected, 0, count);
+        return count;
+    }
+
+    /**
+     * Mix the circle into the composited region.
+     */
+    private void composite(Circle circle, int lowerBoundX, int lowerBoundY, int upperBoundX, int upperBoundY) {
+        int diameter = circle.getDiameter();
+        int colour = circle.getColour();
+        CircleSpans spans = CircleSpans.of(diameter);
+        int regionWidth = upperBoundX - lowerBoundX;
+        for (int j = Math.max(lowerBoundY, circle.getY() - diameter);
+             j < Math.min(upperBoundY, circle.getY() + diameter); ++j) {
+            int row = j - (circle.getY() - diameter);
+            int rowOffset = (j - lowerBoundY) * regionWidth - lowerBoundX;
+            for (int i = Math.max(lowerBoundX, circle.getX() + spans.getStart(row));
+                 i < Math.min(upperBoundX, circle.getX() + spans.getEnd(row)); ++i) {
+                region[rowOffset + i] = mixColour(region[rowOffset + i], colour);
+            }
+        }
+    }
+
+    /**
+     * @return change of the error of the output, if the region was replaced by the composited one
+     */
+    private long getErrorChange(int lowerBoundX, int lowerBoundY, int upperBoundX, int upperBoundY) {
+        int[] input = engine.getInput();
+        int[] output = engine.getOutput();
+        int regionWidth = upperBoundX - lowerBoundX;
+        long errorChange = 0;
+        for (int j = lowerBoundY; j < upperBoundY; ++j) {
+            int rowOffset = j * width;
+            int regionOffset = (j - lowerBoundY) * regionWidth - lowerBoundX;
+            for (int i = lowerBoundX; i < upperBoundX; ++i) {
+                int inputColour = input[rowOffset + i];
+                errorChange += RasterEngine.getError(inputColour, region[regionOffset + i]) -
+                        RasterEngine.getError(inputColour, output[rowOffset + i]);
+            }
+        }
+        return errorChange;
+    }
+
+    /**
+     * @return change of the size of the binary data file caused by the mutation
+     */
+    private int getEncodedSizeChange(int id, Circle mutated) {
+        Circle before = previous[id] != -1 ? circles[previous[id]] : null;
+        Circle after = next[id] != -1 ? circles[next[id]] : null;
+        int oldSize = StopCondition.getEncodedSize(circles[id], before) +
+                (after != null ? StopCondition.getEncodedSize(after, circles[id]) : 0);
+        if (mutated == null) {
+            return (after != null ? StopCondition.getEncodedSize(after, before) : 0) - oldSize;
+        }
+        return StopCondition.getEncodedSize(mutated, before) +
+                (after != null ? StopCondition.getEncodedSize(after, mutated) : 0) - oldSize;
+    }
+
+    private void addToCells(int id, Circle circle) {
+        forEachCell(circle, cell -> {
+            int[] ids = cells[cell];
+            int size = cellSizes[cell];
+            if (ids == null) {
+                ids = cells[cell] = new int[8];
+            } else if (size == ids.length) {
+                ids = cells[cell] = Arrays.copyOf(ids, 2 * size);
+            }
+            int position = -Arrays.binarySearch(ids, 0, size, id) - 1;
+            System.arraycopy(ids, position, ids, position + 1, size - position);
+            ids[position] = id;
+            ++cellSizes[cell];
+        });
+    }
+
+    private void removeFromCells(int id, Circle circle) {
+        forEachCell(circle, cell -> {
+            int[] ids = cells[cell];
+            int position = Arrays.binarySearch(ids, 0, cellSizes[cell], id);
+            System.arraycopy(ids, position + 1, ids, position, cellSizes[cell] - position - 1);
+            --cellSizes[cell];
+        });
+    }
+
+    /**
+     * Call the action for each cell intersecting the circumscribed square of the circle.
+     */
+    private void forEachCell(Circle circle, IntConsumer action) {
+        int lowerBoundX = Math.max(0, circle.getX() - circle.getDiameter());
+        int lowerBoundY = Math.max(0, circle.getY() - circle.getDiameter());
+        int upperBoundX = Math.min(width, circle.getX() + circle.getDiameter());
+        int upperBoundY = Math.min(height, circle.getY() + circle.getDiameter());
+        if (lowerBoundX >= upperBoundX || lowerBoundY >= upperBoundY) {
+            return;
+        }
+        for (int row = lowerBoundY / CELL_SIZE; row <= (upperBoundY - 1) / CELL_SIZE; ++row) {
+            for (int column = lowerBoundX / CELL_SIZE; column <= (upperBoundX - 1) / CELL_SIZE; ++column) {
+                action.accept(row * columns + column);
+            }
+        }
+    }
+
+    private static int clamp(int channel) {
+        return Math.min(255, Math.max(0, channel));
+    }
+}
@@ -0,0 +1,88 @@
+package localsearch;
+
+/**
+ * Precomputed row spans of a rasterized circle with given diameter. For each row of the circumscribed square
+ * (relative offset {@code -diameter} to {@code diameter - 1}), holds the horizontal offsets of the first pixel inside
+ * the circle and of the first pixel after it. The covered pixels are exactly those drawn by the original
+ * {@code dist(i, j, centerX, centerY) <= diameter} test, so no distance needs to be computed in the inner loops.
+ *
+ * @author Ondřej Kratochvíl
+ */
+public final class CircleSpans {
+
+    private static volatile CircleSpans[] cache = new CircleSpans[0];
+
+    private final int diameter;
+    // indexed by row - (centerY - diameter), offsets are relative to centerX
+    private final int[] start;
+    private final int[] end;
+
+    private CircleSpans(int diameter) {
+        this.diameter = diameter;
+        this.start = new int[2 * diameter];
+        this.end = new int[2 * diameter];
+        long squaredDiameter = (long) diameter * diameter;
+        for (int row = 0; row < 2 * diameter; ++row) {
+            long dy = row - diameter;
+            int halfWidth = (int) Math.sqrt(squaredDiameter - dy * dy);
+            // guard against rounding of the floating point square root
+            while ((long) (halfWidth + 1) * (halfWidth + 1) + dy * dy <= squaredDiameter) {
+                ++halfWidth;
+            }
+            while ((long) halfWidth * halfWidth + dy * dy > squaredDiameter) {
+                --halfWidth;
+            }
+            start[row] = -halfWidth;
+            // the circumscribed square is right-open
+            end[row] = Math.min(halfWidth + 1, diameter);
+        }
+    }
+
+    /**
+     * Get the (cached) spans of the circle with given diameter.
+     *
+     * @param diameter diameter of the circle
+     * @return spans of the circle
+     */
+    public static CircleSpans of(int diameter) {
+        CircleSpans[] spans = cache;
+        if (diameter < spans.length) {
+            return spans[diameter];
+        }
+        return grow(diameter);
+    }
+
+    private static synchronized CircleSpans grow(int diameter) {
+        CircleSpans[] spans = cache;
+        if (diameter < spans.length) {
+            return spans[diameter];
+        }
+        CircleSpans[] grown = new CircleSpans[Math.max(diameter + 1, spans.length * 2)];
+        System.arraycopy(spans, 0, grown, 0, spans.length);
+        for (int i = spans.length; i < grown.length; ++i) {
+            grown[i] = new CircleSpans(i);
+        }
+        cache = grown;
+        return grown[diameter];
+    }
+
+    public int getDiameter() {
+        return diameter;
+    }
+
+    /**
+     * @param row row relative to the top of the circumscribed square ({@code 0} to {@code 2 * diameter - 1})
+     * @return offset of the first pixel of the row from the center
+     */
+    public int getStart(int row) {
+        return start[row];
+    }
+
+    /**
+     * @param row row relative to the top of the circumscribed square ({@code 0} to {@code 2 * diameter - 1})
+     * @return offset of the first pixel after the row from the center (exclusive)
+     */
+    public int getEnd(int row) {
+        return end[row];
+    }
+}
@@ -0,0 +1,18 @@
+package localsearch;
+
+/**
+ * Callback receiving circles streamed from a circle data file, without materializing {@link Circle} objects.
+ *
+ * @author Ondřej Kratochvíl
+ */
+@FunctionalInterface
+public interface CircleVisitor {
+
+    /**
+     * @param x x coordinate of the center of the circle
+     * @param y y coordinate of the center of the circle
+     * @param diameter diameter of the circle
+     * @param colour colour of the circle
+     */
+    void visit(int x, int y, int diameter, int colour);
+}
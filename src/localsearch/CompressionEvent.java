@@ -0,0 +1,40 @@
+package localsearch;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event spanning a whole {@link Compressor#compress(java.awt.image.BufferedImage, FrameRenderer)} call.
+ *
+ * @author Ondřej Kratochvíl
+ */
+@Name("localsearch.Compression")
+@Label("Compression")
+@Category("Local Search")
+@Description("Compression of a single image")
+class CompressionEvent extends Event {
+
+    @Label("Width")
+    int width;
+
+    @Label("Height")
+    int height;
+
+    @Label("Quality")
+    String quality;
+
+    @Label("Circles")
+    int circles;
+
+    @Label("Candidates")
+    long candidates;
+
+    @Label("Retries Exhausted")
+    long retriesExhausted;
+
+    @Label("Error")
+    long error;
+}
@@ -0,0 +1,183 @@
+package localsearch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters of a compression, broken down by the phases of the diameter schedule (see
+ * {@link HillClimber#getPhase(double)}). The counters are collected locally by each {@link HillClimber} and added
+ * when the phase ends, so a single instance can be shared by climbers running concurrently. Besides the counters,
+ * the total error of the output image is sampled over time.
+ * <p>
+ * The total error is the sum of absolute differences of all colour channels between the input and the output image,
+ * see {@link RasterEngine#getError()}.
+ *
+ * @author Ondřej Kratochvíl
+ */
+public class CompressionMetrics {
+
+    /**
+     * Amount of phases of the diameter schedule.
+     */
+    public final static int PHASES = 3;
+
+    public enum Counter {
+        // candidate circles generated
+        CANDIDATES,
+        // candidates placed because they improved the fitness
+        ACCEPTED,
+        // candidates not placed
+        REJECTED,
+        // candidates placed without improving the fitness, because the retry count was exhausted
+        RETRIES_EXHAUSTED,
+        // pixels read when scoring the fitness change of the candidates
+        PIXELS_SCORED,
+        // pixels written when drawing the placed circles
+        PIXELS_DRAWN,
+        // time spent in the colour picking strategy, summed over the threads
+        COLOUR_PICKING_NANOS,
+        // time spent scoring the fitness change, summed over the threads
+        SCORING_NANOS,
+        // time spent drawing the placed circles
+        DRAWING_NANOS
+    }
+
+    private final static Counter[] COUNTERS = Counter.values();
+
+    private final AtomicLongArray counters = new AtomicLongArray(COUNTERS.length * PHASES);
+    private final List<ErrorSample> errorSamples = Collections.synchronizedList(new ArrayList<>());
+    private final long startTime = System.nanoTime();
+
+    /**
+     * Add the counters collected during a phase.
+     *
+     * @param phase phase of the diameter schedule
+     * @param values values of the counters, indexed by {@link Counter#ordinal()}
+     */
+    void add(int phase, long[] values) {
+        for (int i = 0; i < COUNTERS.length; ++i) {
+            if (values[i] != 0) {
+                counters.addAndGet(phase * COUNTERS.length + i, values[i]);
+            }
+        }
+    }
+
+    /**
+     * Add the counters of other metrics, without their error samples.
+     *
+     * @param other metrics to be added
+     */
+    void addCounters(CompressionMetrics other) {
+        for (int i = 0; i < counters.length(); ++i) {
+            long value = other.counters.get(i);
+            if (value != 0) {
+                counters.addAndGet(i, value);
+            }
+        }
+    }
+
+    /**
+     * Record the current total error of the output image.
+     *
+     * @param phase current phase of the diameter schedule
+     * @param circles amount of circles placed by the recording climber
+     * @param error total error of the output image
+     */
+    void recordError(int phase, int circles, long error) {
+        errorSamples.add(new ErrorSample(System.nanoTime() - startTime, phase, circles, error));
+    }
+
+    /**
+     * @param counter counter to be read
+     * @return value of the counter summed over all phases
+     */
+    public long get(Counter counter) {
+        long value = 0;
+        for (int phase = 0; phase < PHASES; ++phase) {
+            value += get(counter, phase);
+        }
+        return value;
+    }
+
+    /**
+     * @param counter counter to be read
+     * @param phase phase of the diameter schedule
+     * @return value of the counter in given phase
+     */
+    public long get(Counter counter, int phase) {
+        return counters.get(phase * COUNTERS.length + counter.ordinal());
+    }
+
+    /**
+     * @return samples of the total error, in the order they were recorded
+     */
+    public List<ErrorSample> getErrorSamples() {
+        synchronized (errorSamples) {
+            return new ArrayList<>(errorSamples);
+        }
+    }
+
+    /**
+     * @return multi-line report of the counters per phase
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(String.format("%-22s %14s %14s %14s %14s",
+                "", "phase 0", "phase 1", "phase 2", "total"));
+        for (Counter counter : COUNTERS) {
+            builder.append(String.format("%n%-22s", counter.name().toLowerCase()));
+            for (int phase = 0; phase < PHASES; ++phase) {
+                builder.append(String.format(" %14d", get(counter, phase)));
+            }
+            builder.append(String.format(" %14d", get(counter)));
+        }
+        List<ErrorSample> samples = getErrorSamples();
+        if (!samples.isEmpty()) {
+            builder.append(String.format("%n%-22s %14d -> %d", "error",
+                    samples.get(0).getError(), samples.get(samples.size() - 1).getError()));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Total error of the output image at a point of time.
+     */
+    public static class ErrorSample {
+
+        private final long time;
+        private final int phase;
+        private final int circles;
+        private final long error;
+
+        ErrorSample(long time, int phase, int circles, long error) {
+            this.time = time;
+            this.phase = phase;
+            this.circles = circles;
+            this.error = error;
+        }
+
+        /**
+         * @return nanoseconds since the start of the compression
+         */
+        public long getTime() {
+            return time;
+        }
+
+        public int getPhase() {
+            return phase;
+        }
+
+        /**
+         * @return amount of circles placed by the recording climber
+         */
+        public int getCircles() {
+            return circles;
+        }
+
+        public long getError() {
+            return error;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package localsearch;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event spanning a phase of the diameter schedule of a single {@link HillClimber}.
+ *
+ * @author Ondřej Kratochvíl
+ */
+@Name("localsearch.CompressionPhase")
+@Label("Compression Phase")
+@Category("Local Search")
+@Description("Phase of the diameter schedule of a hill climbing run")
+class CompressionPhaseEvent extends Event {
+
+    @Label("Phase")
+    int phase;
+
+    @Label("Max Diameter")
+    int maxDiameter;
+
+    @Label("Circles Placed")
+    int circles;
+
+    @Label("Candidates")
+    long candidates;
+
+    @Label("Accepted")
+    long accepted;
+
+    @Label("Retries Exhausted")
+    long retriesExhausted;
+
+    @Label("Colour Picking Time")
+    @Description("Nanoseconds spent in the colour picking strategy")
+    long colourPickingNanos;
+
+    @Label("Scoring Time")
+    @Description("Nanoseconds spent scoring the fitness change")
+    long scoringNanos;
+
+    @Label("Drawing Time")
+    @Description("Nanoseconds spent drawing the placed circles")
+    long drawingNanos;
+
+    @Label("Error Before")
+    long errorBefore;
+
+    @Label("Error After")
+    long errorAfter;
+}
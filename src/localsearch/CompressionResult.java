@@ -0,0 +1,126 @@
+package localsearch;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import static localsearch.GraphicHelper.*;
+
+/**
+ * Output of a single compression: the rendered image, the circles it was rendered from and the metrics of the run.
+ *
+ * @author Ondřej Kratochvíl
+ */
+public class CompressionResult {
+
+    private final BufferedImage image;
+    private final Circle[] circles;
+    private final int width;
+    private final int height;
+    private final int background;
+    private final CompressionMetrics metrics;
+    private final StopCondition.Reason stopReason;
+
+    public CompressionResult(BufferedImage image, Circle[] circles, int background, CompressionMetrics metrics,
+                             StopCondition.Reason stopReason) {
+        this.image = image;
+        this.circles = circles;
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+        this.background = background;
+        this.metrics = metrics;
+        this.stopReason = stopReason;
+    }
+
+    /**
+     * Write the circles into a text data file of the following format:
+     * {width} {height}
+     * {amount of circles}
+     * {background colour (RGB}
+     *
+     * [for each circle]
+     * {XcoordOfCenter},{YcoordOfCenter},{diameter},{red} {green} {blue} {alpha}
+     *
+     * @param file target file
+     * @return size of the written file in bytes
+     * @throws IOException if the file cannot be written
+     */
+    public long writeText(File file) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+            writer.write(width + " " + height); // width height
+            writer.newLine();
+            writer.write(Integer.toString(circles.length));   // amount of circles
+            writer.newLine();
+            writer.write(String.format("%d %d %d", getRed(background), getGreen(background),
+                    getBlue(background)));  // background colour
+            writer.newLine();
+            writer.newLine();
+            for (Circle circle : circles) {
+                // for each circle write its attributes (order of circles is reflected)
+                // XcoordOfCenter,YcoordOfCenter,diameter,R G B A
+                writer.write(String.format("%d,%d,%d,%s",
+                        circle.getX(),
+                        circle.getY(),
+                        circle.getDiameter(),
+                        String.format("%d %d %d %d",
+                                getRed(circle.getColour()),
+                                getGreen(circle.getColour()),
+                                getBlue(circle.getColour()),
+                                getAlpha(circle.getColour())
+                                )));
+                writer.newLine();
+            }
+        }
+        return file.length();
+    }
+
+    /**
+     * Write the circles into a binary data file, see {@link CircleFileWriter}.
+     *
+     * @param file target file
+     * @return size of the written file in bytes
+     * @throws IOException if the file cannot be written
+     */
+    public long writeBinary(File file) throws IOException {
+        return CircleFileWriter.write(file, width, height, background, circles);
+    }
+
+    /**
+     * @return rendered image
+     */
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    /**
+     * @return placed circles, in the order they were drawn
+     */
+    public Circle[] getCircles() {
+        return circles;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getBackground() {
+        return background;
+    }
+
+    public CompressionMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return reason why the compression stopped
+     */
+    public StopCondition.Reason getStopReason() {
+        return stopReason;
+    }
+}
@@ -0,0 +1,497 @@
+package localsearch;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Embedded HTTP service, which compresses uploaded images in a long-running JVM. The requests are handled on virtual
+ * threads when the JVM supports them (JDK 21 or newer), and on a cached thread pool otherwise, so a client waiting for
+ * its result does not occupy a worker. The compressions run on a fixed pool of workers. Queued jobs are ordered by
+ * their {@link CompressionQuality}, the fastest quality first, and by their submission within the same quality. The
+ * buffers of the raster engines are reused across the jobs through a {@link RasterPool}, and the span tables of the
+ * circles through the cache of {@link CircleSpans}.
+ * <p>
+ * Endpoints:
+ * <ul>
+ * <li>{@code POST /jobs?quality=LOW} with the image as the body queues a job and responds with {@code 202} and its
+ * id, with {@code 503} when the queue is full, or with {@code 413} when the upload exceeds {@link #MAX_UPLOAD_SIZE}
+ * bytes or the image exceeds {@link #MAX_IMAGE_PIXELS} pixels. The queue is checked before the body is read, and the
+ * dimensions of the image before it is decoded</li>
+ * <li>{@code GET /jobs/<id>/progress} streams a line per sample of the error until the job has finished</li>
+ * <li>{@code GET /jobs/<id>/image} responds with the output JPEG, waiting for the job to finish</li>
+ * <li>{@code GET /jobs/<id>/circles} responds with the binary circle file (see {@link CircleFileWriter})</li>
+ * <li>{@code GET /jobs/<id>} responds with a ZIP archive of both</li>
+ * <li>{@code DELETE /jobs/<id>} discards the job and its result. A queued job is removed from the queue, a running
+ * job stops after its next circle and frees its worker, and the clients waiting for its result get {@code 410}</li>
+ * </ul>
+ * Finished jobs are discarded {@link #RETENTION} milliseconds after they have finished.
+ *
+ * @author Ondřej Kratochvíl
+ */
+public class CompressionService {
+
+    // milliseconds between the lines of the progress
+    private final static long PROGRESS_INTERVAL = 250;
+    // milliseconds a finished job is kept for its client
+    private final static long RETENTION = 10 * 60 * 1000;
+    // bytes of an uploaded image
+    private final static long MAX_UPLOAD_SIZE = 64 << 20;
+    // pixels of an uploaded image, a queued job holds its decoded image
+    private final static long MAX_IMAGE_PIXELS = 16_000_000;
+    private final static String JOBS_PATH = "/jobs";
+    private final static String IMAGE_FILE_NAME = "output.jpg";
+    private final static String CIRCLE_FILE_NAME = "data.bin";
+
+    private final Map<CompressionQuality, Compressor> compressors = new EnumMap<>(CompressionQuality.class);
+    private final CompressionQuality defaultQuality;
+    private final int maxQueuedJobs;
+    private final ThreadPoolExecutor workers;
+    private final Map<Long, Job> jobs = new ConcurrentHashMap<>();
+    private final AtomicLong nextJobId = new AtomicLong(1);
+    private final AtomicInteger queuedJobs = new AtomicInteger();
+    private HttpServer server;
+    private ExecutorService handlers;
+
+    /**
+     * @param config configuration of the compressions, its quality is the default of the jobs
+     * @param workerCount amount of images compressed concurrently
+     * @param maxQueuedJobs amount of jobs waiting for a worker, further jobs are rejected
+     */
+    public CompressionService(CompressorConfig config, int workerCount, int maxQueuedJobs) {
+        if (workerCount < 1 || maxQueuedJobs < 1) {
+            throw new IllegalArgumentException("Worker count and queue size must be positive, got " + workerCount +
+                    " and " + maxQueuedJobs);
+        }
+        // each worker holds the input and output buffers of a single compression
+        RasterPool pool = new RasterPool(2 * workerCount);
+        for (CompressionQuality quality : CompressionQuality.values()) {
+            compressors.put(quality, new Compressor(config.toBuilder().quality(quality).build(), pool));
+        }
+        this.defaultQuality = config.getQuality();
+        this.maxQueuedJobs = maxQueuedJobs;
+        AtomicInteger workerNumber = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "compression-worker-" + workerNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Start listening.
+     *
+     * @param port port to listen on, 0 for any free port
+     * @return port the service listens on
+     * @throws IOException if the port cannot be bound
+     */
+    public synchronized int start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        handlers = createHandlerExecutor();
+        server.setExecutor(handlers);
+        server.createContext(JOBS_PATH, this::handle);
+        server.start();
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stop listening and abort the running jobs.
+     */
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            handlers.shutdown();
+        }
+        workers.shutdownNow();
+    }
+
+    /**
+     * Create the executor of the request handlers, with a virtual thread per request if the JVM supports them.
+     */
+    private static ExecutorService createHandlerExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            // virtual threads are not available before JDK 21
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "compression-handler");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String relativePath = exchange.getRequestURI().getPath().substring(JOBS_PATH.length());
+            String[] path = relativePath.split("/");
+            String method = exchange.getRequestMethod();
+            if (!relativePath.isEmpty() && !relativePath.startsWith("/")) {
+                sendText(exchange, 404, "No such resource");
+                return;
+            }
+            if (path.length <= 1) {
+                if ("POST".equals(method)) {
+                    submit(exchange);
+                } else {
+                    sendText(exchange, 405, "Use POST to submit a job");
+                }
+                return;
+            }
+            Job job;
+            try {
+                job = jobs.get(Long.parseLong(path[1]));
+            } catch (NumberFormatException e) {
+                job = null;
+            }
+            if (job == null || path.length > 3) {
+                sendText(exchange, 404, "No such job");
+            } else if ("DELETE".equals(method) && path.length == 2) {
+                jobs.remove(job.id);
+                cancel(job);
+                exchange.sendResponseHeaders(204, -1);
+            } else if (!"GET".equals(method)) {
+                sendText(exchange, 405, "Use GET to read a job");
+            } else if (path.length == 2) {
+                sendResult(exchange, job, true, true);
+            } else if ("progress".equals(path[2])) {
+                sendProgress(exchange, job);
+            } else if ("image".equals(path[2])) {
+                sendResult(exchange, job, true, false);
+            } else if ("circles".equals(path[2])) {
+                sendResult(exchange, job, false, true);
+            } else {
+                sendText(exchange, 404, "No such resource");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void submit(HttpExchange exchange) throws IOException {
+        CompressionQuality quality = defaultQuality;
+        String query = exchange.getRequestURI().getQuery();
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                if (parameter.startsWith("quality=")) {
+                    try {
+                        quality = CompressionQuality.valueOf(parameter.substring("quality=".length()));
+                    } catch (IllegalArgumentException e) {
+                        sendText(exchange, 400, "Unknown quality: " + parameter.substring("quality=".length()));
+                        return;
+                    }
+                }
+            }
+        }
+        // the slot in the queue is taken before the upload is read, so that a full queue does not cost any memory
+        discardExpiredJobs();
+        if (queuedJobs.incrementAndGet() > maxQueuedJobs) {
+            queuedJobs.decrementAndGet();
+            sendText(exchange, 503, "Too many queued jobs");
+            return;
+        }
+        BufferedImage image;
+        try {
+            image = readImage(exchange);
+        } catch (UploadTooLargeException e) {
+            queuedJobs.decrementAndGet();
+            sendText(exchange, 413, e.getMessage());
+            return;
+        } catch (IOException | RuntimeException e) {
+            queuedJobs.decrementAndGet();
+            sendText(exchange, 400, "Unsupported image");
+            return;
+        }
+        if (image == null) {
+            queuedJobs.decrementAndGet();
+            sendText(exchange, 400, "Unsupported image");
+            return;
+        }
+        Job job = new Job(nextJobId.getAndIncrement(), quality, image);
+        jobs.put(job.id, job);
+        workers.execute(job);
+        exchange.getResponseHeaders().set("Location", JOBS_PATH + "/" + job.id);
+        sendText(exchange, 202, Long.toString(job.id));
+    }
+
+    /**
+     * Read the uploaded image, checking the size of the upload while it is read and the dimensions of the image
+     * before it is decoded.
+     *
+     * @return decoded image, or {@code null} if its format is not supported
+     * @throws UploadTooLargeException if the upload or the image is too large
+     * @throws IOException if the upload cannot be read or decoded
+     */
+    private static BufferedImage readImage(HttpExchange exchange) throws IOException {
+        String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (contentLength != null && Long.parseLong(contentLength) > MAX_UPLOAD_SIZE) {
+            throw new UploadTooLargeException("Upload exceeds " + MAX_UPLOAD_SIZE + " B");
+        }
+        try (ImageInputStream stream = ImageIO.createImageInputStream(
+                new LimitedInputStream(exchange.getRequestBody(), MAX_UPLOAD_SIZE))) {
+            Iterator<ImageReader> readers = stream != null ? ImageIO.getImageReaders(stream) : null;
+            if (readers == null || !readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true, true);
+                long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+                if (pixels > MAX_IMAGE_PIXELS) {
+                    throw new UploadTooLargeException("Image has " + pixels + " pixels, at most " +
+                            MAX_IMAGE_PIXELS + " are allowed");
+                }
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Cancel the job: remove it from the queue if it has not started yet, otherwise let it stop after its next circle.
+     */
+    private void cancel(Job job) {
+        job.cancelled = true;
+        if (workers.remove(job)) {
+            queuedJobs.decrementAndGet();
+        }
+        job.result.cancel(false);
+    }
+
+    private void discardExpiredJobs() {
+        long now = System.nanoTime();
+        jobs.values().removeIf(job -> job.result.isDone() &&
+                now - job.finishTime > TimeUnit.MILLISECONDS.toNanos(RETENTION));
+    }
+
+    /**
+     * Stream a line per new sample of the error, until the job has finished. Each line holds the amount of circles
+     * placed by the sampling climber and the mean error of a colour channel.
+     */
+    private void sendProgress(HttpExchange exchange, Job job) throws IOException, InterruptedException {
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(exchange.getResponseBody(),
+                StandardCharsets.UTF_8));
+        double channels = 3.0 * job.width * job.height;
+        int sent = 0;
+        boolean done = false;
+        while (!done) {
+            try {
+                job.result.get(PROGRESS_INTERVAL, TimeUnit.MILLISECONDS);
+                done = true;
+            } catch (TimeoutException e) {
+                // report the samples recorded so far
+            } catch (ExecutionException | CancellationException e) {
+                done = true;
+            }
+            List<CompressionMetrics.ErrorSample> samples = job.metrics.getErrorSamples();
+            for (; sent < samples.size(); ++sent) {
+                CompressionMetrics.ErrorSample sample = samples.get(sent);
+                writer.println(String.format("circles %d/%d error %.2f", sample.getCircles(), job.circleCount,
+                        sample.getError() / channels));
+            }
+            if (done) {
+                writer.println(job.result.isCancelled() ? "cancelled" : job.result.isCompletedExceptionally() ?
+                        "failed" : "done " + job.result.getNow(null).getStopReason());
+            }
+            writer.flush();
+            if (writer.checkError()) {
+                // the client has disconnected
+                return;
+            }
+        }
+    }
+
+    /**
+     * Wait for the job to finish and send its output image, its circle file, or a ZIP archive of both.
+     */
+    private void sendResult(HttpExchange exchange, Job job, boolean image, boolean circles)
+            throws IOException, InterruptedException {
+        CompressionResult result;
+        try {
+            result = job.result.get();
+        } catch (ExecutionException e) {
+            sendText(exchange, 500, "Compression failed: " + e.getCause());
+            return;
+        } catch (CancellationException e) {
+            sendText(exchange, 410, "Job was cancelled");
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type",
+                image && circles ? "application/zip" : image ? "image/jpeg" : "application/octet-stream");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        if (image && circles) {
+            ZipOutputStream zip = new ZipOutputStream(out);
+            zip.putNextEntry(new ZipEntry(IMAGE_FILE_NAME));
+            ImageIO.write(result.getImage(), "jpeg", zip);
+            zip.putNextEntry(new ZipEntry(CIRCLE_FILE_NAME));
+            writeCircles(result, zip);
+            zip.finish();
+        } else if (image) {
+            ImageIO.write(result.getImage(), "jpeg", out);
+        } else {
+            writeCircles(result, out);
+        }
+        out.flush();
+    }
+
+    private static void writeCircles(CompressionResult result, OutputStream out) throws IOException {
+        CircleFileWriter.write(out, result.getWidth(), result.getHeight(), result.getBackground(),
+                result.getCircles());
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] body = (text + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    /**
+     * Upload, which exceeds the limits of the service.
+     */
+    private static class UploadTooLargeException extends IOException {
+
+        private final static long serialVersionUID = 1L;
+
+        UploadTooLargeException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Stream failing with {@link UploadTooLargeException} once more than given amount of bytes is read, for the
+     * uploads without a content length.
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                consume(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                consume(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long length) throws IOException {
+            long skipped = super.skip(length);
+            consume(skipped);
+            return skipped;
+        }
+
+        private void consume(long length) throws UploadTooLargeException {
+            remaining -= length;
+            if (remaining < 0) {
+                throw new UploadTooLargeException("Upload exceeds " + MAX_UPLOAD_SIZE + " B");
+            }
+        }
+    }
+
+    /**
+     * Compression of an uploaded image, ordered by the quality and the submission.
+     */
+    private class Job implements Runnable, Comparable<Job> {
+
+        private final long id;
+        private final CompressionQuality quality;
+        private final int width;
+        private final int height;
+        private final int circleCount;
+        private final CompressionMetrics metrics = new CompressionMetrics();
+        private final CompletableFuture<CompressionResult> result = new CompletableFuture<>();
+        // released when the compression starts, so that queued jobs only hold the uploaded images
+        private BufferedImage image;
+        private volatile long finishTime;
+        private volatile boolean cancelled;
+
+        private Job(long id, CompressionQuality quality, BufferedImage image) {
+            this.id = id;
+            this.quality = quality;
+            this.width = image.getWidth();
+            this.height = image.getHeight();
+            this.circleCount = (width * height) / quality.getFactor();
+            this.image = image;
+        }
+
+        @Override
+        public void run() {
+            queuedJobs.decrementAndGet();
+            BufferedImage inputImage = image;
+            image = null;
+            if (cancelled) {
+                // cancelled while the worker was taking it from the queue
+                return;
+            }
+            try {
+                CompressionResult compressionResult = compressors.get(quality).compress(inputImage, metrics,
+                        () -> cancelled);
+                finishTime = System.nanoTime();
+                result.complete(compressionResult);
+            } catch (RuntimeException | Error e) {
+                finishTime = System.nanoTime();
+                result.completeExceptionally(e);
+            }
+        }
+
+        @Override
+        public int compareTo(Job other) {
+            // the fewer circles, the faster the quality
+            int order = Integer.compare(other.quality.getFactor(), quality.getFactor());
+            return order != 0 ? order : Long.compare(id, other.id);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package localsearch;
+
+import jdk.jfr.FlightRecorder;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Reusable compressor. All state of a compression is local to the {@link #compress(BufferedImage)} call, so a single
+ * instance can compress any number of images, also concurrently from multiple threads. Each compression collects
+ * its {@link CompressionMetrics} and emits a {@link CompressionEvent} to JFR, if JFR is running.
+ *
+ * @author Ondřej Kratochvíl
+ */
+public class Compressor {
+
+    // colour of the output image before the first circle is drawn
+    private final static int BACKGROUND = 0;
+
+    private final CompressorConfig config;
+    private final RasterPool pool;
+
+    public Compressor(CompressorConfig config) {
+        this(config, null);
+    }
+
+    /**
+     * @param config configuration of the compressions
+     * @param pool pool the buffers of the raster engine are taken from, or {@code null} to allocate them for each
+     *             compression. The pool is not used when the compression is visualized, since the renderer may still
+     *             read the output after the compression has finished
+     */
+    public Compressor(CompressorConfig config, RasterPool pool) {
+        this.config = config;
+        this.pool = pool;
+    }
+
+    /**
+     * Compress the image, without visualization.
+     *
+     * @param inputImage image to be compressed
+     * @return rendered image and its circles
+     */
+    public CompressionResult compress(BufferedImage inputImage) {
+        return compress(inputImage, (FrameRenderer) null);
+    }
+
+    /**
+     * Compress the image, without visualization, collecting the metrics into given instance. The metrics may be read
+     * from another thread while the compression runs, e.g. to follow its progress by the samples of the error.
+     *
+     * @param inputImage image to be compressed
+     * @param metrics metrics of the compression
+     * @return rendered image and its circles
+     */
+    public CompressionResult compress(BufferedImage inputImage, CompressionMetrics metrics) {
+        return compress(inputImage, metrics, null);
+    }
+
+    /**
+     * Compress the image, without visualization, collecting the metrics into given instance. The compression stops
+     * with {@link StopCondition.Reason#CANCELLED} after the next circle once the cancellation returns {@code true}.
+     *
+     * @param inputImage image to be compressed
+     * @param metrics metrics of the compression
+     * @param cancellation checked while the compression runs, or {@code null}
+     * @return rendered image and the circles placed until the cancellation
+     */
+    public CompressionResult compress(BufferedImage inputImage, CompressionMetrics metrics,
+                                      BooleanSupplier cancellation) {
+        return compress(inputImage, null, null, metrics, cancellation);
+    }
+
+    /**
+     * Compress the image.
+     *
+     * @param inputImage image to be compressed
+     * @param renderer renderer to be started with the output image, or {@code null}. It is not finished by this
+     *                 method, so that the caller decides how long the final image is shown
+     * @return rendered image and its circles
+     */
+    public CompressionResult compress(BufferedImage inputImage, FrameRenderer renderer) {
+        return compress(inputImage, renderer, null);
+    }
+
+    /**
+     * Compress the image, periodically saving checkpoints of the search into given file. If the file exists, the
+     * compression is resumed from it. The file is deleted after the compression has finished. Checkpoints are not
+     * supported by the tiled compression. A compression resumed with the coarse-to-fine search enabled does not
+     * repeat the coarse phases, since the checkpoint already contains their upscaled circles.
+     *
+     * @param inputImage image to be compressed
+     * @param renderer renderer to be started with the output image, or {@code null}. It is not finished by this
+     *                 method, so that the caller decides how long the final image is shown
+     * @param checkpointFile checkpoint file, or {@code null} to disable the checkpoints
+     * @return rendered image and its circles
+     * @throws UncheckedIOException if the existing checkpoint file cannot be read or deleted
+     * @throws IllegalArgumentException if the checkpoint belongs to a different compression
+     */
+    public CompressionResult compress(BufferedImage inputImage, FrameRenderer renderer, File checkpointFile) {
+        return compress(inputImage, renderer, checkpointFile, new CompressionMetrics(), null);
+    }
+
+    private CompressionResult compress(BufferedImage inputImage, FrameRenderer renderer, File checkpointFile,
+                                       CompressionMetrics metrics, BooleanSupplier cancellation) {
+        if (checkpointFile != null && config.getTileSize() > 0) {
+            throw new IllegalArgumentException("Checkpoints are not supported by the tiled compression");
+        }
+        if (checkpointFile != null && config.getIslands() > 1) {
+            throw new IllegalArgumentException("Checkpoints are not supported by the island search");
+        }
+        long startTime = System.nanoTime();
+        Checkpoint checkpoint = null;
+        if (checkpointFile != null && checkpointFile.exists()) {
+            try {
+                checkpoint = Checkpoint.read(checkpointFile);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        int width = inputImage.getWidth();
+        int height = inputImage.getHeight();
+        int circleCount = (width * height) / config.getQuality().getFactor();
+        // creating the first event initializes JFR, which takes hundreds of milliseconds
+        CompressionEvent event = FlightRecorder.isInitialized() ? new CompressionEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+        // create a black copy of the input image
+        boolean pooled = pool != null && renderer == null;
+        RasterEngine engine = pooled ? new RasterEngine(inputImage, pool.acquire(width * height),
+                pool.acquire(width * height)) : new RasterEngine(inputImage);
+        engine.setScoring(config.getScoring());
+
+        // the deadline covers the time spent before the compression was interrupted as well
+        long deadline = config.getDeadline() > 0 ? startTime + (config.getDeadline() -
+                (checkpoint != null ? checkpoint.getElapsed() : 0)) * 1_000_000 : Long.MAX_VALUE;
+        StopCondition stopCondition = new StopCondition(engine, deadline, config.getTargetError(),
+                config.getTargetPsnr(), config.getMaxEncodedSize(), circleCount);
+        stopCondition.setCancellation(cancellation);
+
+        // the seeds of the individual searches are drawn in a fixed order, so that a seeded compression is reproducible
+        Random seeds = config.getSeed().isPresent() ? new Random(config.getSeed().getAsLong()) : null;
+
+        FramePublisher publisher = null;
+        if (renderer != null) {
+            publisher = new FramePublisher(engine);
+            renderer.start(publisher);
+        }
+
+        Circle[] circles;
+        if (config.getTileSize() > 0) {
+            TiledCompression compression = new TiledCompression(inputImage, engine, config.getQuality(),
+                    config.getRetryCount(), config.getColourPickingStrategy(), config.getTileSize(),
+                    config.getTileBudget());
+            compression.setMetrics(metrics);
+            compression.setStopCondition(stopCondition);
+            compression.setSeed(seeds != null ? seeds.nextLong() : null);
+            circles = compression.compress(circleCount, config.getParallelism(), publisher);
+        } else if (config.getIslands() > 1) {
+            IslandSearch search = new IslandSearch(inputImage, engine, config.getQuality(), config.getRetryCount(),
+                    config.getColourPickingStrategy(), config.getIslands());
+            search.setSampler(this::createSampler);
+            search.setMetrics(metrics);
+            search.setStopCondition(stopCondition);
+            search.setPublisher(publisher);
+            search.setAnnealing(config.getAnnealingTemperature());
+            if (seeds != null) {
+                search.setSeed(seeds.nextLong());
+            }
+            if (config.getPyramidFactor() > 1) {
+                search.setInitialCircles(placeCoarseCircles(inputImage, circleCount, deadline, metrics, seeds));
+            }
+            circles = search.search(circleCount, config.getParallelism(), this::run);
+        } else {
+            HillClimber climber = new HillClimber(inputImage, engine, config.getQuality(), config.getRetryCount(),
+                    config.getColourPickingStrategy(), createSampler(engine), circleCount);
+            climber.setPublisher(publisher);
+            climber.setMetrics(metrics);
+            climber.setStopCondition(stopCondition);
+            climber.setCheckpointing(checkpointFile, config.getCheckpointInterval());
+            climber.setAnnealing(config.getAnnealingTemperature());
+            climber.setRandom(seeds != null ? new Random(seeds.nextLong()) : null);
+            if (checkpoint != null) {
+                climber.resume(checkpoint);
+            } else if (config.getPyramidFactor() > 1) {
+                climber.setInitialCircles(placeCoarseCircles(inputImage, circleCount, deadline, metrics, seeds));
+            }
+            run(climber);
+            circles = climber.getCircles();
+        }
+        if (config.getRefinementIterations() > 0) {
+            CircleRefinement refinement = new CircleRefinement(engine, circles, BACKGROUND);
+            refinement.setPublisher(publisher);
+            refinement.setStopCondition(stopCondition);
+            refinement.setRandom(seeds != null ? new Random(seeds.nextLong()) : null);
+            circles = refinement.refine(config.getRefinementIterations());
+        }
+        if (event != null && event.shouldCommit()) {
+            event.width = width;
+            event.height = height;
+            event.quality = config.getQuality().name();
+            event.circles = circles.length;
+            event.candidates = metrics.get(CompressionMetrics.Counter.CANDIDATES);
+            event.retriesExhausted = metrics.get(CompressionMetrics.Counter.RETRIES_EXHAUSTED);
+            event.error = engine.getError();
+            event.commit();
+        }
+        if (checkpointFile != null && checkpointFile.exists() && !checkpointFile.delete()) {
+            throw new UncheckedIOException(new IOException("Cannot delete checkpoint file: " + checkpointFile));
+        }
+        StopCondition.Reason stopReason = stopCondition.getReason();
+        CompressionResult result = new CompressionResult(engine.toImage(inputImage.getType()), circles, BACKGROUND,
+                metrics, stopReason != null ? stopReason : StopCondition.Reason.CIRCLE_COUNT);
+        // the buffers of a failed compression are not returned, which only costs a new allocation
+        if (pooled) {
+            pool.release(engine.getInput());
+            pool.release(engine.getOutput());
+        }
+        return result;
+    }
+
+    private Circle[] placeCoarseCircles(BufferedImage inputImage, int circleCount, long deadline,
+                                        CompressionMetrics metrics, Random seeds) {
+        PyramidCompression pyramid = new PyramidCompression(inputImage, config.getQuality(), config.getRetryCount(),
+                config.getColourPickingStrategy(), config.getPyramidFactor());
+        pyramid.setMetrics(metrics);
+        pyramid.setScoring(config.getScoring());
+        pyramid.setSampler(this::createSampler);
+        pyramid.setRandom(seeds != null ? new Random(seeds.nextLong()) : null);
+        return pyramid.placeCoarseCircles(circleCount, deadline, this::run);
+    }
+
+    private CandidateSampler createSampler(RasterEngine engine) {
+        return config.isResidualSampling() ? new ResidualCandidateSampler(engine) :
+                new UniformCandidateSampler(engine.getWidth(), engine.getHeight());
+    }
+
+    /**
+     * Run the climber, batched if configured.
+     */
+    private void run(HillClimber climber) {
+        if (config.getCandidateBatchSize() > 1) {
+            ForkJoinPool pool = new ForkJoinPool(config.getParallelism());
+            try {
+                climber.runBatched(pool, config.getCandidateBatchSize(), config.isAcceptMultipleCandidates());
+            } finally {
+                pool.shutdown();
+            }
+        } else {
+            climber.run();
+        }
+    }
+
+    public CompressorConfig getConfig() {
+        return config;
+    }
+}
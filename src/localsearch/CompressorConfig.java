@@ -0,0 +1,479 @@
+package localsearch;
+
+import java.awt.image.BufferedImage;
+import java.util.OptionalLong;
+
+/**
+ * Immutable configuration of a {@link Compressor}, created by {@link CompressorConfig#builder()}. The defaults match
+ * the static configuration of {@link LocalSearch}.
+ *
+ * @author Ondřej Kratochvíl
+ */
+public final class CompressorConfig {
+
+    private final CompressionQuality quality;
+    private final int retryCount;
+    private final TetraFunction<BufferedImage, Integer, Integer, Integer, Integer> colourPickingStrategy;
+    private final int candidateBatchSize;
+    private final int parallelism;
+    private final boolean acceptMultipleCandidates;
+    private final int tileSize;
+    private final TiledCompression.Budget tileBudget;
+    private final long deadline;
+    private final double targetError;
+    private final double targetPsnr;
+    private final long maxEncodedSize;
+    private final long checkpointInterval;
+    private final int pyramidFactor;
+    private final boolean residualSampling;
+    private final int refinementIterations;
+    private final int islands;
+    private final double annealingTemperature;
+    private final RasterEngine.Scoring scoring;
+    private final OptionalLong seed;
+
+    private CompressorConfig(Builder builder) {
+        this.quality = builder.quality;
+        this.retryCount = builder.retryCount;
+        this.colourPickingStrategy = builder.colourPickingStrategy;
+        this.candidateBatchSize = builder.candidateBatchSize;
+        this.parallelism = builder.parallelism;
+        this.acceptMultipleCandidates = builder.acceptMultipleCandidates;
+        this.tileSize = builder.tileSize;
+        this.tileBudget = builder.tileBudget;
+        this.deadline = builder.deadline;
+        this.targetError = builder.targetError;
+        this.targetPsnr = builder.targetPsnr;
+        this.maxEncodedSize = builder.maxEncodedSize;
+        this.checkpointInterval = builder.checkpointInterval;
+        this.pyramidFactor = builder.pyramidFactor;
+        this.residualSampling = builder.residualSampling;
+        this.refinementIterations = builder.refinementIterations;
+        this.islands = builder.islands;
+        this.annealingTemperature = builder.annealingTemperature;
+        this.scoring = builder.scoring;
+        this.seed = builder.seed;
+    }
+
+    /**
+     * @return builder initialized with the default configuration
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return builder initialized with this configuration
+     */
+    public Builder toBuilder() {
+        Builder builder = new Builder()
+                .quality(quality)
+                .retryCount(retryCount)
+                .colourPickingStrategy(colourPickingStrategy)
+                .candidateBatchSize(candidateBatchSize)
+                .parallelism(parallelism)
+                .acceptMultipleCandidates(acceptMultipleCandidates)
+                .tileSize(tileSize)
+                .tileBudget(tileBudget)
+                .deadline(deadline)
+                .targetError(targetError)
+                .targetPsnr(targetPsnr)
+                .maxEncodedSize(maxEncodedSize)
+                .checkpointInterval(checkpointInterval)
+                .pyramidFactor(pyramidFactor)
+                .residualSampling(residualSampling)
+                .refinementIterations(refinementIterations)
+                .islands(islands)
+                .annealingTemperature(annealingTemperature)
+                .scoring(scoring);
+        builder.seed = seed;
+        return builder;
+    }
+
+    public CompressionQuality getQuality() {
+        return quality;
+    }
+
+    public int getRetryCount() {
+        return retryCount;
+    }
+
+    public TetraFunction<BufferedImage, Integer, Integer, Integer, Integer> getColourPickingStrategy() {
+        return colourPickingStrategy;
+    }
+
+    public int getCandidateBatchSize() {
+        return candidateBatchSize;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public boolean isAcceptMultipleCandidates() {
+        return acceptMultipleCandidates;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public TiledCompression.Budget getTileBudget() {
+        return tileBudget;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    public double getTargetError() {
+        return targetError;
+    }
+
+    public double getTargetPsnr() {
+        return targetPsnr;
+    }
+
+    public long getMaxEncodedSize() {
+        return maxEncodedSize;
+    }
+
+    public long getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    public int getPyramidFactor() {
+        return pyramidFactor;
+    }
+
+    public boolean isResidualSampling() {
+        return residualSampling;
+    }
+
+    public int getRefinementIterations() {
+        return refinementIterations;
+    }
+
+    public int getIslands() {
+        return islands;
+    }
+
+    public double getAnnealingTemperature() {
+        return annealingTemperature;
+    }
+
+    public RasterEngine.Scoring getScoring() {
+        return scoring;
+    }
+
+    /**
+     * @return seed of the random generators of the compression, empty if the compression is not reproducible
+     */
+    public OptionalLong getSeed() {
+        return seed;
+    }
+
+    public static class Builder {
+
+        private CompressionQuality quality = CompressionQuality.HIGH;
+        private int retryCount = 50;
+        private TetraFunction<BufferedImage, Integer, Integer, Integer, Integer> colourPickingStrategy =
+                GraphicHelper::getMajorityColour;
+        private int candidateBatchSize = 1;
+        private int parallelism = Runtime.getRuntime().availableProcessors();
+        private boolean acceptMultipleCandidates = true;
+        private int tileSize = 0;
+        private TiledCompression.Budget tileBudget = TiledCompression.Budget.RESIDUAL_ERROR;
+        private long deadline = 0;
+        private double targetError = 0;
+        private double targetPsnr = 0;
+        private long maxEncodedSize = 0;
+        private long checkpointInterval = 10_000;
+        private int pyramidFactor = 1;
+        private boolean residualSampling = false;
+        private int refinementIterations = 0;
+        private int islands = 1;
+        private double annealingTemperature = 0;
+        private RasterEngine.Scoring scoring = RasterEngine.Scoring.ABSOLUTE;
+        private OptionalLong seed = OptionalLong.empty();
+
+        private Builder() {
+        }
+
+        /**
+         * @param quality quality of the output image (amount of circles)
+         * @return this builder
+         */
+        public Builder quality(CompressionQuality quality) {
+            if (quality == null) {
+                throw new IllegalArgumentException("Quality must not be null");
+            }
+            this.quality = quality;
+            return this;
+        }
+
+        /**
+         * @param retryCount amount of tries when placing new circles
+         * @return this builder
+         */
+        public Builder retryCount(int retryCount) {
+            if (retryCount < 0) {
+                throw new IllegalArgumentException("Retry count must not be negative, got " + retryCount);
+            }
+            this.retryCount = retryCount;
+            return this;
+        }
+
+        /**
+         * The strategy is shared by all compressions using the configuration, so it has to be thread-safe.
+         * {@link StatefulColourStrategy} implementations are bound anew for each compression.
+         *
+         * @param colourPickingStrategy strategy of choosing the colour for the new circles
+         * @return this builder
+         */
+        public Builder colourPickingStrategy(
+                TetraFunction<BufferedImage, Integer, Integer, Integer, Integer> colourPickingStrategy) {
+            if (colourPickingStrategy == null) {
+                throw new IllegalArgumentException("Colour picking strategy must not be null");
+            }
+            this.colourPickingStrategy = colourPickingStrategy;
+            return this;
+        }
+
+        /**
+         * @param candidateBatchSize amount of candidate circles evaluated concurrently in each step, 1 disables the
+         *                           batched evaluation
+         * @return this builder
+         */
+        public Builder candidateBatchSize(int candidateBatchSize) {
+            if (candidateBatchSize < 1) {
+                throw new IllegalArgumentException("Candidate batch size must be positive, got " +
+                        candidateBatchSize);
+            }
+            this.candidateBatchSize = candidateBatchSize;
+            return this;
+        }
+
+        /**
+         * @param parallelism amount of threads used by the batched evaluation and by the tiled compression of a
+         *                    single image
+         * @return this builder
+         */
+        public Builder parallelism(int parallelism) {
+            if (parallelism < 1) {
+                throw new IllegalArgumentException("Parallelism must be positive, got " + parallelism);
+            }
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * @param acceptMultipleCandidates whether to place all non-overlapping improving candidates of the batch, or
+         *                                 only the best one
+         * @return this builder
+         */
+        public Builder acceptMultipleCandidates(boolean acceptMultipleCandidates) {
+            this.acceptMultipleCandidates = acceptMultipleCandidates;
+            return this;
+        }
+
+        /**
+         * @param tileSize minimum size of the tiles compressed in parallel, 0 disables the tiled compression
+         * @return this builder
+         */
+        public Builder tileSize(int tileSize) {
+            if (tileSize < 0) {
+                throw new IllegalArgumentException("Tile size must not be negative, got " + tileSize);
+            }
+            this.tileSize = tileSize;
+            return this;
+        }
+
+        /**
+         * @param tileBudget strategy of dividing the circles between the tiles
+         * @return this builder
+         */
+        public Builder tileBudget(TiledCompression.Budget tileBudget) {
+            if (tileBudget == null) {
+                throw new IllegalArgumentException("Tile budget must not be null");
+            }
+            this.tileBudget = tileBudget;
+            return this;
+        }
+
+        /**
+         * @param deadline milliseconds after which the compression stops, 0 for no deadline
+         * @return this builder
+         */
+        public Builder deadline(long deadline) {
+            if (deadline < 0) {
+                throw new IllegalArgumentException("Deadline must not be negative, got " + deadline);
+            }
+            this.deadline = deadline;
+            return this;
+        }
+
+        /**
+         * @param targetError mean absolute error per colour channel, at which the compression stops, 0 for no target
+         * @return this builder
+         */
+        public Builder targetError(double targetError) {
+            if (targetError < 0) {
+                throw new IllegalArgumentException("Target error must not be negative, got " + targetError);
+            }
+            this.targetError = targetError;
+            return this;
+        }
+
+        /**
+         * @param targetPsnr peak signal-to-noise ratio in dB, at which the compression stops, 0 for no target
+         * @return this builder
+         */
+        public Builder targetPsnr(double targetPsnr) {
+            if (targetPsnr < 0) {
+                throw new IllegalArgumentException("Target PSNR must not be negative, got " + targetPsnr);
+            }
+            this.targetPsnr = targetPsnr;
+            return this;
+        }
+
+        /**
+         * @param maxEncodedSize maximum size of the binary data file in bytes, 0 for no limit. See
+         *                       {@link StopCondition} for how the size is estimated
+         * @return this builder
+         */
+        public Builder maxEncodedSize(long maxEncodedSize) {
+            if (maxEncodedSize < 0) {
+                throw new IllegalArgumentException("Maximum encoded size must not be negative, got " +
+                        maxEncodedSize);
+            }
+            this.maxEncodedSize = maxEncodedSize;
+            return this;
+        }
+
+        /**
+         * @param checkpointInterval milliseconds between the checkpoints, when a checkpoint file is passed to
+         *                           {@link Compressor#compress(BufferedImage, FrameRenderer, java.io.File)}
+         * @return this builder
+         */
+        public Builder checkpointInterval(long checkpointInterval) {
+            if (checkpointInterval < 1) {
+                throw new IllegalArgumentException("Checkpoint interval must be positive, got " +
+                        checkpointInterval);
+            }
+            this.checkpointInterval = checkpointInterval;
+            return this;
+        }
+
+        /**
+         * @param pyramidFactor factor the image is downsampled by for placing the large circles, 1 disables the
+         *                      coarse-to-fine search. See {@link PyramidCompression}
+         * @return this builder
+         */
+        public Builder pyramidFactor(int pyramidFactor) {
+            if (pyramidFactor < 1) {
+                throw new IllegalArgumentException("Pyramid factor must be positive, got " + pyramidFactor);
+            }
+            this.pyramidFactor = pyramidFactor;
+            return this;
+        }
+
+        /**
+         * @param residualSampling whether to sample the centers of the candidates by the residual error of the
+         *                         output instead of uniformly. See {@link ResidualCandidateSampler}
+         * @return this builder
+         */
+        public Builder residualSampling(boolean residualSampling) {
+            this.residualSampling = residualSampling;
+            return this;
+        }
+
+        /**
+         * @param refinementIterations amount of mutations of the placed circles proposed after all circles are
+         *                             placed, 0 disables the refinement. See {@link CircleRefinement}
+         * @return this builder
+         */
+        public Builder refinementIterations(int refinementIterations) {
+            if (refinementIterations < 0) {
+                throw new IllegalArgumentException("Refinement iterations must not be negative, got " +
+                        refinementIterations);
+            }
+            this.refinementIterations = refinementIterations;
+            return this;
+        }
+
+        /**
+         * @param islands amount of independent searches run in parallel, adopting the best output after each epoch,
+         *                1 disables the island search. See {@link IslandSearch}
+         * @return this builder
+         */
+        public Builder islands(int islands) {
+            if (islands < 1) {
+                throw new IllegalArgumentException("Island count must be positive, got " + islands);
+            }
+            this.islands = islands;
+            return this;
+        }
+
+        /**
+         * @param annealingTemperature initial temperature of the simulated annealing in units of error per pixel,
+         *                             0 for the strict hill climbing. See {@link HillClimber#setAnnealing(double)}
+         * @return this builder
+         */
+        public Builder annealingTemperature(double annealingTemperature) {
+            if (annealingTemperature < 0) {
+                throw new IllegalArgumentException("Annealing temperature must not be negative, got " +
+                        annealingTemperature);
+            }
+            this.annealingTemperature = annealingTemperature;
+            return this;
+        }
+
+        /**
+         * @param scoring measure of the fitness change of the candidate circles, see
+         *                {@link RasterEngine#calculateFitnessChange(Circle)}
+         * @return this builder
+         */
+        public Builder scoring(RasterEngine.Scoring scoring) {
+            if (scoring == null) {
+                throw new IllegalArgumentException("Scoring must not be null");
+            }
+            this.scoring = scoring;
+            return this;
+        }
+
+        /**
+         * @param seed seed of the random generators, which makes the compression of an image reproducible with the
+         *             same configuration. A deadline or a resumed checkpoint may still change the result. Unseeded
+         *             compressions use {@link java.util.concurrent.ThreadLocalRandom}
+         * @return this builder
+         */
+        public Builder seed(long seed) {
+            this.seed = OptionalLong.of(seed);
+            return this;
+        }
+
+        /**
+         * @return the configuration
+         * @throws IllegalArgumentException if the coarse-to-fine search, the residual sampling, the island search or
+         *                                  the simulated annealing is combined with the tiled compression, or if the
+         *                                  simulated annealing is combined with the batched evaluation
+         */
+        public CompressorConfig build() {
+            if (pyramidFactor > 1 && tileSize > 0) {
+                throw new IllegalArgumentException("Coarse-to-fine search is not supported by the tiled compression");
+            }
+            if (residualSampling && tileSize > 0) {
+                throw new IllegalArgumentException("Residual sampling is not supported by the tiled compression");
+            }
+            if (islands > 1 && tileSize > 0) {
+                throw new IllegalArgumentException("Island search is not supported by the tiled compression");
+            }
+            if (annealingTemperature > 0 && (tileSize > 0 || candidateBatchSize > 1)) {
+                throw new IllegalArgumentException("Simulated annealing is not supported by the tiled compression " +
+                        "and the batched evaluation");
+            }
+            return new CompressorConfig(this);
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package localsearch;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static localsearch.GraphicHelper.mixColour;
+
+/**
+ * Usage: provide the circle data file (text or binary) and the output image file name as command line parameters,
+ * optionally followed by the output scale (defaults to 1) and the amount of threads (defaults to the amount of
+ * processors). The format of the output image is given by the extension of its name.
+ * <p>
+ * Re-renders the image from the circles with the same compositing as the compression, see
+ * {@link GraphicHelper#mixColour(int, int)}. The output is split into horizontal bands rendered in parallel, each
+ * band replaying only the circles intersecting it, in their original order. At scale 1, the result is identical to
+ * the output of the compression.
+ * <p>
+ * Region usage: {@code --region <x>,<y>,<width>,<height>} followed by the binary circle data file and the output
+ * image file name renders only given region of the image in the original resolution, from the circles intersecting
+ * it, which are looked up in the spatial index next to the data file (see {@link CircleIndex}). The index is built
+ * when missing.
+ *
+ * @author Ondřej Kratochvíl
+ */
+public class Decoder {
+
+    private final static int BAND_HEIGHT = 32;
+    private final static String REGION_OPTION = "--region";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && REGION_OPTION.equals(args[0])) {
+            if (args.length != 4) {
+                System.err.println("Please specify the region, the binary circle data file and output file name");
+                System.exit(1);
+            }
+            decodeRegion(args[1], new File(args[2]), new File(args[3]));
+            return;
+        }
+        if (args.length < 2 || args.length > 4) {
+            System.err.println("Please specify the circle data file, output file name and optionally scale and " +
+                    "amount of threads");
+            System.exit(1);
+        }
+        File outputFile = new File(args[1]);
+        double scale = args.length > 2 ? Double.parseDouble(args[2]) : 1;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+        long startTime = System.currentTimeMillis();
+        CircleData data = CircleData.read(new File(args[0]));
+        BufferedImage image = decode(data, scale, threads);
+        System.out.println(String.format("Decoding time: %d ms, circles: %d, size: %dx%d",
+                (System.currentTimeMillis() - startTime), data.size(), image.getWidth(), image.getHeight()));
+
+        writeImage(image, outputFile);
+    }
+
+    private static void decodeRegion(String region, File dataFile, File outputFile) throws IOException {
+        String[] bounds = region.split(",");
+        if (bounds.length != 4) {
+            System.err.println("Please specify the region as x,y,width,height");
+            System.exit(1);
+        }
+        if (!CircleFileReader.isBinary(dataFile)) {
+            System.err.println("Region decoding requires the binary circle data file");
+            System.exit(1);
+        }
+        File indexFile = CircleIndex.getIndexFile(dataFile);
+        if (!indexFile.exists()) {
+            long startTime = System.currentTimeMillis();
+            long size = CircleIndex.write(dataFile, indexFile, CircleIndex.DEFAULT_CELL_SIZE);
+            System.out.println(String.format("Indexing time: %d ms, index size: %d B",
+                    (System.currentTimeMillis() - startTime), size));
+        }
+        long startTime = System.currentTimeMillis();
+        BufferedImage image;
+        try (CircleFileReader reader = new CircleFileReader(dataFile); CircleIndex index = new CircleIndex(indexFile)) {
+            image = decodeRegion(reader, index, Integer.parseInt(bounds[0].trim()),
+                    Integer.parseInt(bounds[1].trim()), Integer.parseInt(bounds[2].trim()),
+                    Integer.parseInt(bounds[3].trim()));
+        }
+        System.out.println(String.format("Decoding time: %d ms, size: %dx%d",
+                (System.currentTimeMillis() - startTime), image.getWidth(), image.getHeight()));
+        writeImage(image, outputFile);
+    }
+
+    private static void writeImage(BufferedImage image, File outputFile) throws IOException {
+        String name = outputFile.getName();
+        String format = name.contains(".") ? name.substring(name.lastIndexOf('.') + 1) : "png";
+        if (!ImageIO.write(image, format, outputFile)) {
+            System.err.println("Unsupported output format: " + format);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Render the circles into a new image.
+     *
+     * @param data circles to be rendered
+     * @param scale scale of the output image relative to the compressed image
+     * @param threads amount of threads rendering the bands
+     * @return rendered image
+     */
+    public static BufferedImage decode(CircleData data, double scale, int threads) {
+        if (scale <= 0) {
+            throw new IllegalArgumentException("Scale must be positive, got " + scale);
+        }
+        int width = Math.max(1, (int) Math.round(data.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(data.getHeight() * scale));
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        int bandCount = (height + BAND_HEIGHT - 1) / BAND_HEIGHT;
+        int[][] bands = assignToBands(data, scale, height, bandCount);
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int band = 0; band < bandCount; ++band) {
+            int[] bandCircles = bands[band];
+            int lowerBoundY = band * BAND_HEIGHT;
+            int upperBoundY = Math.min(height, lowerBoundY + BAND_HEIGHT);
+            tasks.add(() -> {
+                renderBand(data, bandCircles, scale, pixels, width, lowerBoundY, upperBoundY);
+                return null;
+            });
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Decoding was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Decoding of a band failed", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        return image;
+    }
+
+    /**
+     * Render a region of the image in the original resolution, reading only the circles intersecting it. The result
+     * is identical to the corresponding part of {@link #decode(CircleData, double, int)} at scale 1.
+     *
+     * @param reader reader of the binary circle data file
+     * @param index spatial index of the circle data file
+     * @param x left border of the region
+     * @param y top border of the region
+     * @param width width of the region
+     * @param height height of the region
+     * @return rendered region
+     * @throws IOException if the circle data file or the index cannot be read, or do not belong together
+     */
+    public static BufferedImage decodeRegion(CircleFileReader reader, CircleIndex index, int x, int y, int width,
+                                             int height) throws IOException {
+        if (width < 1 || height < 1 || x < 0 || y < 0 || x + width > reader.getWidth() ||
+                y + height > reader.getHeight()) {
+            throw new IllegalArgumentException(String.format("Region %d,%d,%dx%d is outside of the %dx%d image", x,
+                    y, width, height, reader.getWidth(), reader.getHeight()));
+        }
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        Arrays.fill(pixels, reader.getBackground());
+        index.forEachIntersecting(reader, x, y, width, height,
+                (centerX, centerY, diameter, colour) -> drawCircle(centerX - x, centerY - y, diameter, colour, pixels,
+                        width, 0, height));
+        return image;
+    }
+
+    /**
+     * Distribute the indices of the circles to the bands they intersect, keeping their order.
+     */
+    private static int[][] assignToBands(CircleData data, double scale, int height, int bandCount) {
+        int[] counts = new int[bandCount];
+        for (int i = 0; i < data.size(); ++i) {
+            int firstRow = Math.max(0, firstPixel(data.getY(i) - data.getDiameter(i), scale));
+            int lastRow = Math.min(height, firstPixel(data.getY(i) + data.getDiameter(i), scale)) - 1;
+            for (int band = firstRow / BAND_HEIGHT; firstRow <= lastRow && band <= lastRow / BAND_HEIGHT; ++band) {
+                ++counts[band];
+            }
+        }
+        int[][] bands = new int[bandCount][];
+        for (int band = 0; band < bandCount; ++band) {
+            bands[band] = new int[counts[band]];
+            counts[band] = 0;
+        }
+        for (int i = 0; i < data.size(); ++i) {
+            int firstRow = Math.max(0, firstPixel(data.getY(i) - data.getDiameter(i), scale));
+            int lastRow = Math.min(height, firstPixel(data.getY(i) + data.getDiameter(i), scale)) - 1;
+            for (int band = firstRow / BAND_HEIGHT; firstRow <= lastRow && band <= lastRow / BAND_HEIGHT; ++band) {
+                bands[band][counts[band]++] = i;
+            }
+        }
+        return bands;
+    }
+
+    private static void renderBand(CircleData data, int[] circles, double scale, int[] pixels, int width,
+                                   int lowerBoundY, int upperBoundY) {
+        int background = data.getBackground();
+        for (int j = lowerBoundY; j < upperBoundY; ++j) {
+            for (int i = 0; i < width; ++i) {
+                pixels[j * width + i] = background;
+            }
+        }
+        for (int circle : circles) {
+            if (scale == 1) {
+                drawCircle(data.getX(circle), data.getY(circle), data.getDiameter(circle), data.getColour(circle),
+                        pixels, width, lowerBoundY, upperBoundY);
+            } else {
+                drawScaledCircle(data.getX(circle), data.getY(circle), data.getDiameter(circle),
+                        data.getColour(circle), scale, pixels, width, lowerBoundY, upperBoundY);
+            }
+        }
+    }
+
+    /**
+     * Draw the circle in the original resolution, clipped to the band, exactly as {@link RasterEngine} does.
+     */
+    private static void drawCircle(int centerX, int centerY, int diameter, int colour, int[] pixels, int width,
+                                   int lowerBoundY, int upperBoundY) {
+        CircleSpans spans = CircleSpans.of(diameter);
+        int from = Math.max(lowerBoundY, centerY - diameter);
+        int to = Math.min(upperBoundY, centerY + diameter);
+        for (int j = from; j < to; ++j) {
+            int row = j - (centerY - diameter);
+            int lowerBoundX = Math.max(0, centerX + spans.getStart(row));
+            int upperBoundX = Math.min(width, centerX + spans.getEnd(row));
+            for (int i = lowerBoundX; i < upperBoundX; ++i) {
+                pixels[j * width + i] = mixColour(pixels[j * width + i], colour);
+            }
+        }
+    }
+
+    /**
+     * Draw the circle scaled by given factor, clipped to the band. Each output pixel is mapped to the point of the
+     * original image at its center, and is covered when the point lies in the circle and in its circumscribed
+     * (right-open) square.
+     */
+    private static void drawScaledCircle(int centerX, int centerY, int diameter, int colour, double scale,
+                                         int[] pixels, int width, int lowerBoundY, int upperBoundY) {
+        int from = Math.max(lowerBoundY, firstPixel(centerY - diameter, scale));
+        int to = Math.min(upperBoundY, firstPixel(centerY + diameter, scale));
+        for (int j = from; j < to; ++j) {
+            double dy = (j + 0.5) / scale - 0.5 - centerY;
+            if (dy * dy > (double) diameter * diameter) {
+                continue;
+            }
+            double halfWidth = Math.sqrt((double) diameter * diameter - dy * dy);
+            int lowerBoundX = Math.max(0, firstPixel(centerX - halfWidth, scale));
+            int upperBoundX = Math.min(Math.min(width, lastPixel(centerX + halfWidth, scale) + 1),
+                    firstPixel(centerX + diameter, scale));
+            for (int i = lowerBoundX; i < upperBoundX; ++i) {
+                pixels[j * width + i] = mixColour(pixels[j * width + i], colour);
+            }
+        }
+    }
+
+    /**
+     * @return first output pixel, whose center maps to the original coordinate greater than or equal to given one
+     */
+    private static int firstPixel(double coordinate, double scale) {
+        return (int) Math.ceil((coordinate + 0.5) * scale - 0.5);
+    }
+
+    /**
+     * @return last output pixel, whose center maps to the original coordinate less than or equal to given one
+     */
+    private static int lastPixel(double coordinate, double scale) {
+        return (int) Math.floor((coordinate + 0.5) * scale - 0.5);
+    }
+}
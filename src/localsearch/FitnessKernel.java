@@ -0,0 +1,72 @@
+package localsearch;
+
+/**
+ * Kernel scoring a horizontal span of a candidate circle, i.e. the change of the per-channel error between the input
+ * and the output caused by mixing the colour of the circle into each pixel of the span (see
+ * {@link GraphicHelper#mixColour(int, int)}). The alpha channel is ignored.
+ * <p>
+ * {@link #getInstance()} selects the implementation at runtime. The Vector API implementation
+ * {@code VectorFitnessKernel} is only compiled by the {@code vector} profile and only usable when the JVM runs with
+ * {@code --add-modules jdk.incubator.vector}, otherwise {@link ScalarFitnessKernel} is used. The scalar kernel can
+ * also be forced by setting the {@value #KERNEL_PROPERTY} system property to {@code scalar}.
+ *
+ * @author Ondřej Kratochvíl
+ */
+public interface FitnessKernel {
+
+    String KERNEL_PROPERTY = "localsearch.kernel";
+
+    /**
+     * Calculate the change of the sum of absolute differences of the colour channels.
+     *
+     * @param input input pixels, row-major packed ARGB
+     * @param output output pixels, row-major packed ARGB
+     * @param offset index of the first pixel of the span
+     * @param length amount of pixels of the span
+     * @param colour colour of the circle
+     * @return error change, negative if the circle improves the span
+     */
+    long absoluteErrorChange(int[] input, int[] output, int offset, int length, int colour);
+
+    /**
+     * Calculate the change of the sum of squared differences of the colour channels.
+     *
+     * @param input input pixels, row-major packed ARGB
+     * @param output output pixels, row-major packed ARGB
+     * @param offset index of the first pixel of the span
+     * @param length amount of pixels of the span
+     * @param colour colour of the circle
+     * @return squared error change, negative if the circle improves the span
+     */
+    long squaredErrorChange(int[] input, int[] output, int offset, int length, int colour);
+
+    /**
+     * @return the fastest kernel available in the running JVM
+     */
+    static FitnessKernel getInstance() {
+        return KernelHolder.INSTANCE;
+    }
+
+    /**
+     * Lazily selected kernel, shared by all engines.
+     */
+    final class KernelHolder {
+
+        private final static FitnessKernel INSTANCE = load();
+
+        private KernelHolder() {
+        }
+
+        private static FitnessKernel load() {
+            if (!"scalar".equals(System.getProperty(KERNEL_PROPERTY))) {
+                try {
+                    return (FitnessKernel) Class.forName("localsearch.VectorFitnessKernel")
+                            .getDeclaredConstructor().newInstance();
+                } catch (ReflectiveOperationException | LinkageError e) {
+                    // not compiled, or the incubator module is not added to the JVM
+                }
+            }
+            return new ScalarFitnessKernel();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package localsearch;
+
+import java.awt.Rectangle;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hand-over of the output image from the search threads to a {@link FrameRenderer}. The search threads never wait
+ * for the renderer: each of them accumulates the rectangle it has drawn into in its own {@link Channel}, and copies
+ * it into a staging buffer only after the renderer has requested a new frame, and only if the staging buffer is not
+ * being read at the moment. Otherwise the rectangle keeps growing until the next attempt, so the intermediate frames
+ * are dropped, but no drawn pixel is lost.
+ *
+ * @author Ondřej Kratochvíl
+ */
+public class FramePublisher {
+
+    private final int width;
+    private final int height;
+    private final int[] output;
+    private final int[] staging;
+    private final ReentrantLock lock = new ReentrantLock();
+    // rectangle of the staging buffer not collected by the renderer yet, guarded by the lock
+    private final Rectangle staged = new Rectangle();
+    // incremented by the renderer, whenever it wants a new frame
+    private volatile int requestedFrame;
+
+    /**
+     * @param engine raster engine, whose output is published
+     */
+    public FramePublisher(RasterEngine engine) {
+        this.width = engine.getWidth();
+        this.height = engine.getHeight();
+        this.output = engine.getOutput();
+        this.staging = new int[output.length];
+    }
+
+    /**
+     * Open a channel for a search thread. Each thread drawing into the output needs its own channel.
+     *
+     * @return new channel
+     */
+    public Channel openChannel() {
+        return new Channel();
+    }
+
+    /**
+     * Ask the search threads to stage their changes for the next frame. Called by the renderer only.
+     */
+    public void requestFrame() {
+        requestedFrame = requestedFrame + 1;
+    }
+
+    /**
+     * Copy the staged changes into the frame. Called by the renderer only.
+     *
+     * @param frame row-major packed RGB pixels of the frame, of the size of the output
+     * @return the changed rectangle of the frame, or {@code null} if nothing changed since the last call
+     */
+    public Rectangle collect(int[] frame) {
+        lock.lock();
+        try {
+            if (staged.isEmpty()) {
+                return null;
+            }
+            Rectangle changed = new Rectangle(staged);
+            copy(staging, frame, changed);
+            staged.setSize(0, 0);
+            return changed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Copy the whole output into the frame. Must not be called while the output is being drawn into, i.e. only
+     * after the compression has finished.
+     *
+     * @param frame row-major packed RGB pixels of the frame, of the size of the output
+     */
+    public void collectAll(int[] frame) {
+        System.arraycopy(output, 0, frame, 0, output.length);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    private void copy(int[] source, int[] target, Rectangle rectangle) {
+        for (int j = rectangle.y; j < rectangle.y + rectangle.height; ++j) {
+            System.arraycopy(source, j * width + rectangle.x, target, j * width + rectangle.x, rectangle.width);
+        }
+    }
+
+    /**
+     * Publishing side of a single search thread.
+     */
+    public class Channel {
+
+        // rectangle drawn into since the last copy, empty if minX >= maxX
+        private int minX = Integer.MAX_VALUE;
+        private int minY = Integer.MAX_VALUE;
+        private int maxX = Integer.MIN_VALUE;
+        private int maxY = Integer.MIN_VALUE;
+        private int copiedFrame;
+
+        private Channel() {
+        }
+
+        /**
+         * Publish the circle drawn into the output. Never blocks.
+         *
+         * @param circle drawn circle
+         */
+        public void publish(Circle circle) {
+            publish(circle.getX() - circle.getDiameter(), circle.getY() - circle.getDiameter(),
+                    circle.getX() + circle.getDiameter(), circle.getY() + circle.getDiameter());
+        }
+
+        /**
+         * Publish a region of the output changed in place. Never blocks.
+         *
+         * @param lowerBoundX left border of the region (inclusive)
+         * @param lowerBoundY top border of the region (inclusive)
+         * @param upperBoundX right border of the region (exclusive)
+         * @param upperBoundY bottom border of the region (exclusive)
+         */
+        public void publish(int lowerBoundX, int lowerBoundY, int upperBoundX, int upperBoundY) {
+            minX = Math.min(minX, Math.max(0, lowerBoundX));
+            minY = Math.min(minY, Math.max(0, lowerBoundY));
+            maxX = Math.max(maxX, Math.min(width, upperBoundX));
+            maxY = Math.max(maxY, Math.min(height, upperBoundY));
+            int frame = requestedFrame;
+            if (frame == copiedFrame || minX >= maxX || minY >= maxY || !lock.tryLock()) {
+                return;
+            }
+            try {
+                Rectangle drawn = new Rectangle(minX, minY, maxX - minX, maxY - minY);
+                copy(output, staging, drawn);
+                if (staged.isEmpty()) {
+                    staged.setBounds(drawn);
+                } else {
+                    staged.add(drawn);
+                }
+            } finally {
+                lock.unlock();
+            }
+            copiedFrame = frame;
+            minX = Integer.MAX_VALUE;
+            minY = Integer.MAX_VALUE;
+            maxX = Integer.MIN_VALUE;
+            maxY = Integer.MIN_VALUE;
+        }
+    }
+}
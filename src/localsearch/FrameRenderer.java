@@ -0,0 +1,22 @@
+package localsearch;
+
+/**
+ * Consumer of the frames published by the search threads, see {@link FramePublisher}. The renderer runs on its own
+ * thread, so the search threads are never slowed down by it.
+ *
+ * @author Ondřej Kratochvíl
+ */
+public interface FrameRenderer {
+
+    /**
+     * Start rendering the frames of the output.
+     *
+     * @param publisher publisher of the output being compressed
+     */
+    void start(FramePublisher publisher);
+
+    /**
+     * Stop rendering and render the final output. Called after the compression has finished.
+     */
+    void finish();
+}
@@ -161,6 +161,10 @@ public final class GraphicHelper {
                 null);
         square.copyData(croppedImage.getRaster());
         int[] rgb = ColorThief.getColor(croppedImage);
+        if (rgb == null) {
+            // Color Thief ignores white pixels, fall back to the most frequent colour
+            return getMajorityColour(image, centerX, centerY, diameter);
+        }
         return (0xff << 24) + (rgb[0] << 16) + (rgb[1] << 8) + rgb[2];
     }
 }
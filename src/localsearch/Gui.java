@@ -2,37 +2,75 @@ package localsearch;
 
 import javax.swing.*;
 import java.awt.*;
-import java.awt.event.WindowEvent;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.lang.reflect.InvocationTargetException;
 
 /**
+ * Window showing the progress of the compression. The frames are collected from the {@link FramePublisher} on the
+ * event dispatch thread at most {@code fps} times per second, so the image being painted is never written to by
+ * the search threads.
+ *
  * @author Ondřej Kratochvíl
  */
-public class Gui extends JFrame {
+public class Gui extends JFrame implements FrameRenderer {
 
+    private final int fps;
     private ImageImplement panel;
+    private FramePublisher publisher;
+    private int[] frame;
+    private Timer timer;
 
-    public void start(int width, int height, Image image) {
-        panel = new ImageImplement(new ImageIcon(image).getImage());
+    /**
+     * @param fps maximum amount of frames rendered per second
+     */
+    public Gui(int fps) {
+        if (fps < 1) {
+            throw new IllegalArgumentException("Frame rate must be positive, got " + fps);
+        }
+        this.fps = fps;
+    }
+
+    @Override
+    public void start(FramePublisher publisher) {
+        this.publisher = publisher;
+        int width = publisher.getWidth();
+        int height = publisher.getHeight();
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        frame = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        panel = new ImageImplement(image);
         add(panel);
         setVisible(true);
         setSize(width + 50, height + 50);
         setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
         setLayout(new FlowLayout(FlowLayout.CENTER));
         setTitle("Processing...");
+        timer = new Timer(1000 / fps, e -> render());
+        timer.start();
     }
 
+    @Override
     public void finish() {
-        setTitle("Done!");
         try {
+            SwingUtilities.invokeAndWait(() -> {
+                timer.stop();
+                publisher.collectAll(frame);
+                panel.repaint();
+                setTitle("Done!");
+            });
             Thread.sleep(5000);
-        } catch (InterruptedException e) {
+        } catch (InterruptedException | InvocationTargetException e) {
             e.printStackTrace();
         }
-        dispatchEvent(new WindowEvent(this, WindowEvent.WINDOW_CLOSING));
+        dispose();
     }
 
-    public void update() {
-        panel.repaint();
+    private void render() {
+        publisher.requestFrame();
+        Rectangle changed = publisher.collect(frame);
+        if (changed != null) {
+            panel.repaint(changed);
+        }
     }
 
     private class ImageImplement extends JPanel {
@@ -0,0 +1,566 @@
+package localsearch;
+
+import jdk.jfr.FlightRecorder;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static localsearch.CompressionMetrics.Counter.*;
+
+/**
+ * Single run of the hill climbing algorithm, placing given amount of circles into the output of a
+ * {@link RasterEngine}. All state of the run is kept in the instance, so multiple climbers can work on disjoint
+ * regions of the same output concurrently.
+ * <p>
+ * The run is instrumented per phase of the diameter schedule: the counters of {@link CompressionMetrics} are
+ * collected locally and a {@link CompressionPhaseEvent} is emitted to JFR when the phase ends, if JFR is running.
+ * The time is only measured when metrics are set or the event is enabled.
+ *
+ * @author Ondřej Kratochvíl
+ */
+public class HillClimber {
+
+    // amount of samples of the total error recorded during the run
+    private final static int ERROR_SAMPLES = 100;
+
+    private final BufferedImage inputImage;
+    private final RasterEngine engine;
+    private final CompressionQuality quality;
+    private final int retryCount;
+    private final TetraFunction<BufferedImage, Integer, Integer, Integer, Integer> colourPickingStrategy;
+    private final CandidateSampler sampler;
+    private final Circle[] circles;
+    // diameter schedule, see setDiameterSchedule
+    private int scheduleMinDimension;
+    private int scheduleLength;
+    private int diameterScale = 1;
+    private int circleCount;
+    // amount of circles after which the run pauses
+    private int circleLimit;
+    // amount of the initial circles, which are already drawn into the output
+    private int drawnCircleCount;
+    // initial temperature of the simulated annealing, 0 for the strict hill climbing
+    private double temperature;
+    private int maxDiameter;
+    private FramePublisher.Channel channel;
+    private Random random;
+    // region of the output the circles are placed in
+    private int lowerBoundX;
+    private int lowerBoundY;
+    private int upperBoundX;
+    private int upperBoundY;
+    // instrumentation of the current phase
+    private CompressionMetrics metrics;
+    private final long[] phaseCounters = new long[CompressionMetrics.Counter.values().length];
+    private int phase = -1;
+    private int phaseStartCircleCount;
+    private long phaseStartError;
+    private CompressionPhaseEvent phaseEvent;
+    private boolean measured;
+    private int nextErrorSample;
+    // amount of failed tries since the last placed circle
+    private int retries;
+    private StopCondition stopCondition;
+    private File checkpointFile;
+    private long checkpointInterval;
+    private long nextCheckpoint;
+    private long startTime;
+    // milliseconds spent before the run was resumed
+    private long previousElapsed;
+
+    /**
+     * @param inputImage input image
+     * @param engine raster engine with the output image
+     * @param quality quality of the compression
+     * @param retryCount amount of tries when placing new circles
+     * @param colourPickingStrategy strategy for choosing the colour of the new circles
+     * @param sampler generator of the candidate circles
+     * @param circleCount amount of circles to be placed
+     */
+    public HillClimber(BufferedImage inputImage, RasterEngine engine, CompressionQuality quality, int retryCount,
+                       TetraFunction<BufferedImage, Integer, Integer, Integer, Integer> colourPickingStrategy,
+                       CandidateSampler sampler, int circleCount) {
+        this.inputImage = inputImage;
+        this.engine = engine;
+        this.quality = quality;
+        this.retryCount = retryCount;
+        this.colourPickingStrategy = colourPickingStrategy;
+        this.sampler = sampler;
+        this.circles = new Circle[circleCount];
+        this.circleLimit = circleCount;
+        this.scheduleMinDimension = Math.min(engine.getWidth(), engine.getHeight());
+        this.scheduleLength = circleCount;
+        this.upperBoundX = engine.getWidth();
+        this.upperBoundY = engine.getHeight();
+    }
+
+    /**
+     * @param publisher publisher each placed circle is published to for visualization, or {@code null}
+     */
+    public void setPublisher(FramePublisher publisher) {
+        this.channel = publisher != null ? publisher.openChannel() : null;
+    }
+
+    /**
+     * @param random source of randomness of the run, or {@code null} to use {@link ThreadLocalRandom}
+     */
+    public void setRandom(Random random) {
+        this.random = random;
+    }
+
+    /**
+     * @param metrics metrics the counters of the run are added to, or {@code null}
+     */
+    public void setMetrics(CompressionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param stopCondition criteria for stopping the run before all circles are placed, or {@code null}
+     */
+    public void setStopCondition(StopCondition stopCondition) {
+        this.stopCondition = stopCondition;
+    }
+
+    /**
+     * Periodically save the state of the run, so that it can be resumed by {@link #resume(Checkpoint)} if it is
+     * interrupted.
+     *
+     * @param checkpointFile file the checkpoints are written to, or {@code null} to disable them
+     * @param checkpointInterval interval between the checkpoints in milliseconds
+     */
+    public void setCheckpointing(File checkpointFile, long checkpointInterval) {
+        this.checkpointFile = checkpointFile;
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * Continue from the checkpoint of an interrupted run. The circles of the checkpoint are drawn into the output at
+     * the start of the run.
+     *
+     * @param checkpoint checkpoint of a run with the same image and parameters
+     */
+    public void resume(Checkpoint checkpoint) {
+        if (!checkpoint.matches(engine.getWidth(), engine.getHeight(), quality, circles.length)) {
+            throw new IllegalArgumentException("Checkpoint does not belong to this compression");
+        }
+        setInitialCircles(checkpoint.getCircles());
+        retries = checkpoint.getRetries();
+        previousElapsed = checkpoint.getElapsed();
+    }
+
+    /**
+     * Start the run with given circles already placed. They are drawn into the output at the start of the run, as
+     * far as they fit into the size budget of the stop condition, and the diameter schedule continues after them.
+     *
+     * @param initialCircles placed circles, in the order they were drawn
+     */
+    public void setInitialCircles(Circle[] initialCircles) {
+        setInitialCircles(initialCircles, false);
+    }
+
+    /**
+     * Start the run with given circles already placed.
+     *
+     * @param initialCircles placed circles, in the order they were drawn
+     * @param drawn whether the circles are already drawn into the output, e.g. after it was copied by
+     *              {@link RasterEngine#copyFrom(RasterEngine)}. Drawn circles have to fit into the size budget
+     */
+    public void setInitialCircles(Circle[] initialCircles, boolean drawn) {
+        if (initialCircles.length > circles.length) {
+            throw new IllegalArgumentException("Cannot place " + initialCircles.length + " initial circles, only " +
+                    circles.length + " circles are to be placed");
+        }
+        System.arraycopy(initialCircles, 0, circles, 0, initialCircles.length);
+        circleCount = initialCircles.length;
+        drawnCircleCount = drawn ? initialCircles.length : 0;
+    }
+
+    /**
+     * Pause the run once given amount of circles is placed, so that it can be continued by another climber starting
+     * with the placed circles. The diameter schedule still spans all circles.
+     *
+     * @param circleLimit amount of circles after which the run ends
+     */
+    public void setCircleLimit(int circleLimit) {
+        this.circleLimit = Math.min(circleLimit, circles.length);
+    }
+
+    /**
+     * Replace the strict acceptance of {@link #run()} by simulated annealing on the error of the output (see
+     * {@link RasterEngine#calculateErrorChange(Circle)}). A candidate increasing the error by {@code e} per covered
+     * pixel is accepted with probability {@code exp(-e / t)}, where the temperature {@code t} decreases linearly
+     * from the initial temperature to 0 over the run. Not applied by {@link #runBatched}.
+     *
+     * @param temperature initial temperature in units of error per pixel, 0 for the strict acceptance
+     */
+    public void setAnnealing(double temperature) {
+        if (temperature < 0) {
+            throw new IllegalArgumentException("Temperature must not be negative, got " + temperature);
+        }
+        this.temperature = temperature;
+    }
+
+    /**
+     * Follow the diameter schedule of a larger run, of which this run places only the first circles, with the
+     * diameters divided by given scale. Used to place the large circles into a downsampled copy of the image.
+     *
+     * @param minDimension smaller of the dimensions of the image of the larger run
+     * @param circleCount amount of circles placed by the larger run
+     * @param scale factor the diameters are divided by
+     */
+    public void setDiameterSchedule(int minDimension, int circleCount, int scale) {
+        if (scale < 1) {
+            throw new IllegalArgumentException("Diameter scale must be positive, got " + scale);
+        }
+        this.scheduleMinDimension = minDimension;
+        this.scheduleLength = circleCount;
+        this.diameterScale = scale;
+    }
+
+    /**
+     * @return milliseconds spent by the run, including the time before it was resumed
+     */
+    public long getElapsed() {
+        return previousElapsed + (System.nanoTime() - startTime) / 1_000_000;
+    }
+
+    /**
+     * Restrict the run to given region of the output. The sampler has to generate circles within the region, the
+     * region is passed to {@link StatefulColourStrategy} implementations.
+     *
+     * @param lowerBoundX left border of the region (inclusive)
+     * @param lowerBoundY top border of the region (inclusive)
+     * @param upperBoundX right border of the region (exclusive)
+     * @param upperBoundY bottom border of the region (exclusive)
+     */
+    public void setRegion(int lowerBoundX, int lowerBoundY, int upperBoundX, int upperBoundY) {
+        this.lowerBoundX = lowerBoundX;
+        this.lowerBoundY = lowerBoundY;
+        this.upperBoundX = upperBoundX;
+        this.upperBoundY = upperBoundY;
+    }
+
+    /**
+     * Place the circles one by one. A random candidate is placed when it improves the fitness, or when the retry
+     * count is reached. The run ends when all circles are placed or when the stop condition is reached.
+     */
+    public void run() {
+        TetraFunction<BufferedImage, Integer, Integer, Integer, Integer> colourPickingStrategy =
+                bindColourPickingStrategy();
+        start(colourPickingStrategy);
+        while (circleCount < circleLimit && !isStopped()) {
+            updateBoundaries(circleCount);
+            Random random = this.random != null ? this.random : ThreadLocalRandom.current();
+            Circle circle = sampler.sample(random, maxDiameter);
+            ++phaseCounters[CANDIDATES.ordinal()];
+            long time = measured ? System.nanoTime() : 0;
+            circle.setColour(colourPickingStrategy.apply(inputImage, circle.getX(), circle.getY(),
+                    circle.getDiameter()));
+            time = measure(COLOUR_PICKING_NANOS, time);
+            boolean improving = temperature > 0 ? isAccepted(circle, random) :
+                    engine.calculateFitnessChange(circle) > 0;
+            measure(SCORING_NANOS, time);
+            if (measured) {
+                phaseCounters[PIXELS_SCORED.ordinal()] += engine.getFootprint(circle);
+            }
+            // TODO what to do when retry count is reached?
+            if (improving || retries > retryCount) {
+                if (!fits(circle)) {
+                    ++phaseCounters[REJECTED.ordinal()];
+                    break;
+                }
+                ++phaseCounters[improving ? ACCEPTED.ordinal() : RETRIES_EXHAUSTED.ordinal()];
+                draw(circle, colourPickingStrategy);
+                retries = 0;
+            } else {
+                ++phaseCounters[REJECTED.ordinal()];
+                ++retries;
+            }
+        }
+        endPhase();
+    }
+
+    /**
+     * Variant of {@link #run()}, which generates {@code batchSize} candidates in each step and evaluates them
+     * concurrently. When no candidate improves the fitness, the step counts as a retry for each candidate, and the
+     * best candidate is placed after the retry count is reached.
+     *
+     * @param pool pool to evaluate the candidates on
+     * @param batchSize amount of candidates generated in each step
+     * @param acceptMultiple whether to place all non-overlapping improving candidates, or only the best one
+     */
+    public void runBatched(ForkJoinPool pool, int batchSize, boolean acceptMultiple) {
+        TetraFunction<BufferedImage, Integer, Integer, Integer, Integer> colourPickingStrategy =
+                bindColourPickingStrategy();
+        start(colourPickingStrategy);
+        CandidateBatch batch = new CandidateBatch(batchSize);
+        boolean full = false;
+        while (circleCount < circleLimit && !full && !isStopped()) {
+            updateBoundaries(circleCount);
+            Random random = this.random != null ? this.random : ThreadLocalRandom.current();
+            batch.clear();
+            for (int i = 0; i < batchSize; ++i) {
+                Circle candidate = sampler.sample(random, maxDiameter);
+                batch.add(candidate);
+                if (measured) {
+                    phaseCounters[PIXELS_SCORED.ordinal()] += engine.getFootprint(candidate);
+                }
+            }
+            long colourPickingNanos = batch.getColourPickingNanos();
+            long scoringNanos = batch.getScoringNanos();
+            batch.evaluate(pool, inputImage, colourPickingStrategy, engine);
+            phaseCounters[CANDIDATES.ordinal()] += batch.size();
+            phaseCounters[COLOUR_PICKING_NANOS.ordinal()] += batch.getColourPickingNanos() - colourPickingNanos;
+            phaseCounters[SCORING_NANOS.ordinal()] += batch.getScoringNanos() - scoringNanos;
+            List<Circle> accepted = batch.selectImproving(acceptMultiple, circleLimit - circleCount);
+            boolean forced = accepted.isEmpty();
+            if (forced) {
+                retries += batch.size();
+                if (retries <= retryCount) {
+                    phaseCounters[REJECTED.ordinal()] += batch.size();
+                    continue;
+                }
+                accepted = Collections.singletonList(batch.getBest());
+            }
+            int placed = 0;
+            for (Circle circle : accepted) {
+                if (!fits(circle)) {
+                    full = true;
+                    break;
+                }
+                draw(circle, colourPickingStrategy);
+                ++placed;
+            }
+            phaseCounters[forced ? RETRIES_EXHAUSTED.ordinal() : ACCEPTED.ordinal()] += placed;
+            phaseCounters[REJECTED.ordinal()] += batch.size() - placed;
+            retries = 0;
+        }
+        endPhase();
+    }
+
+    /**
+     * Draw the initial circles and start the clock.
+     */
+    private void start(TetraFunction<BufferedImage, Integer, Integer, Integer, Integer> strategy) {
+        int initialCircleCount = circleCount;
+        for (circleCount = 0; circleCount < initialCircleCount; ++circleCount) {
+            Circle circle = circles[circleCount];
+            if (!fits(circle)) {
+                break;
+            }
+            if (circleCount < drawnCircleCount) {
+                continue;
+            }
+            engine.drawCircle(circle);
+            circleDrawn(strategy, circle);
+            if (channel != null) {
+                channel.publish(circle);
+            }
+        }
+        startTime = System.nanoTime();
+        nextCheckpoint = startTime + checkpointInterval * 1_000_000;
+    }
+
+    /**
+     * Decide about the candidate by the simulated annealing.
+     *
+     * @return {@code true} if the candidate should be placed
+     */
+    private boolean isAccepted(Circle circle, Random random) {
+        long errorChange = engine.calculateErrorChange(circle);
+        if (errorChange < 0) {
+            return true;
+        }
+        int coverage = engine.getCoverage(circle);
+        double currentTemperature = temperature * (1 - circleCount / (double) circles.length);
+        return coverage > 0 && currentTemperature > 0 &&
+                random.nextDouble() < Math.exp(-errorChange / (currentTemperature * coverage));
+    }
+
+    private boolean isStopped() {
+        return stopCondition != null && stopCondition.isReached();
+    }
+
+    /**
+     * @return {@code true} if the circle fits into the size budget of the stop condition
+     */
+    private boolean fits(Circle circle) {
+        return stopCondition == null ||
+                stopCondition.reserve(StopCondition.getEncodedSize(circle, circleCount > 0 ?
+                        circles[circleCount - 1] : null));
+    }
+
+    /**
+     * Draw the circle into the output and add it to the placed circles.
+     */
+    private void draw(Circle circle, TetraFunction<BufferedImage, Integer, Integer, Integer, Integer> strategy) {
+        long time = measured ? System.nanoTime() : 0;
+        circles[circleCount++] = engine.drawCircle(circle);
+        circleDrawn(strategy, circle);
+        measure(DRAWING_NANOS, time);
+        if (measured) {
+            phaseCounters[PIXELS_DRAWN.ordinal()] += engine.getCoverage(circle);
+        }
+        if (channel != null) {
+            channel.publish(circle);
+        }
+        if (metrics != null && circleCount >= nextErrorSample) {
+            metrics.recordError(phase, circleCount, engine.getError());
+            nextErrorSample += Math.max(1, circles.length / ERROR_SAMPLES);
+        }
+        if (checkpointFile != null && System.nanoTime() - nextCheckpoint >= 0) {
+            saveCheckpoint();
+            nextCheckpoint = System.nanoTime() + checkpointInterval * 1_000_000;
+        }
+    }
+
+    private void saveCheckpoint() {
+        try {
+            new Checkpoint(engine.getWidth(), engine.getHeight(), quality, circles.length, retries, getElapsed(),
+                    Arrays.copyOf(circles, circleCount)).write(checkpointFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Add the time elapsed since given time to the counter, if the time is measured.
+     *
+     * @return current time
+     */
+    private long measure(CompressionMetrics.Counter counter, long since) {
+        if (!measured) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        phaseCounters[counter.ordinal()] += now - since;
+        return now;
+    }
+
+    private void beginPhase(int phase) {
+        this.phase = phase;
+        phaseStartCircleCount = circleCount;
+        phaseStartError = engine.getError();
+        // creating the first event initializes JFR, which takes hundreds of milliseconds
+        phaseEvent = FlightRecorder.isInitialized() ? new CompressionPhaseEvent() : null;
+        if (phaseEvent != null) {
+            phaseEvent.begin();
+        }
+        measured = metrics != null || (phaseEvent != null && phaseEvent.isEnabled());
+        if (metrics != null) {
+            metrics.recordError(phase, circleCount, phaseStartError);
+        }
+    }
+
+    private void endPhase() {
+        if (phase == -1) {
+            return;
+        }
+        long error = engine.getError();
+        if (metrics != null) {
+            metrics.add(phase, phaseCounters);
+            metrics.recordError(phase, circleCount, error);
+        }
+        if (phaseEvent != null && phaseEvent.shouldCommit()) {
+            phaseEvent.phase = phase;
+            phaseEvent.maxDiameter = maxDiameter;
+            phaseEvent.circles = circleCount - phaseStartCircleCount;
+            phaseEvent.candidates = phaseCounters[CANDIDATES.ordinal()];
+            phaseEvent.accepted = phaseCounters[ACCEPTED.ordinal()];
+            phaseEvent.retriesExhausted = phaseCounters[RETRIES_EXHAUSTED.ordinal()];
+            phaseEvent.colourPickingNanos = phaseCounters[COLOUR_PICKING_NANOS.ordinal()];
+            phaseEvent.scoringNanos = phaseCounters[SCORING_NANOS.ordinal()];
+            phaseEvent.drawingNanos = phaseCounters[DRAWING_NANOS.ordinal()];
+            phaseEvent.errorBefore = phaseStartError;
+            phaseEvent.errorAfter = error;
+            phaseEvent.commit();
+        }
+        Arrays.fill(phaseCounters, 0);
+        phase = -1;
+    }
+
+    private TetraFunction<BufferedImage, Integer, Integer, Integer, Integer> bindColourPickingStrategy() {
+        if (colourPickingStrategy instanceof StatefulColourStrategy) {
+            return ((StatefulColourStrategy) colourPickingStrategy).bind(engine, lowerBoundX, lowerBoundY,
+                    upperBoundX, upperBoundY);
+        }
+        return colourPickingStrategy;
+    }
+
+    private static void circleDrawn(TetraFunction<BufferedImage, Integer, Integer, Integer, Integer> strategy,
+                                    Circle circle) {
+        if (strategy instanceof StatefulColourStrategy) {
+            ((StatefulColourStrategy) strategy).circleDrawn(circle);
+        }
+    }
+
+    /**
+     * Used for non-linear distribution of the diameter of the circles. In the early stages of the algorithm, we
+     * want to generate large circles, whereas in the later stages, we want only small ones.
+     *
+     * @param iteration current iteration of the hill climbing algorithm
+     */
+    private void updateBoundaries(int iteration) {
+        double percentageDone = (iteration / (double) scheduleLength) * 100;
+        int currentPhase = getPhase(percentageDone);
+        if (currentPhase != phase) {
+            endPhase();
+            beginPhase(currentPhase);
+        }
+        maxDiameter = Math.max(1, getMaxDiameter(scheduleMinDimension, quality, percentageDone) / diameterScale);
+    }
+
+    /**
+     * Get the phase of the diameter schedule: 0 for the large circles of the first quarter of the run, 1 for the
+     * middle half and 2 for the small circles of the last quarter.
+     *
+     * @param percentageDone percentage of the already placed circles
+     * @return phase of the diameter schedule
+     */
+    public static int getPhase(double percentageDone) {
+        if (percentageDone < 25) {
+            return 0;
+        }
+        return percentageDone > 75 ? 2 : 1;
+    }
+
+    /**
+     * Get the upper bound (exclusive) of the diameter of the circles in given stage of the algorithm.
+     *
+     * @param minDimension smaller of the dimensions of the image
+     * @param quality quality of the compression
+     * @param percentageDone percentage of the already placed circles
+     * @return upper bound of the diameter
+     */
+    public static int getMaxDiameter(int minDimension, CompressionQuality quality, double percentageDone) {
+        // at least one hundred is assumed to avoid division by zero on images smaller than 100 pixels
+        int hundreds = Math.max(1, minDimension / 100);
+        int maxDiameter;
+        switch (getPhase(percentageDone)) {
+            case 0:
+                maxDiameter = (int) ((minDimension / (16 * hundreds)) * quality.getDiameterFactor());
+                break;
+            case 2:
+                maxDiameter = (int) ((minDimension / (48 * hundreds)) * quality.getDiameterFactor());
+                break;
+            default:
+                maxDiameter = (int) ((minDimension / (28 * hundreds)) * quality.getDiameterFactor());
+        }
+        return Math.max(1, maxDiameter);
+    }
+
+    /**
+     * @return placed circles, in the order they were drawn
+     */
+    public Circle[] getCircles() {
+        return circleCount == circles.length ? circles : Arrays.copyOf(circles, circleCount);
+    }
+}
@@ -0,0 +1,157 @@
+package localsearch;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Allocation-free replacement of {@link GraphicHelper#getMajorityColour(BufferedImage, int, int, int)}. Counts the
+ * colours of the pixels in the circle into a reusable primitive histogram, optionally quantized to given amount of
+ * bits per channel, and tracks the most frequent bin while counting. The returned colour is the first pixel of the
+ * circle falling into the most frequent bin, so with 8 bits per channel, the exact majority colour is picked.
+ * <p>
+ * Each thread uses its own histogram of {@code 2^(3 * bits)} bins, i.e. 1 MB for 6 bits and 64 MB for 8 bits. The
+ * pixels of the image are copied once and reused while the same image is passed in, so a single instance can be
+ * shared by compressions of different images running concurrently.
+ *
+ * @author Ondřej Kratochvíl
+ */
+public class HistogramColourPicker implements TetraFunction<BufferedImage, Integer, Integer, Integer, Integer> {
+
+    private final int bits;
+    private final ThreadLocal<Histogram> histogram;
+    private volatile Pixels pixels;
+
+    /**
+     * @param bits amount of bits per channel used for counting the colours (1-8)
+     */
+    public HistogramColourPicker(int bits) {
+        if (bits < 1 || bits > 8) {
+            throw new IllegalArgumentException("Bits per channel must be between 1 and 8, got " + bits);
+        }
+        this.bits = bits;
+        this.histogram = ThreadLocal.withInitial(() -> new Histogram(1 << (3 * bits)));
+    }
+
+    @Override
+    public Integer apply(BufferedImage image, Integer centerX, Integer centerY, Integer diameter) {
+        return pick(image, centerX, centerY, diameter);
+    }
+
+    /**
+     * Get the most frequent (quantized) colour in given {@link BufferedImage} in the circle with center in
+     * coordinates [{@code centerX}, {@code centerY}] and with given {@code diameter}.
+     *
+     * @param image source image
+     * @param centerX x coordinate of the center of the circle
+     * @param centerY y coordinate of the center of the circle
+     * @param diameter diameter of the circle
+     * @return most frequent colour in the area of the circle
+     */
+    public int pick(BufferedImage image, int centerX, int centerY, int diameter) {
+        Histogram histogram = this.histogram.get();
+        Pixels pixels = getPixels(image, histogram);
+        int width = pixels.width;
+        int[] rgb = pixels.rgb;
+        if (diameter == 0) {
+            return rgb[centerY * width + centerX];
+        }
+        int[] counts = histogram.counts;
+        int[] representatives = histogram.representatives;
+        int[] touched = histogram.touched(4 * diameter * diameter);
+        int touchedCount = 0;
+        int bestBin = -1;
+        int bestCount = 0;
+        int shift = 8 - bits;
+        int mask = (1 << bits) - 1;
+        CircleSpans spans = CircleSpans.of(diameter);
+        int lowerBoundY = Math.max(0, centerY - diameter);
+        int upperBoundY = Math.min(pixels.height, centerY + diameter);
+        for (int j = lowerBoundY; j < upperBoundY; ++j) {
+            int row = j - (centerY - diameter);
+            int lowerBoundX = Math.max(0, centerX + spans.getStart(row));
+            int upperBoundX = Math.min(width, centerX + spans.getEnd(row));
+            int rowOffset = j * width;
+            for (int i = lowerBoundX; i < upperBoundX; ++i) {
+                int colour = rgb[rowOffset + i];
+                int bin = (((colour >> (16 + shift)) & mask) << (2 * bits)) |
+                        (((colour >> (8 + shift)) & mask) << bits) |
+                        ((colour >> shift) & mask);
+                int count = ++counts[bin];
+                if (count == 1) {
+                    representatives[bin] = colour;
+                    touched[touchedCount++] = bin;
+                }
+                if (count > bestCount) {
+                    bestCount = count;
+                    bestBin = bin;
+                }
+            }
+        }
+        if (bestBin == -1) {
+            throw new IllegalStateException("No colours found in the circle");
+        }
+        for (int i = 0; i < touchedCount; ++i) {
+            counts[touched[i]] = 0;
+        }
+        return representatives[bestBin];
+    }
+
+    /**
+     * Get the pixels of the image, shared by all threads working on the same image. The thread keeps its own
+     * reference as well, so threads compressing different images concurrently do not keep replacing the copy.
+     */
+    private Pixels getPixels(BufferedImage image, Histogram histogram) {
+        Pixels pixels = histogram.pixels;
+        if (pixels != null && pixels.image == image) {
+            return pixels;
+        }
+        pixels = this.pixels;
+        if (pixels == null || pixels.image != image) {
+            pixels = new Pixels(image);
+            this.pixels = pixels;
+        }
+        histogram.pixels = pixels;
+        return pixels;
+    }
+
+    /**
+     * Packed ARGB copy of the image.
+     */
+    private static class Pixels {
+
+        private final BufferedImage image;
+        private final int width;
+        private final int height;
+        private final int[] rgb;
+
+        Pixels(BufferedImage image) {
+            this.image = image;
+            this.width = image.getWidth();
+            this.height = image.getHeight();
+            this.rgb = image.getRGB(0, 0, width, height, null, 0, width);
+        }
+    }
+
+    /**
+     * Histogram reused between the calls. The counts are cleared after each call by resetting only the touched bins.
+     */
+    private static class Histogram {
+
+        private final int[] counts;
+        private final int[] representatives;
+        private int[] touched = new int[0];
+        // pixels of the image last used by the thread
+        private Pixels pixels;
+
+        Histogram(int bins) {
+            this.counts = new int[bins];
+            this.representatives = new int[bins];
+        }
+
+        int[] touched(int capacity) {
+            if (touched.length < capacity) {
+                touched = new int[Math.min(counts.length, Math.max(capacity, 2 * touched.length))];
+            }
+            return touched;
+        }
+    }
+}
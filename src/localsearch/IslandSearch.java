@@ -0,0 +1,240 @@
+package localsearch;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Multi-start search, which runs several independent {@link HillClimber} searches ("islands") on separate copies of
+ * the output image in parallel. Each island has its own seeded random generator, so the islands explore different
+ * placements of the circles.
+ * <p>
+ * The circles are placed in {@link #EPOCHS} epochs of equal size. After each epoch, the island with the lowest error
+ * of the output wins, and all other islands adopt its output and its circles before continuing with the next epoch,
+ * so the effort is not wasted on islands which fell behind. The output of the winner of the last epoch is copied into
+ * the engine of the compression.
+ *
+ * @author Ondřej Kratochvíl
+ */
+public class IslandSearch {
+
+    // amount of epochs, after each of which the islands adopt the best output
+    private final static int EPOCHS = 10;
+
+    private final BufferedImage inputImage;
+    private final RasterEngine engine;
+    private final CompressionQuality quality;
+    private final int retryCount;
+    private final TetraFunction<BufferedImage, Integer, Integer, Integer, Integer> colourPickingStrategy;
+    private final int islandCount;
+    private Function<RasterEngine, CandidateSampler> sampler = engine ->
+            new UniformCandidateSampler(engine.getWidth(), engine.getHeight());
+    private CompressionMetrics metrics;
+    private StopCondition stopCondition;
+    private FramePublisher publisher;
+    private double temperature;
+    private long seed = ThreadLocalRandom.current().nextLong();
+    private Circle[] initialCircles = new Circle[0];
+
+    /**
+     * @param inputImage input image
+     * @param engine raster engine the output of the best island is copied into
+     * @param quality quality of the compression
+     * @param retryCount amount of tries when placing new circles
+     * @param colourPickingStrategy strategy for choosing the colour of the new circles
+     * @param islandCount amount of independent searches
+     */
+    public IslandSearch(BufferedImage inputImage, RasterEngine engine, CompressionQuality quality, int retryCount,
+                        TetraFunction<BufferedImage, Integer, Integer, Integer, Integer> colourPickingStrategy,
+                        int islandCount) {
+        if (islandCount < 1) {
+            throw new IllegalArgumentException("Island count must be positive, got " + islandCount);
+        }
+        this.inputImage = inputImage;
+        this.engine = engine;
+        this.quality = quality;
+        this.retryCount = retryCount;
+        this.colourPickingStrategy = colourPickingStrategy;
+        this.islandCount = islandCount;
+    }
+
+    /**
+     * @param sampler creates the generator of the candidate circles for the engine of an island
+     */
+    public void setSampler(Function<RasterEngine, CandidateSampler> sampler) {
+        this.sampler = sampler;
+    }
+
+    /**
+     * @param metrics metrics the counters of all islands are added to, or {@code null}. The error is sampled after
+     *                each epoch, for the winning island only
+     */
+    public void setMetrics(CompressionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param stopCondition criteria for stopping the islands, checked on the output of each island separately, or
+     *                      {@code null}. It takes over the encoded size and the reason of stopping of the winner
+     */
+    public void setStopCondition(StopCondition stopCondition) {
+        this.stopCondition = stopCondition;
+    }
+
+    /**
+     * @param publisher publisher the output of the winner of each epoch is published to, or {@code null}
+     */
+    public void setPublisher(FramePublisher publisher) {
+        this.publisher = publisher;
+    }
+
+    /**
+     * @param temperature initial temperature of the simulated annealing of each island, 0 for the strict hill
+     *                    climbing (see {@link HillClimber#setAnnealing(double)})
+     */
+    public void setAnnealing(double temperature) {
+        this.temperature = temperature;
+    }
+
+    /**
+     * @param seed seed of the random generators of the islands, island {@code i} uses {@code seed + i}
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @param initialCircles circles all islands start with, e.g. placed by the {@link PyramidCompression}
+     */
+    public void setInitialCircles(Circle[] initialCircles) {
+        this.initialCircles = initialCircles;
+    }
+
+    /**
+     * Place given amount of circles, running the islands on {@code parallelism} threads.
+     *
+     * @param circleCount total amount of circles to be placed
+     * @param parallelism amount of threads
+     * @param runner runs the climber of an island, sequentially or batched
+     * @return circles of the best island, in the order they were drawn
+     */
+    public Circle[] search(int circleCount, int parallelism, Consumer<HillClimber> runner) {
+        List<Island> islands = new ArrayList<>(islandCount);
+        for (int i = 0; i < islandCount; ++i) {
+            RasterEngine islandEngine = new RasterEngine(inputImage);
+            islandEngine.setScoring(engine.getScoring());
+            islands.add(new Island(islandEngine, new Random(seed + i), initialCircles));
+        }
+        FramePublisher.Channel channel = publisher != null ? publisher.openChannel() : null;
+        Island best = islands.get(0);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(islandCount, parallelism));
+        try {
+            for (int epoch = 1; epoch <= EPOCHS; ++epoch) {
+                int circleLimit = (int) ((long) circleCount * epoch / EPOCHS);
+                List<Callable<Void>> tasks = new ArrayList<>(islandCount);
+                for (Island island : islands) {
+                    tasks.add(() -> {
+                        island.run(circleCount, circleLimit, runner);
+                        return null;
+                    });
+                }
+                for (Future<Void> future : executor.invokeAll(tasks)) {
+                    future.get();
+                }
+                best = islands.get(0);
+                for (Island island : islands) {
+                    if (island.engine.getError() < best.engine.getError()) {
+                        best = island;
+                    }
+                }
+                engine.copyFrom(best.engine);
+                if (channel != null) {
+                    channel.publish(0, 0, engine.getWidth(), engine.getHeight());
+                }
+                if (metrics != null) {
+                    metrics.recordError(HillClimber.getPhase(best.circles.length / (double) circleCount * 100),
+                            best.circles.length, best.engine.getError());
+                }
+                if (best.stopCondition != null && best.stopCondition.getReason() != null) {
+                    break;
+                }
+                for (Island island : islands) {
+                    if (island != best) {
+                        island.adopt(best);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Island search was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Search of an island failed", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        if (stopCondition != null && best.stopCondition != null) {
+            stopCondition.adopt(best.stopCondition);
+        }
+        return best.circles;
+    }
+
+    /**
+     * State of an independent search, kept between the epochs.
+     */
+    private class Island {
+
+        private final RasterEngine engine;
+        private final Random random;
+        private Circle[] circles;
+        // whether the circles are already drawn into the output
+        private boolean drawn;
+        private StopCondition stopCondition;
+
+        private Island(RasterEngine engine, Random random, Circle[] circles) {
+            this.engine = engine;
+            this.random = random;
+            this.circles = circles;
+        }
+
+        /**
+         * Continue placing the circles until the limit is reached.
+         */
+        private void run(int circleCount, int circleLimit, Consumer<HillClimber> runner) {
+            HillClimber climber = new HillClimber(inputImage, engine, quality, retryCount, colourPickingStrategy,
+                    sampler.apply(engine), circleCount);
+            climber.setInitialCircles(circles, drawn);
+            climber.setCircleLimit(circleLimit);
+            climber.setRandom(random);
+            climber.setAnnealing(temperature);
+            CompressionMetrics islandMetrics = metrics != null ? new CompressionMetrics() : null;
+            climber.setMetrics(islandMetrics);
+            stopCondition = IslandSearch.this.stopCondition != null ?
+                    IslandSearch.this.stopCondition.forEngine(engine) : null;
+            climber.setStopCondition(stopCondition);
+            runner.accept(climber);
+            circles = climber.getCircles();
+            drawn = true;
+            if (metrics != null) {
+                metrics.addCounters(islandMetrics);
+            }
+        }
+
+        /**
+         * Replace the output and the circles by those of another island.
+         */
+        private void adopt(Island other) {
+            engine.copyFrom(other.engine);
+            circles = other.circles;
+            drawn = true;
+        }
+    }
+}
@@ -2,18 +2,38 @@ package localsearch;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.concurrent.ThreadLocalRandom;
-
-import static localsearch.GraphicHelper.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Usage: provide input and output file name as a command line parameters. The data file, describing the circles as
- * specified in {@link LocalSearch#createOutputFile(String)} JavaDoc will be placed into the same folder as output
- * image with the name {@link LocalSearch#OUTPUT_FILE_NAME}.
+ * specified in {@link CompressionResult#writeText(File)} JavaDoc will be placed into the same folder as output
+ * image with the name {@link LocalSearch#OUTPUT_FILE_NAME}. With {@link LocalSearch#BINARY_OUTPUT}, the compact
+ * binary format described in {@link CircleFileWriter} is written instead, with the name
+ * {@link LocalSearch#BINARY_OUTPUT_FILE_NAME}.
+ * <p>
+ * Batch usage: {@code --batch <input directory> <output directory> [threads]} compresses all images of the input
+ * directory in a single JVM, {@code threads} images at a time (defaults to the amount of processors). For each
+ * image, {@code <name>.jpg} and the data file {@code <name>.txt} (or {@code <name>.bin}) are written into the output
+ * directory. Visualization is disabled and each image is compressed on a single thread.
+ * <p>
+ * Usage for images too large for the heap: {@code --out-of-core <input file> <output file>} compresses the image
+ * tile by tile through off-heap stores, see {@link OutOfCoreCompression}. The output image has to be a TIFF, the
+ * data file {@link LocalSearch#BINARY_OUTPUT_FILE_NAME} is always written in the binary format. Visualization and
+ * the options not supported by the tiled compression are disabled.
+ * <p>
+ * Service usage: {@code --serve <port> [workers]} starts the HTTP service described in {@link CompressionService},
+ * which compresses uploaded images on {@code workers} threads (defaults to the amount of processors).
+ * <p>
+ * The compression itself can be embedded through {@link Compressor}, configured by {@link CompressorConfig}.
  *
  * Additional configuration can be done by altering the following static variables:
  * <ul>
@@ -36,13 +56,89 @@ import static localsearch.GraphicHelper.*;
  *                 colour (see <a href="https://github.com/SvenWoltmann/color-thief-java">Color Thief</a> library)
  *             </li>
  *             <li>
- *                 Any other custom implementation
+ *                 {@link PaletteColourPicker} for choosing the dominant colour from a palette extracted by Color
+ *                 Thief once per image (or tile), fast enough for {@link CompressionQuality#HIGH}
+ *             </li>
+ *             <li>
+ *                 {@link HistogramColourPicker} for choosing the most frequent colour in the circle, counted into a
+ *                 reusable histogram quantized to given amount of bits per channel, without allocating per call
+ *             </li>
+ *             <li>
+ *                 {@link OptimalColourPicker} for computing the colour minimizing the error of each channel after
+ *                 mixing with the current output, using per-channel prefix sums of the input and the output
+ *             </li>
+ *             <li>
+ *                 Any other custom implementation, possibly keeping state derived from the output image by
+ *                 implementing {@link StatefulColourStrategy}
  *             </li>
  *         </ul>
  *     </li>
  *     <li>
- *         {@link LocalSearch#VISUALIZATION} set to {@code true} if you want to watch the steps of the algorithm.
- *         Might take a long time on large images on high quality.
+ *         {@link LocalSearch#SCORING} for choosing how the candidate circles are scored: by the absolute or squared
+ *         error of each colour channel, or by the difference of the packed colours of the original algorithm. The
+ *         per-channel scorings run on the Vector API when built with the {@code vector} profile
+ *     </li>
+ *     <li>
+ *         {@link LocalSearch#SEED} for making the compression reproducible, by seeding all its random generators
+ *     </li>
+ *     <li>
+ *         {@link LocalSearch#CANDIDATE_BATCH_SIZE} for generating multiple candidate circles in each step and
+ *         evaluating them concurrently on {@link LocalSearch#PARALLELISM} threads. With
+ *         {@link LocalSearch#ACCEPT_MULTIPLE_CANDIDATES}, all non-overlapping improving candidates of the batch are
+ *         placed, otherwise only the best one
+ *     </li>
+ *     <li>
+ *         {@link LocalSearch#TILE_SIZE} for splitting large images into tiles, which are compressed in parallel on
+ *         {@link LocalSearch#PARALLELISM} threads. The circles are divided between the tiles according to
+ *         {@link LocalSearch#TILE_BUDGET}
+ *     </li>
+ *     <li>
+ *         {@link LocalSearch#RESIDUAL_SAMPLING} for generating the candidate circles preferably in the areas with
+ *         a large error of the output, instead of uniformly. Not supported with {@link LocalSearch#TILE_SIZE}
+ *     </li>
+ *     <li>
+ *         {@link LocalSearch#PYRAMID_FACTOR} for placing the large circles of the first three quarters of the run into
+ *         a copy of the image downsampled by given factor, which is much faster. Not supported with
+ *         {@link LocalSearch#TILE_SIZE}
+ *     </li>
+ *     <li>
+ *         {@link LocalSearch#REFINEMENT_ITERATIONS} for improving the placed circles afterwards, by trying given
+ *         amount of random moves, resizes, recolourings and deletions
+ *     </li>
+ *     <li>
+ *         {@link LocalSearch#ISLANDS} for running given amount of independent searches in parallel, which adopt the
+ *         best output after each tenth of the circles. Not supported with {@link LocalSearch#TILE_SIZE} and
+ *         {@link LocalSearch#CHECKPOINT_INTERVAL}
+ *     </li>
+ *     <li>
+ *         {@link LocalSearch#ANNEALING_TEMPERATURE} for occasionally accepting candidates which make the output
+ *         worse, less and less often as the run goes on. Not supported with {@link LocalSearch#TILE_SIZE} and
+ *         {@link LocalSearch#CANDIDATE_BATCH_SIZE}
+ *     </li>
+ *     <li>
+ *         {@link LocalSearch#DEADLINE}, {@link LocalSearch#TARGET_PSNR} and {@link LocalSearch#MAX_ENCODED_SIZE} for
+ *         stopping the compression before all circles are placed, when the time runs out, the output is good enough
+ *         or the binary data file would exceed given size
+ *     </li>
+ *     <li>
+ *         {@link LocalSearch#CHECKPOINT_INTERVAL} for periodically saving the placed circles into
+ *         {@link LocalSearch#CHECKPOINT_FILE_NAME} in the folder of the output image. A compression interrupted by
+ *         killing the program is resumed from the checkpoint, when started again with the same output. Not
+ *         supported with {@link LocalSearch#TILE_SIZE}
+ *     </li>
+ *     <li>
+ *         {@link LocalSearch#INDEX_CELL_SIZE} for the grid of the spatial index written next to the binary data
+ *         file, which lets {@link Decoder} render a region of the image without reading all circles, see
+ *         {@link CircleIndex}
+ *     </li>
+ *     <li>
+ *         {@link LocalSearch#VISUALIZATION} set to {@code true} if you want to watch the steps of the algorithm. The
+ *         window is refreshed at most {@link LocalSearch#VISUALIZATION_FPS} times per second, without slowing the
+ *         algorithm down
+ *     </li>
+ *     <li>
+ *         {@link LocalSearch#PREVIEW_INTERVAL} for writing the progress into numbered PNG previews in the folder of
+ *         the output image instead of opening a window, e.g. on a headless machine
  *     </li>
  * </ul>
  */
@@ -52,17 +148,79 @@ public class LocalSearch {
     private final static int CIRCLE_PLACEMENT_RETRY_COUNT = 50;
     private final static TetraFunction<BufferedImage, Integer, Integer, Integer, Integer> COLOUR_PICKING_STRATEGY =
             GraphicHelper::getMajorityColour;
+    // 1 disables the batched evaluation
+    private final static int CANDIDATE_BATCH_SIZE = 1;
+    private final static int PARALLELISM = Runtime.getRuntime().availableProcessors();
+    private final static boolean ACCEPT_MULTIPLE_CANDIDATES = true;
+    // 0 disables the tiled compression
+    private final static int TILE_SIZE = 0;
+    private final static TiledCompression.Budget TILE_BUDGET = TiledCompression.Budget.RESIDUAL_ERROR;
+    private final static boolean RESIDUAL_SAMPLING = false;
+    // 1 disables the coarse-to-fine search
+    private final static int PYRAMID_FACTOR = 1;
+    // 0 disables the refinement
+    private final static int REFINEMENT_ITERATIONS = 0;
+    // 1 disables the island search
+    private final static int ISLANDS = 1;
+    // error per pixel, 0 disables the simulated annealing
+    private final static double ANNEALING_TEMPERATURE = 0;
+    private final static RasterEngine.Scoring SCORING = RasterEngine.Scoring.ABSOLUTE;
+    // null disables the seeding
+    private final static Long SEED = null;
+    // milliseconds, 0 disables the deadline
+    private final static long DEADLINE = 0;
+    // dB, 0 disables the target
+    private final static double TARGET_PSNR = 0;
+    // bytes of the binary data file, 0 disables the limit
+    private final static long MAX_ENCODED_SIZE = 0;
+    // milliseconds, 0 disables the checkpoints
+    private final static long CHECKPOINT_INTERVAL = 0;
+    private final static String CHECKPOINT_FILE_NAME = "checkpoint.bin";
     private final static String OUTPUT_FILE_NAME = "data.txt";
+    private final static String BINARY_OUTPUT_FILE_NAME = "data.bin";
+    private final static boolean BINARY_OUTPUT = false;
+    // pixels, 0 disables the spatial index of the binary data file
+    private final static int INDEX_CELL_SIZE = CircleIndex.DEFAULT_CELL_SIZE;
     private final static boolean VISUALIZATION = true;
-    private static Gui gui;
-    private static int circleCount;
-    private static int width;
-    private static int height;
-    private static int maxDiameter;
-    // array containing information about the rendered circles. Can be used for vector reconstruction of the image.
-    private static Circle[] circles;
+    private final static int VISUALIZATION_FPS = 30;
+    // milliseconds between the headless previews, 0 disables them
+    private final static long PREVIEW_INTERVAL = 0;
+    private final static String BATCH_OPTION = "--batch";
+    private final static String OUT_OF_CORE_OPTION = "--out-of-core";
+    private final static String SERVE_OPTION = "--serve";
+    // jobs of the service waiting for a worker
+    private final static int SERVICE_QUEUE_SIZE = 64;
 
     public static void main(String[] args) throws IOException {
+        if (args.length > 0 && BATCH_OPTION.equals(args[0])) {
+            if (args.length < 3 || args.length > 4) {
+                System.err.println("Please specify input and output directories and optionally amount of threads");
+                System.exit(1);
+            }
+            int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+            int failed = compressDirectory(new File(args[1]), new File(args[2]), threads);
+            System.exit(failed > 0 ? 1 : 0);
+        }
+        if (args.length > 0 && OUT_OF_CORE_OPTION.equals(args[0])) {
+            if (args.length != 3) {
+                System.err.println("Please specify input and output file names");
+                System.exit(1);
+            }
+            compressOutOfCore(new File(args[1]), new File(args[2]));
+            return;
+        }
+        if (args.length > 0 && SERVE_OPTION.equals(args[0])) {
+            if (args.length < 2 || args.length > 3) {
+                System.err.println("Please specify the port and optionally amount of workers");
+                System.exit(1);
+            }
+            int workers = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+            // the jobs run concurrently, so a single one should not spawn further threads
+            CompressionService service = new CompressionService(createConfig().parallelism(1).build(), workers,
+                    SERVICE_QUEUE_SIZE);
+            System.out.println("Listening on port " + service.start(Integer.parseInt(args[1])));
+            return;
+        }
         if (args.length != 2) {
             System.err.println("Please specify input and output file names");
             System.exit(1);
@@ -71,172 +229,191 @@ public class LocalSearch {
         String inputFileName = args[0];
         String outputFileName = args[1];
         BufferedImage inputImage = ImageIO.read(new File(inputFileName));
-        width = inputImage.getWidth();
-        height = inputImage.getHeight();
-        circleCount = (width * height) / COMPRESSION_QUALITY.getFactor();
-        circles = new Circle[circleCount];
+        int width = inputImage.getWidth();
+        int height = inputImage.getHeight();
 
         // do the magics
+        FrameRenderer renderer = null;
+        if (PREVIEW_INTERVAL > 0) {
+            renderer = new PreviewWriter(new File(outputFileName).getAbsoluteFile().getParentFile(),
+                    PREVIEW_INTERVAL);
+        } else if (VISUALIZATION) {
+            renderer = new Gui(VISUALIZATION_FPS);
+        }
         long startTime = System.currentTimeMillis();
-        BufferedImage outputImage = compress(inputImage);
-        System.out.println(String.format("Compression time: %d ms, quality: %s",
-                (System.currentTimeMillis() - startTime), COMPRESSION_QUALITY.name()));
-        if (VISUALIZATION) {
-            gui.finish();
+        File checkpointFile = CHECKPOINT_INTERVAL > 0 ?
+                new File(new File(outputFileName).getAbsoluteFile().getParentFile(), CHECKPOINT_FILE_NAME) : null;
+        CompressionResult result = new Compressor(createConfig().build())
+                .compress(inputImage, renderer, checkpointFile);
+        System.out.println(String.format("Compression time: %d ms, quality: %s, circles: %d, stopped by: %s",
+                (System.currentTimeMillis() - startTime), COMPRESSION_QUALITY.name(), result.getCircles().length,
+                result.getStopReason()));
+        System.out.println(result.getMetrics());
+        if (renderer != null) {
+            renderer.finish();
         }
 
         // write the magics
-        ImageIO.write(outputImage, "jpeg", new File(outputFileName));
-        createOutputFile(outputFileName);
-    }
-
-    public static BufferedImage compress(BufferedImage inputImage) {
-        // create a black copy of the input image
-        BufferedImage outputImage = new BufferedImage(width, height, inputImage.getType());
-
-        // start gui
-        if (VISUALIZATION) {
-            gui = new Gui();
-            gui.start(width, height, outputImage);
+        ImageIO.write(result.getImage(), "jpeg", new File(outputFileName));
+        File directory = new File(outputFileName).getAbsoluteFile().getParentFile();
+        File dataFile = new File(directory, BINARY_OUTPUT ? BINARY_OUTPUT_FILE_NAME : OUTPUT_FILE_NAME);
+        try {
+            writeCircles(result, dataFile);
+        } catch (IOException e) {
+            e.printStackTrace();
         }
+        System.out.println(String.format("Output size: image %d B, circles %d B (%.2f bits per pixel)",
+                new File(outputFileName).length(), dataFile.length(), dataFile.length() * 8.0 / (width * height)));
+    }
 
-        // initialize the circles
-        int circleCount = 0;
-        int retries = 0;
-        while (circleCount < LocalSearch.circleCount) {
-            updateBoundaries(circleCount);
-            ThreadLocalRandom random = ThreadLocalRandom.current();
-            int centerX = random.nextInt(width);
-            int centerY = random.nextInt(height);
-            int diameter = random.nextInt(maxDiameter);
-            int majorityColour = COLOUR_PICKING_STRATEGY.apply(inputImage, centerX, centerY, diameter);
-            Circle circle = new Circle(centerX, centerY, diameter, majorityColour);
-            // TODO what to do when retry count is reached?
-            if (calculateFitnessChange(inputImage, outputImage, circle) > 0 ||
-                    retries > CIRCLE_PLACEMENT_RETRY_COUNT) {
-                if (retries > CIRCLE_PLACEMENT_RETRY_COUNT) {
-                    System.out.println("Retry count reached. Circles placed: " + circleCount);
-                }
-                circles[circleCount++] = drawCircle(inputImage, outputImage, circle);
-                retries = 0;
-                if (VISUALIZATION) {
-                    gui.update();
-                    try {
-                        Thread.sleep(1);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                }
-            } else {
-                ++retries;
-                continue;
-            }
+    /**
+     * @return builder initialized with the static configuration
+     */
+    private static CompressorConfig.Builder createConfig() {
+        CompressorConfig.Builder builder = CompressorConfig.builder()
+                .quality(COMPRESSION_QUALITY)
+                .retryCount(CIRCLE_PLACEMENT_RETRY_COUNT)
+                .colourPickingStrategy(COLOUR_PICKING_STRATEGY)
+                .candidateBatchSize(CANDIDATE_BATCH_SIZE)
+                .parallelism(PARALLELISM)
+                .acceptMultipleCandidates(ACCEPT_MULTIPLE_CANDIDATES)
+                .tileSize(TILE_SIZE)
+                .tileBudget(TILE_BUDGET)
+                .residualSampling(RESIDUAL_SAMPLING)
+                .pyramidFactor(PYRAMID_FACTOR)
+                .refinementIterations(REFINEMENT_ITERATIONS)
+                .islands(ISLANDS)
+                .annealingTemperature(ANNEALING_TEMPERATURE)
+                .scoring(SCORING)
+                .deadline(DEADLINE)
+                .targetPsnr(TARGET_PSNR)
+                .maxEncodedSize(MAX_ENCODED_SIZE)
+                .checkpointInterval(Math.max(1, CHECKPOINT_INTERVAL));
+        if (SEED != null) {
+            builder.seed(SEED);
         }
-
-        return outputImage;
+        return builder;
     }
 
     /**
-     * Used for non-linear distribution of the diameter of the circles. In the early stages of the algorithm, we
-     * want to generate large circles, whereas in the later stages, we want only small ones.
+     * Compress all images of the input directory on a pool of {@code threads} workers. A failure of an image is
+     * reported and does not stop the others.
      *
-     * @param iteration current iteration of the hill climbing algorithm
+     * @param inputDirectory directory with the images to be compressed
+     * @param outputDirectory directory for the output images and data files, created if it does not exist
+     * @param threads amount of images compressed concurrently
+     * @return amount of images, which failed to compress
      */
-    private static void updateBoundaries(int iteration) {
-        double percentageDone = (iteration / (double) circleCount) * 100;
-        int minDimension = Math.min(width, height);
-        if (percentageDone < 25) {
-            maxDiameter = (int) ((minDimension / (16 * (minDimension / 100))) * COMPRESSION_QUALITY.getDiameterFactor());
-        } else if (percentageDone > 75) {
-            maxDiameter = (int) ((minDimension / (48 * (minDimension / 100))) * COMPRESSION_QUALITY.getDiameterFactor());
-        } else {
-            maxDiameter = (int) ((minDimension / (28 * (minDimension / 100))) * COMPRESSION_QUALITY.getDiameterFactor());
+    private static int compressDirectory(File inputDirectory, File outputDirectory, int threads) throws IOException {
+        File[] files = inputDirectory.listFiles(File::isFile);
+        if (files == null) {
+            throw new IOException("Not a directory: " + inputDirectory);
         }
-    }
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            throw new IOException("Cannot create directory: " + outputDirectory);
+        }
+        Arrays.sort(files);
+        // the images are compressed concurrently, so a single one should not spawn further threads
+        Compressor compressor = new Compressor(createConfig().parallelism(1).build());
+        long startTime = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        CompletionService<String> completionService = new ExecutorCompletionService<>(executor);
+        List<File> images = new ArrayList<>();
+        for (File file : files) {
+            if (ImageIO.getImageReadersBySuffix(getExtension(file.getName())).hasNext()) {
+                images.add(file);
+                completionService.submit(() -> compressFile(compressor, file, outputDirectory));
+            }
+        }
+        executor.shutdown();
 
-    private static Circle drawCircle(BufferedImage inputImage, BufferedImage outputImage, Circle circle) {
-        int lowerBoundX = Math.max(0, circle.getX() - circle.getDiameter());
-        int upperBoundX = Math.min(width, circle.getX() + circle.getDiameter());
-        int lowerBoundY = Math.max(0, circle.getY() - circle.getDiameter());
-        int upperBoundY = Math.min(height, circle.getY() + circle.getDiameter());
-        for (int i = lowerBoundX; i < upperBoundX; ++i) {
-            for (int j = lowerBoundY; j < upperBoundY; ++j) {
-                // is the pixel within the circle?
-                if (dist(i, j, circle.getX(), circle.getY()) > circle.getDiameter()) {
-                    continue;
-                }
-                int newColour = mixColour(outputImage.getRGB(i, j), circle.getColour());
-                outputImage.setRGB(i, j, newColour);
+        int failed = 0;
+        for (int i = 0; i < images.size(); ++i) {
+            try {
+                System.out.println(String.format("[%d/%d] %s", i + 1, images.size(),
+                        completionService.take().get()));
+            } catch (ExecutionException e) {
+                ++failed;
+                System.err.println(String.format("[%d/%d] Compression failed: %s", i + 1, images.size(),
+                        e.getCause()));
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+                throw new IOException("Batch compression was interrupted", e);
             }
         }
-        return circle;
+        System.out.println(String.format("Batch time: %d ms, images: %d, failed: %d",
+                (System.currentTimeMillis() - startTime), images.size(), failed));
+        return failed;
     }
 
-    private static long calculateFitnessChange(BufferedImage inputImage, BufferedImage outputImage, Circle circle) {
-        long oldFitness = 0;
-        long newFitness = 0;
-        int lowerBoundX = Math.max(0, circle.getX() - circle.getDiameter());
-        int upperBoundX = Math.min(width, circle.getX() + circle.getDiameter());
-        int lowerBoundY = Math.max(0, circle.getY() - circle.getDiameter());
-        int upperBoundY = Math.min(height, circle.getY() + circle.getDiameter());
-        for (int i = lowerBoundX; i < upperBoundX; ++i) {
-            for (int j = lowerBoundY; j < upperBoundY; ++j) {
-                // TODO scale the difference?
-                int inputRGB = inputImage.getRGB(i, j) & 0x00ffffff;
-                assert (inputRGB & 0xff000000) >>> 24 == 0xff;
-                int outputRGB = outputImage.getRGB(i, j) & 0x00ffffff;
-                assert (outputRGB & 0xff000000) >>> 24 == 0xff;
-                oldFitness += Math.abs(inputRGB - outputRGB);
-                assert oldFitness >= 0;
-
-                int newOutputRGB = mixColour(outputRGB, circle.getColour());
-                assert (newOutputRGB & 0xff000000) >>> 24 == 0xff;
-                newFitness += Math.abs(inputRGB - newOutputRGB);
-                assert newFitness >= 0;
-            }
+    /**
+     * Compress an image, which does not fit into the heap.
+     *
+     * @param inputFile input image
+     * @param outputFile output image, in a format which can be written tile by tile
+     */
+    private static void compressOutOfCore(File inputFile, File outputFile) throws IOException {
+        OutOfCoreCompression compression = new OutOfCoreCompression(createConfig().build());
+        CompressionMetrics metrics = new CompressionMetrics();
+        compression.setMetrics(metrics);
+        File dataFile = new File(outputFile.getAbsoluteFile().getParentFile(), BINARY_OUTPUT_FILE_NAME);
+        long startTime = System.currentTimeMillis();
+        long circles = compression.compress(inputFile, outputFile, dataFile);
+        System.out.println(String.format("Compression time: %d ms, quality: %s, circles: %d",
+                (System.currentTimeMillis() - startTime), COMPRESSION_QUALITY.name(), circles));
+        System.out.println(metrics);
+        System.out.println(String.format("Output size: image %d B, circles %d B", outputFile.length(),
+                dataFile.length()));
+        if (INDEX_CELL_SIZE > 0) {
+            CircleIndex.write(dataFile, CircleIndex.getIndexFile(dataFile), INDEX_CELL_SIZE);
         }
-        return newFitness - oldFitness;
     }
 
     /**
-     * Output file format:
-     * {width} {height}
-     * {amount of circles}
-     * {background colour (RGB}
+     * Compress a single image of the batch.
      *
-     * [for each circle]
-     * {XcoordOfCenter},{YcoordOfCenter},{diameter},{red} {green} {blue} {alpha}
+     * @return summary of the compression
+     */
+    private static String compressFile(Compressor compressor, File inputFile, File outputDirectory)
+            throws IOException {
+        BufferedImage inputImage = ImageIO.read(inputFile);
+        if (inputImage == null) {
+            throw new IOException("Unsupported image: " + inputFile);
+        }
+        String name = inputFile.getName();
+        String baseName = name.substring(0, name.lastIndexOf('.'));
+        long startTime = System.currentTimeMillis();
+        File checkpointFile = CHECKPOINT_INTERVAL > 0 ? new File(outputDirectory, baseName + ".checkpoint") : null;
+        CompressionResult result = compressor.compress(inputImage, null, checkpointFile);
+        long time = System.currentTimeMillis() - startTime;
+        File outputFile = new File(outputDirectory, baseName + ".jpg");
+        ImageIO.write(result.getImage(), "jpeg", outputFile);
+        File dataFile = new File(outputDirectory, baseName + (BINARY_OUTPUT ? ".bin" : ".txt"));
+        long dataSize = writeCircles(result, dataFile);
+        return String.format("%s: %d ms, image %d B, circles %d B, retries exhausted %d", name, time,
+                outputFile.length(), dataSize,
+                result.getMetrics().get(CompressionMetrics.Counter.RETRIES_EXHAUSTED));
+    }
+
+    /**
+     * Write the data file, in the binary format with {@link LocalSearch#BINARY_OUTPUT}, otherwise in the text
+     * format. The binary data file is accompanied by its spatial index, see {@link CircleIndex}.
      *
-     * @param imageOutputFileName name of the image output file
+     * @return size of the data file in bytes
      */
-    private static void createOutputFile(String imageOutputFileName) {
-        String fileName = imageOutputFileName.substring(0, imageOutputFileName.lastIndexOf('/')) + "/" +
-                OUTPUT_FILE_NAME;
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileName))) {
-            writer.write(width + " " + height); // width height
-            writer.newLine();
-            writer.write(Integer.toString(circles.length));   // amount of circles
-            writer.newLine();
-            writer.write("0 0 0");  // background colour
-            writer.newLine();
-            writer.newLine();
-            for (Circle circle : circles) {
-                // for each circle write its attributes (order of circles is reflected)
-                // XcoordOfCenter,YcoordOfCenter,diameter,R G B A
-                writer.write(String.format("%d,%d,%d,%s",
-                        circle.getX(),
-                        circle.getY(),
-                        circle.getDiameter(),
-                        String.format("%d %d %d %d",
-                                getRed(circle.getColour()),
-                                getGreen(circle.getColour()),
-                                getBlue(circle.getColour()),
-                                getAlpha(circle.getColour())
-                                )));
-                writer.newLine();
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+    private static long writeCircles(CompressionResult result, File dataFile) throws IOException {
+        if (!BINARY_OUTPUT) {
+            return result.writeText(dataFile);
+        }
+        long size = result.writeBinary(dataFile);
+        if (INDEX_CELL_SIZE > 0) {
+            CircleIndex.write(dataFile, CircleIndex.getIndexFile(dataFile), INDEX_CELL_SIZE);
         }
+        return size;
+    }
+
+    private static String getExtension(String fileName) {
+        return fileName.contains(".") ? fileName.substring(fileName.lastIndexOf('.') + 1) : "";
     }
 }
@@ -0,0 +1,162 @@
+package localsearch;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Off-heap store of packed ARGB pixels of an image, which does not have to fit into the heap. The pixels are kept in
+ * a temporary file, divided into square tiles of {@code tileSize} pixels stored one after another, so that a tile is
+ * a contiguous part of the file. Tiles are memory-mapped when accessed. The mappings of the most recently used tiles
+ * are kept, so that the working set of hot tiles stays resident, while the operating system is free to page out the
+ * rest. The file is created sparse, so pixels never written read as 0.
+ * <p>
+ * All methods are synchronized, so regions may be read and written from multiple threads.
+ *
+ * @author Ondřej Kratochvíl
+ */
+public class MappedRaster implements Closeable {
+
+    private final int width;
+    private final int height;
+    private final int tileSize;
+    private final int columns;
+    private final Path file;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+    // mapped tiles by their index, in the order of their last access
+    private final Map<Integer, IntBuffer> residentTiles;
+
+    /**
+     * Create the store, with all pixels set to 0.
+     *
+     * @param width width of the image
+     * @param height height of the image
+     * @param tileSize side of the tiles in pixels
+     * @param maxResidentTiles amount of tiles, whose mappings are kept
+     * @throws IOException if the temporary file cannot be created
+     */
+    public MappedRaster(int width, int height, int tileSize, int maxResidentTiles) throws IOException {
+        if (tileSize < 1 || maxResidentTiles < 1) {
+            throw new IllegalArgumentException("Tile size and resident tiles must be positive, got " + tileSize +
+                    " and " + maxResidentTiles);
+        }
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.columns = (width + tileSize - 1) / tileSize;
+        int rows = (height + tileSize - 1) / tileSize;
+        this.file = Files.createTempFile("raster", ".bin");
+        this.randomAccessFile = new RandomAccessFile(file.toFile(), "rw");
+        this.channel = randomAccessFile.getChannel();
+        randomAccessFile.setLength((long) columns * rows * tileSize * tileSize * Integer.BYTES);
+        this.residentTiles = new LinkedHashMap<Integer, IntBuffer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, IntBuffer> eldest) {
+                return size() > maxResidentTiles;
+            }
+        };
+    }
+
+    /**
+     * Read the pixels of a region.
+     *
+     * @param x left border of the region
+     * @param y top border of the region
+     * @param regionWidth width of the region
+     * @param regionHeight height of the region
+     * @param pixels target array of at least {@code regionWidth * regionHeight} pixels, row-major
+     * @throws IOException if a tile cannot be mapped
+     */
+    public synchronized void read(int x, int y, int regionWidth, int regionHeight, int[] pixels) throws IOException {
+        transfer(x, y, regionWidth, regionHeight, pixels, false);
+    }
+
+    /**
+     * Write the pixels of a region.
+     *
+     * @param x left border of the region
+     * @param y top border of the region
+     * @param regionWidth width of the region
+     * @param regionHeight height of the region
+     * @param pixels source array of at least {@code regionWidth * regionHeight} pixels, row-major
+     * @throws IOException if a tile cannot be mapped
+     */
+    public synchronized void write(int x, int y, int regionWidth, int regionHeight, int[] pixels) throws IOException {
+        transfer(x, y, regionWidth, regionHeight, pixels, true);
+    }
+
+    /**
+     * Copy the pixels between the array and the tiles intersecting the region, one row of a tile at a time.
+     */
+    private void transfer(int x, int y, int regionWidth, int regionHeight, int[] pixels, boolean write)
+            throws IOException {
+        if (x < 0 || y < 0 || x + regionWidth > width || y + regionHeight > height) {
+            throw new IllegalArgumentException("Region " + regionWidth + "x" + regionHeight + " at " + x + "," + y +
+                    " is outside of the " + width + "x" + height + " image");
+        }
+        for (int tileY = y / tileSize; tileY * tileSize < y + regionHeight; ++tileY) {
+            for (int tileX = x / tileSize; tileX * tileSize < x + regionWidth; ++tileX) {
+                IntBuffer tile = getTile(tileY * columns + tileX);
+                int lowerX = Math.max(x, tileX * tileSize);
+                int upperX = Math.min(x + regionWidth, (tileX + 1) * tileSize);
+                int lowerY = Math.max(y, tileY * tileSize);
+                int upperY = Math.min(y + regionHeight, (tileY + 1) * tileSize);
+                for (int j = lowerY; j < upperY; ++j) {
+                    tile.position((j - tileY * tileSize) * tileSize + lowerX - tileX * tileSize);
+                    int offset = (j - y) * regionWidth + lowerX - x;
+                    if (write) {
+                        tile.put(pixels, offset, upperX - lowerX);
+                    } else {
+                        tile.get(pixels, offset, upperX - lowerX);
+                    }
+                }
+            }
+        }
+    }
+
+    private IntBuffer getTile(int tile) throws IOException {
+        IntBuffer buffer = residentTiles.get(tile);
+        if (buffer == null) {
+            long tileBytes = (long) tileSize * tileSize * Integer.BYTES;
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, tile * tileBytes, tileBytes)
+                    .order(ByteOrder.nativeOrder()).asIntBuffer();
+            residentTiles.put(tile, buffer);
+        }
+        return buffer;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * Release the tiles and delete the temporary file.
+     *
+     * @throws IOException if the file cannot be closed or deleted
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        residentTiles.clear();
+        try {
+            randomAccessFile.close();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package localsearch;
+
+import java.awt.image.BufferedImage;
+
+import static localsearch.GraphicHelper.getBlue;
+import static localsearch.GraphicHelper.getGreen;
+import static localsearch.GraphicHelper.getRed;
+
+/**
+ * Colour picking strategy computing the optimal colour of the circle analytically. Since
+ * {@link GraphicHelper#mixColour(int, int)} averages the current output with the colour of the circle, the colour
+ * minimizing the squared error of each channel over the covered area is {@code 2 * mean(input) - mean(output)}.
+ * <p>
+ * The sums are computed from per-channel row prefix sums (one-dimensional summed-area tables) of the input and of
+ * the current output, so a query costs O(circle rows). The output tables are split into chunks of
+ * {@link #CHUNK_SIZE} pixels, so the update after each drawn circle only recomputes the chunks it touches and shifts
+ * the bases of the following chunks. The tables take 24 bytes per pixel of the bound region.
+ *
+ * @author Ondřej Kratochvíl
+ */
+public class OptimalColourPicker implements StatefulColourStrategy {
+
+    private final static int CHUNK_SIZE = 64;
+    private final static int CHANNELS = 3;
+
+    private final RasterEngine engine;
+    private final int lowerBoundX;
+    private final int lowerBoundY;
+    private final int width;
+    private final int height;
+    private final int chunksPerRow;
+    // inclusive row prefix sums of the input, per channel, indexed by local y * width + local x
+    private final int[][] inputSums;
+    // inclusive prefix sums of the output within a chunk of the row
+    private final int[][] outputChunkSums;
+    // sums of the output in the chunks preceding the chunk in the row, indexed by local y * chunksPerRow + chunk
+    private final int[][] outputChunkBases;
+
+    /**
+     * Create an unbound prototype of the strategy, to be used as {@link LocalSearch#COLOUR_PICKING_STRATEGY}.
+     */
+    public OptimalColourPicker() {
+        this.engine = null;
+        this.lowerBoundX = 0;
+        this.lowerBoundY = 0;
+        this.width = 0;
+        this.height = 0;
+        this.chunksPerRow = 0;
+        this.inputSums = null;
+        this.outputChunkSums = null;
+        this.outputChunkBases = null;
+    }
+
+    private OptimalColourPicker(RasterEngine engine, int lowerBoundX, int lowerBoundY, int upperBoundX,
+                                int upperBoundY) {
+        this.engine = engine;
+        this.lowerBoundX = lowerBoundX;
+        this.lowerBoundY = lowerBoundY;
+        this.width = upperBoundX - lowerBoundX;
+        this.height = upperBoundY - lowerBoundY;
+        this.chunksPerRow = (width + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        this.inputSums = new int[CHANNELS][width * height];
+        this.outputChunkSums = new int[CHANNELS][width * height];
+        this.outputChunkBases = new int[CHANNELS][chunksPerRow * height];
+        int[] input = engine.getInput();
+        for (int y = 0; y < height; ++y) {
+            int sourceOffset = (lowerBoundY + y) * engine.getWidth() + lowerBoundX;
+            int[] sums = new int[CHANNELS];
+            for (int x = 0; x < width; ++x) {
+                int colour = input[sourceOffset + x];
+                sums[0] += getRed(colour);
+                sums[1] += getGreen(colour);
+                sums[2] += getBlue(colour);
+                for (int channel = 0; channel < CHANNELS; ++channel) {
+                    inputSums[channel][y * width + x] = sums[channel];
+                }
+            }
+            updateOutputRow(y, 0, width - 1);
+        }
+    }
+
+    @Override
+    public StatefulColourStrategy bind(RasterEngine engine, int lowerBoundX, int lowerBoundY, int upperBoundX,
+                                       int upperBoundY) {
+        return new OptimalColourPicker(engine, lowerBoundX, lowerBoundY, upperBoundX, upperBoundY);
+    }
+
+    @Override
+    public Integer apply(BufferedImage image, Integer centerX, Integer centerY, Integer diameter) {
+        return pick(centerX, centerY, diameter);
+    }
+
+    /**
+     * Compute the colour of the circle minimizing the squared error of each channel over its area.
+     *
+     * @param centerX x coordinate of the center of the circle
+     * @param centerY y coordinate of the center of the circle
+     * @param diameter diameter of the circle
+     * @return optimal colour of the circle
+     */
+    public int pick(int centerX, int centerY, int diameter) {
+        if (engine == null) {
+            throw new IllegalStateException("The strategy has to be bound to a raster engine first");
+        }
+        long red = 0;
+        long green = 0;
+        long blue = 0;
+        long pixelCount = 0;
+        CircleSpans spans = CircleSpans.of(diameter);
+        int localX = centerX - lowerBoundX;
+        int localY = centerY - lowerBoundY;
+        int from = Math.max(0, localY - diameter);
+        int to = Math.min(height, localY + diameter);
+        for (int y = from; y < to; ++y) {
+            int row = y - (localY - diameter);
+            int start = Math.max(0, localX + spans.getStart(row));
+            int end = Math.min(width, localX + spans.getEnd(row));
+            if (start >= end) {
+                continue;
+            }
+            pixelCount += end - start;
+            // twice the input minus the output, summed over the span
+            red += 2L * rangeSum(inputSums[0], y, start, end) - outputRangeSum(0, y, start, end);
+            green += 2L * rangeSum(inputSums[1], y, start, end) - outputRangeSum(1, y, start, end);
+            blue += 2L * rangeSum(inputSums[2], y, start, end) - outputRangeSum(2, y, start, end);
+        }
+        if (pixelCount == 0) {
+            return engine.getInput()[centerY * engine.getWidth() + centerX];
+        }
+        return (0xff << 24) + (toChannel(red, pixelCount) << 16) + (toChannel(green, pixelCount) << 8) +
+                toChannel(blue, pixelCount);
+    }
+
+    private static int toChannel(long sum, long pixelCount) {
+        return (int) Math.max(0, Math.min(255, Math.round(sum / (double) pixelCount)));
+    }
+
+    @Override
+    public void circleDrawn(Circle circle) {
+        int diameter = circle.getDiameter();
+        CircleSpans spans = CircleSpans.of(diameter);
+        int localX = circle.getX() - lowerBoundX;
+        int localY = circle.getY() - lowerBoundY;
+        int from = Math.max(0, localY - diameter);
+        int to = Math.min(height, localY + diameter);
+        for (int y = from; y < to; ++y) {
+            int row = y - (localY - diameter);
+            int start = Math.max(0, localX + spans.getStart(row));
+            int end = Math.min(width, localX + spans.getEnd(row));
+            if (start < end) {
+                updateOutputRow(y, start, end - 1);
+            }
+        }
+    }
+
+    /**
+     * Sum of the row of the input table between {@code start} (inclusive) and {@code end} (exclusive).
+     */
+    private int rangeSum(int[] sums, int y, int start, int end) {
+        int rowOffset = y * width;
+        return sums[rowOffset + end - 1] - (start == 0 ? 0 : sums[rowOffset + start - 1]);
+    }
+
+    /**
+     * Sum of the row of the output between {@code start} (inclusive) and {@code end} (exclusive).
+     */
+    private int outputRangeSum(int channel, int y, int start, int end) {
+        return outputPrefixSum(channel, y, end - 1) - (start == 0 ? 0 : outputPrefixSum(channel, y, start - 1));
+    }
+
+    private int outputPrefixSum(int channel, int y, int x) {
+        return outputChunkBases[channel][y * chunksPerRow + x / CHUNK_SIZE] + outputChunkSums[channel][y * width + x];
+    }
+
+    /**
+     * Recompute the output tables of the row after the pixels between {@code first} and {@code last} (inclusive,
+     * local coordinates) have changed.
+     */
+    private void updateOutputRow(int y, int first, int last) {
+        int[] output = engine.getOutput();
+        int sourceOffset = (lowerBoundY + y) * engine.getWidth() + lowerBoundX;
+        int rowOffset = y * width;
+        int baseOffset = y * chunksPerRow;
+        int firstChunk = first / CHUNK_SIZE;
+        int lastChunk = last / CHUNK_SIZE;
+        for (int channel = 0; channel < CHANNELS; ++channel) {
+            int[] chunkSums = outputChunkSums[channel];
+            int[] chunkBases = outputChunkBases[channel];
+            int shift = 16 - 8 * channel;
+            int delta = 0;
+            for (int chunk = firstChunk; chunk <= lastChunk; ++chunk) {
+                int chunkStart = chunk * CHUNK_SIZE;
+                int chunkEnd = Math.min(width, chunkStart + CHUNK_SIZE);
+                int oldTotal = chunkSums[rowOffset + chunkEnd - 1];
+                int sum = 0;
+                for (int x = chunkStart; x < chunkEnd; ++x) {
+                    sum += (output[sourceOffset + x] >> shift) & 0xff;
+                    chunkSums[rowOffset + x] = sum;
+                }
+                chunkBases[baseOffset + chunk] += delta;
+                delta += sum - oldTotal;
+            }
+            for (int chunk = lastChunk + 1; chunk < chunksPerRow; ++chunk) {
+                chunkBases[baseOffset + chunk] += delta;
+            }
+        }
+    }
+}
@@ -0,0 +1,436 @@
+package localsearch;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compression of images, which do not fit into the heap. The input is decoded tile by tile into an off-heap
+ * {@link MappedRaster}, and the output is kept in another one. The image is compressed in tiles as in the
+ * {@link TiledCompression}, but each tile is loaded into its own {@link RasterEngine} only while it is compressed, and
+ * its output is written back afterwards. The seams along the internal tile borders are then compressed one window at
+ * a time, after the tiles. Finally, the output image is written tile by tile, and the circles, which are streamed into
+ * a temporary file as they are placed, are written into the binary data file (see {@link CircleFileWriter}).
+ * <p>
+ * The heap usage depends on the size of the tiles and the amount of threads only, not on the size of the image. The
+ * output image has to be in a format which can be written tile by tile, e.g. TIFF. The quality, the retry count, the
+ * colour picking strategy, the scoring, the parallelism, the tile size and the deadline of the configuration are
+ * used, the other options are ignored.
+ *
+ * @author Ondřej Kratochvíl
+ */
+public class OutOfCoreCompression {
+
+    // side of the tiles of the off-heap stores, and the minimum size of the compressed tiles if not configured
+    private final static int TILE_SIZE = 1024;
+    // amount of tiles of each store, whose mappings are kept
+    private final static int RESIDENT_TILES = 64;
+    // colour of the output image before the first circle is drawn
+    private final static int BACKGROUND = 0;
+    // bytes of a circle in the temporary file
+    private final static int CIRCLE_RECORD_SIZE = 4 * Integer.BYTES;
+
+    private final CompressorConfig config;
+    private CompressionMetrics metrics;
+
+    public OutOfCoreCompression(CompressorConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * @param metrics metrics the counters of all tiles and seams are added to, or {@code null}
+     */
+    public void setMetrics(CompressionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Compress the image.
+     *
+     * @param inputFile input image
+     * @param outputImageFile output image, in a format supporting writing tile by tile
+     * @param circleFile binary data file of the circles
+     * @return amount of placed circles
+     * @throws IOException if an image cannot be read or written
+     * @throws IllegalArgumentException if the format of the output image cannot be written tile by tile
+     */
+    public long compress(File inputFile, File outputImageFile, File circleFile) throws IOException {
+        ImageWriter writer = getWriter(outputImageFile);
+        try (ImageInputStream stream = ImageIO.createImageInputStream(inputFile)) {
+            Iterator<ImageReader> readers = stream != null ? ImageIO.getImageReaders(stream) : null;
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("Unsupported image: " + inputFile);
+            }
+            ImageReader reader = readers.next();
+            reader.setInput(stream, true, true);
+            int width = reader.getWidth(0);
+            int height = reader.getHeight(0);
+            Path circlesPath = Files.createTempFile("circles", ".bin");
+            try (MappedRaster input = new MappedRaster(width, height, TILE_SIZE, RESIDENT_TILES);
+                 MappedRaster output = new MappedRaster(width, height, TILE_SIZE, RESIDENT_TILES)) {
+                decode(reader, input);
+                long circleCount;
+                try (CircleSink sink = new CircleSink(circlesPath)) {
+                    compress(input, output, sink);
+                    circleCount = sink.count;
+                }
+                writeImage(writer, output, outputImageFile);
+                writeCircles(circlesPath, circleCount, width, height, circleFile);
+                return circleCount;
+            } finally {
+                reader.dispose();
+                Files.deleteIfExists(circlesPath);
+            }
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    private void compress(MappedRaster input, MappedRaster output, CircleSink sink) throws IOException {
+        int width = input.getWidth();
+        int height = input.getHeight();
+        int minDimension = Math.min(width, height);
+        CompressionQuality quality = config.getQuality();
+        int maxDiameter = HillClimber.getMaxDiameter(minDimension, quality, 0);
+        // tiles have to fit the largest circles without crossing their borders
+        int tileSize = Math.max(config.getTileSize() > 0 ? config.getTileSize() : TILE_SIZE, 4 * maxDiameter);
+        int[] columns = TiledCompression.split(width, tileSize);
+        int[] rows = TiledCompression.split(height, tileSize);
+        long deadline = config.getDeadline() > 0 ?
+                System.nanoTime() + config.getDeadline() * 1_000_000 : Long.MAX_VALUE;
+        // the seams take the circles of the bands along the internal borders
+        double seamArea = 2.0 * maxDiameter * ((double) (columns.length - 2) * height +
+                (double) (rows.length - 2) * width);
+        double tileShare = 1 - Math.min(1, seamArea / ((double) width * height));
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int row = 0; row < rows.length - 1; ++row) {
+            for (int column = 0; column < columns.length - 1; ++column) {
+                Window tile = new Window(columns[column], rows[row], columns[column + 1], rows[row + 1],
+                        columns[column], rows[row], columns[column + 1], rows[row + 1], width, height);
+                int circleCount = (int) (tile.getArea() * tileShare / quality.getFactor());
+                tasks.add(() -> {
+                    sink.add(compressWindow(input, output, tile, circleCount, minDimension, false, deadline));
+                    return null;
+                });
+            }
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(config.getParallelism());
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Out-of-core compression was interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException("Compression of a tile failed", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+
+        // seam windows overlap each other, so they are compressed one by one
+        for (int column = 1; column < columns.length - 1; ++column) {
+            for (int row = 0; row < rows.length - 1; ++row) {
+                Window seam = new Window(columns[column] - 2 * maxDiameter, Math.max(0, rows[row] - maxDiameter),
+                        columns[column] + 2 * maxDiameter, Math.min(height, rows[row + 1] + maxDiameter),
+                        columns[column] - maxDiameter, rows[row], columns[column] + maxDiameter, rows[row + 1],
+                        width, height);
+                int circleCount = (int) (2L * maxDiameter * (rows[row + 1] - rows[row]) / quality.getFactor());
+                sink.add(compressWindow(input, output, seam, circleCount, minDimension, true, deadline));
+            }
+        }
+        for (int row = 1; row < rows.length - 1; ++row) {
+            for (int column = 0; column < columns.length - 1; ++column) {
+                Window seam = new Window(Math.max(0, columns[column] - maxDiameter), rows[row] - 2 * maxDiameter,
+                        Math.min(width, columns[column + 1] + maxDiameter), rows[row] + 2 * maxDiameter,
+                        columns[column], rows[row] - maxDiameter, columns[column + 1], rows[row] + maxDiameter,
+                        width, height);
+                int circleCount = (int) (2L * maxDiameter * (columns[column + 1] - columns[column]) /
+                        quality.getFactor());
+                sink.add(compressWindow(input, output, seam, circleCount, minDimension, true, deadline));
+            }
+        }
+    }
+
+    /**
+     * Load the window into a raster engine, place the circles and write the output back.
+     *
+     * @param loadOutput whether the output of the window already contains circles
+     * @return placed circles, in the coordinates of the whole image
+     */
+    private Circle[] compressWindow(MappedRaster input, MappedRaster output, Window window, int circleCount,
+                                    int minDimension, boolean loadOutput, long deadline) throws IOException {
+        if (circleCount == 0) {
+            return new Circle[0];
+        }
+        int width = window.upperBoundX - window.lowerBoundX;
+        int height = window.upperBoundY - window.lowerBoundY;
+        int[] pixels = new int[width * height];
+        input.read(window.lowerBoundX, window.lowerBoundY, width, height, pixels);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, width, height, pixels, 0, width);
+        RasterEngine engine = new RasterEngine(image);
+        engine.setScoring(config.getScoring());
+        if (loadOutput) {
+            output.read(window.lowerBoundX, window.lowerBoundY, width, height, pixels);
+            engine.replaceRegion(0, 0, width, height, pixels);
+        }
+        HillClimber climber = new HillClimber(image, engine, config.getQuality(), config.getRetryCount(),
+                config.getColourPickingStrategy(), window, circleCount);
+        climber.setDiameterSchedule(minDimension, circleCount, 1);
+        CompressionMetrics windowMetrics = metrics != null ? new CompressionMetrics() : null;
+        climber.setMetrics(windowMetrics);
+        if (deadline != Long.MAX_VALUE) {
+            climber.setStopCondition(new StopCondition(engine, deadline, 0, 0, 0, circleCount));
+        }
+        climber.run();
+        if (metrics != null) {
+            metrics.addCounters(windowMetrics);
+        }
+        output.write(window.lowerBoundX, window.lowerBoundY, width, height, engine.getOutput());
+        Circle[] circles = climber.getCircles();
+        Circle[] translated = new Circle[circles.length];
+        for (int i = 0; i < circles.length; ++i) {
+            Circle circle = circles[i];
+            translated[i] = new Circle(circle.getX() + window.lowerBoundX, circle.getY() + window.lowerBoundY,
+                    circle.getDiameter(), circle.getColour());
+        }
+        return translated;
+    }
+
+    /**
+     * Decode the input image tile by tile into the store.
+     */
+    private static void decode(ImageReader reader, MappedRaster input) throws IOException {
+        int tileSize = input.getTileSize();
+        ImageReadParam param = reader.getDefaultReadParam();
+        for (int y = 0; y < input.getHeight(); y += tileSize) {
+            for (int x = 0; x < input.getWidth(); x += tileSize) {
+                int width = Math.min(tileSize, input.getWidth() - x);
+                int height = Math.min(tileSize, input.getHeight() - y);
+                param.setSourceRegion(new Rectangle(x, y, width, height));
+                BufferedImage tile = reader.read(0, param);
+                input.write(x, y, width, height, tile.getRGB(0, 0, width, height, null, 0, width));
+            }
+        }
+    }
+
+    /**
+     * @return writer of the format given by the extension of the file
+     * @throws IllegalArgumentException if there is no writer, which can write a tiled image tile by tile
+     */
+    private static ImageWriter getWriter(File file) throws IOException {
+        String name = file.getName();
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersBySuffix(name.substring(name.lastIndexOf('.') + 1));
+        while (writers.hasNext()) {
+            ImageWriter writer = writers.next();
+            // the capabilities of the writer are only known with an output
+            try (ImageOutputStream stream = ImageIO.createImageOutputStream(new ByteArrayOutputStream())) {
+                writer.setOutput(stream);
+                boolean canWriteTiles = writer.canWriteEmpty() && writer.getDefaultWriteParam().canWriteTiles();
+                writer.setOutput(null);
+                if (canWriteTiles) {
+                    return writer;
+                }
+            }
+            writer.dispose();
+        }
+        throw new IllegalArgumentException("Output image " + file + " must have a format, which can be written " +
+                "tile by tile, e.g. TIFF");
+    }
+
+    /**
+     * Write the output image tile by tile. The image is written tiled, since the pixels of a
+     * strip of an untiled image can only be replaced at once.
+     */
+    private static void writeImage(ImageWriter writer, MappedRaster output, File file) throws IOException {
+        int width = output.getWidth();
+        int height = output.getHeight();
+        // the TIFF tiles are multiples of 16 pixels and must not be wider than the image
+        int tileSize = Math.max(16, Math.min(output.getTileSize(), Math.min(width, height)) & ~15);
+        Files.deleteIfExists(file.toPath());
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(file)) {
+            writer.setOutput(stream);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setTiling(tileSize, tileSize, 0, 0);
+            writer.prepareWriteEmpty(null, ImageTypeSpecifier.createFromBufferedImageType(
+                    BufferedImage.TYPE_INT_RGB), width, height, null, null, param);
+            writer.endWriteEmpty();
+            writer.prepareReplacePixels(0, new Rectangle(width, height));
+            param = writer.getDefaultWriteParam();
+            for (int y = 0; y < height; y += tileSize) {
+                for (int x = 0; x < width; x += tileSize) {
+                    int tileWidth = Math.min(tileSize, width - x);
+                    int tileHeight = Math.min(tileSize, height - y);
+                    int[] pixels = new int[tileWidth * tileHeight];
+                    output.read(x, y, tileWidth, tileHeight, pixels);
+                    BufferedImage tile = new BufferedImage(tileWidth, tileHeight, BufferedImage.TYPE_INT_RGB);
+                    tile.setRGB(0, 0, tileWidth, tileHeight, pixels, 0, tileWidth);
+                    param.setDestinationOffset(new Point(x, y));
+                    writer.replacePixels(tile.getRaster(), param);
+                }
+            }
+            writer.endReplacePixels();
+        }
+    }
+
+    /**
+     * Convert the temporary file of the circles into the binary data file.
+     */
+    private static void writeCircles(Path circlesPath, long circleCount, int width, int height, File file)
+            throws IOException {
+        if (circleCount > Integer.MAX_VALUE) {
+            throw new IOException("Too many circles for the data file: " + circleCount);
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(circlesPath),
+                1 << 16));
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) {
+            Iterator<Circle> circles = new Iterator<Circle>() {
+
+                private long read;
+
+                @Override
+                public boolean hasNext() {
+                    return read < circleCount;
+                }
+
+                @Override
+                public Circle next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    ++read;
+                    try {
+                        return new Circle(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            };
+            CircleFileWriter.write(out, width, height, BACKGROUND, (int) circleCount, circles);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Region of the image compressed at once. The centers of the circles lie in the center region, and their
+     * circumscribed squares do not cross the borders of the window, except for the borders of the image.
+     */
+    private static class Window implements CandidateSampler {
+
+        private final int lowerBoundX;
+        private final int lowerBoundY;
+        private final int upperBoundX;
+        private final int upperBoundY;
+        // center region, in the coordinates of the window
+        private final int centerLowerX;
+        private final int centerLowerY;
+        private final int centerUpperX;
+        private final int centerUpperY;
+        // borders the circles must not cross, in the coordinates of the window
+        private final int minX;
+        private final int minY;
+        private final int maxX;
+        private final int maxY;
+
+        Window(int lowerBoundX, int lowerBoundY, int upperBoundX, int upperBoundY, int centerLowerX,
+               int centerLowerY, int centerUpperX, int centerUpperY, int imageWidth, int imageHeight) {
+            this.lowerBoundX = lowerBoundX;
+            this.lowerBoundY = lowerBoundY;
+            this.upperBoundX = upperBoundX;
+            this.upperBoundY = upperBoundY;
+            this.centerLowerX = centerLowerX - lowerBoundX;
+            this.centerLowerY = centerLowerY - lowerBoundY;
+            this.centerUpperX = centerUpperX - lowerBoundX;
+            this.centerUpperY = centerUpperY - lowerBoundY;
+            this.minX = lowerBoundX == 0 ? Integer.MIN_VALUE : 0;
+            this.minY = lowerBoundY == 0 ? Integer.MIN_VALUE : 0;
+            this.maxX = upperBoundX == imageWidth ? Integer.MAX_VALUE : upperBoundX - lowerBoundX;
+            this.maxY = upperBoundY == imageHeight ? Integer.MAX_VALUE : upperBoundY - lowerBoundY;
+        }
+
+        long getArea() {
+            return (long) (upperBoundX - lowerBoundX) * (upperBoundY - lowerBoundY);
+        }
+
+        @Override
+        public Circle sample(Random random, int maxDiameter) {
+            int diameter = random.nextInt(maxDiameter);
+            int centerX = sampleCoordinate(random, centerLowerX, centerUpperX, minX, maxX, diameter);
+            int centerY = sampleCoordinate(random, centerLowerY, centerUpperY, minY, maxY, diameter);
+            return new Circle(centerX, centerY, diameter, 0);
+        }
+
+        private static int sampleCoordinate(Random random, int centerLower, int centerUpper, int min,
+                                            int max, int diameter) {
+            int lower = Math.max(centerLower, min == Integer.MIN_VALUE ? min : min + diameter);
+            int upper = Math.min(centerUpper - 1, max == Integer.MAX_VALUE ? max : max - diameter);
+            return lower + random.nextInt(upper - lower + 1);
+        }
+    }
+
+    /**
+     * Temporary file of the placed circles, appended to by all threads.
+     */
+    private static class CircleSink implements AutoCloseable {
+
+        private final DataOutputStream out;
+        private long count;
+
+        CircleSink(Path path) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path),
+                    CIRCLE_RECORD_SIZE << 12));
+        }
+
+        synchronized void add(Circle[] circles) throws IOException {
+            for (Circle circle : circles) {
+                out.writeInt(circle.getX());
+                out.writeInt(circle.getY());
+                out.writeInt(circle.getDiameter());
+                out.writeInt(circle.getColour());
+            }
+            count += circles.length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
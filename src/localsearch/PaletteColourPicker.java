@@ -0,0 +1,263 @@
+package localsearch;
+
+import de.androidpit.colorthief.ColorThief;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Cached replacement of {@link GraphicHelper#getDominantColour(BufferedImage, int, int, int)}. Instead of running
+ * the {@code Color Thief} quantization for every candidate, the palette of the region is extracted once when the
+ * strategy is bound, every pixel of the region is mapped to the nearest colour of the palette, and the dominant
+ * colour of a circle is the palette colour most of its pixels are mapped to.
+ * <p>
+ * The counts of the palette colours are kept as summed-area tables over square blocks of at least
+ * {@link #MIN_BLOCK_SIZE} pixels, so the colour of a large circle is computed from the blocks covering its
+ * circumscribed square in time proportional to the size of the palette. Small circles, for which the blocks would be
+ * too coarse, are counted exactly over the pixels of the circle. The blocks grow with the palette, so the strategy
+ * takes at most {@code 1 + MAX_BYTES_PER_PIXEL} bytes per pixel of the region, and does not allocate per call.
+ *
+ * @author Ondřej Kratochvíl
+ */
+public class PaletteColourPicker implements StatefulColourStrategy {
+
+    // side of the blocks in pixels for small palettes
+    private final static int MIN_BLOCK_SIZE = 4;
+    // bytes of the summed-area tables per pixel of the region, larger palettes get larger blocks
+    private final static int MAX_BYTES_PER_PIXEL = 4;
+    // circles with the circumscribed square smaller than this amount of blocks are counted exactly
+    private final static int MIN_BLOCKS = 4;
+    // sampling step of Color Thief, 1 uses every pixel
+    private final static int PALETTE_QUALITY = 5;
+
+    private final int paletteSize;
+    private final int[] input;
+    private final int imageWidth;
+    private final int lowerBoundX;
+    private final int lowerBoundY;
+    private final int upperBoundX;
+    private final int upperBoundY;
+    private final int[] palette;
+    // index of the palette colour of each pixel of the region, indexed by local y * width + local x
+    private final byte[] paletteIndices;
+    // side of the blocks in pixels
+    private final int blockSize;
+    private final int blockColumns;
+    // counts of the palette colours in the blocks above and to the left, indexed by
+    // (block y * (blockColumns + 1) + block x) * palette.length + palette index
+    private final int[] blockCounts;
+    private final ThreadLocal<int[]> counts;
+
+    /**
+     * Create an unbound prototype of the strategy, to be used as {@link LocalSearch#COLOUR_PICKING_STRATEGY}.
+     *
+     * @param paletteSize amount of colours of the palette (2-256)
+     */
+    public PaletteColourPicker(int paletteSize) {
+        if (paletteSize < 2 || paletteSize > 256) {
+            throw new IllegalArgumentException("Palette size must be between 2 and 256, got " + paletteSize);
+        }
+        this.paletteSize = paletteSize;
+        this.input = null;
+        this.imageWidth = 0;
+        this.lowerBoundX = 0;
+        this.lowerBoundY = 0;
+        this.upperBoundX = 0;
+        this.upperBoundY = 0;
+        this.palette = null;
+        this.paletteIndices = null;
+        this.blockSize = 0;
+        this.blockColumns = 0;
+        this.blockCounts = null;
+        this.counts = null;
+    }
+
+    private PaletteColourPicker(int paletteSize, RasterEngine engine, int lowerBoundX, int lowerBoundY,
+                                int upperBoundX, int upperBoundY) {
+        this.paletteSize = paletteSize;
+        this.input = engine.getInput();
+        this.imageWidth = engine.getWidth();
+        this.lowerBoundX = lowerBoundX;
+        this.lowerBoundY = lowerBoundY;
+        this.upperBoundX = upperBoundX;
+        this.upperBoundY = upperBoundY;
+        int width = upperBoundX - lowerBoundX;
+        int height = upperBoundY - lowerBoundY;
+        this.palette = extractPalette(width, height);
+        this.paletteIndices = new byte[width * height];
+        for (int y = 0; y < height; ++y) {
+            int sourceOffset = (lowerBoundY + y) * imageWidth + lowerBoundX;
+            for (int x = 0; x < width; ++x) {
+                paletteIndices[y * width + x] = (byte) getNearest(input[sourceOffset + x]);
+            }
+        }
+        this.blockSize = getBlockSize(palette.length);
+        this.blockColumns = (width + blockSize - 1) / blockSize;
+        int blockRows = (height + blockSize - 1) / blockSize;
+        long blockCountsSize = (long) (blockColumns + 1) * (blockRows + 1) * palette.length;
+        if (blockCountsSize > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException(String.format("Region %dx%d is too large for a palette of %d colours",
+                    width, height, palette.length));
+        }
+        this.blockCounts = new int[(int) blockCountsSize];
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                int block = ((y / blockSize + 1) * (blockColumns + 1) + x / blockSize + 1) * palette.length;
+                ++blockCounts[block + (paletteIndices[y * width + x] & 0xff)];
+            }
+        }
+        // turn the counts of the blocks into the summed-area tables
+        for (int blockY = 1; blockY <= blockRows; ++blockY) {
+            for (int blockX = 1; blockX <= blockColumns; ++blockX) {
+                int block = (blockY * (blockColumns + 1) + blockX) * palette.length;
+                int left = block - palette.length;
+                int above = block - (blockColumns + 1) * palette.length;
+                int aboveLeft = above - palette.length;
+                for (int i = 0; i < palette.length; ++i) {
+                    blockCounts[block + i] += blockCounts[left + i] + blockCounts[above + i] -
+                            blockCounts[aboveLeft + i];
+                }
+            }
+        }
+        this.counts = ThreadLocal.withInitial(() -> new int[palette.length]);
+    }
+
+    @Override
+    public StatefulColourStrategy bind(RasterEngine engine, int lowerBoundX, int lowerBoundY, int upperBoundX,
+                                       int upperBoundY) {
+        return new PaletteColourPicker(paletteSize, engine, lowerBoundX, lowerBoundY, upperBoundX, upperBoundY);
+    }
+
+    @Override
+    public void circleDrawn(Circle circle) {
+        // the palette depends on the input only
+    }
+
+    @Override
+    public Integer apply(BufferedImage image, Integer centerX, Integer centerY, Integer diameter) {
+        return pick(centerX, centerY, diameter);
+    }
+
+    /**
+     * Get the dominant colour of the circle, i.e. the colour of the palette most of its pixels are closest to.
+     *
+     * @param centerX x coordinate of the center of the circle
+     * @param centerY y coordinate of the center of the circle
+     * @param diameter diameter of the circle
+     * @return dominant colour of the circle
+     */
+    public int pick(int centerX, int centerY, int diameter) {
+        if (diameter == 0) {
+            return input[centerY * imageWidth + centerX];
+        }
+        int lowerX = Math.max(lowerBoundX, centerX - diameter) - lowerBoundX;
+        int upperX = Math.min(upperBoundX, centerX + diameter) - lowerBoundX;
+        int lowerY = Math.max(lowerBoundY, centerY - diameter) - lowerBoundY;
+        int upperY = Math.min(upperBoundY, centerY + diameter) - lowerBoundY;
+        // blocks with their center within the circumscribed square
+        int lowerBlockX = (lowerX + blockSize / 2) / blockSize;
+        int upperBlockX = (upperX + blockSize / 2) / blockSize;
+        int lowerBlockY = (lowerY + blockSize / 2) / blockSize;
+        int upperBlockY = (upperY + blockSize / 2) / blockSize;
+        if ((upperBlockX - lowerBlockX) * (upperBlockY - lowerBlockY) < MIN_BLOCKS * MIN_BLOCKS) {
+            return pickExactly(centerX, centerY, diameter);
+        }
+        int bottomRight = (upperBlockY * (blockColumns + 1) + upperBlockX) * palette.length;
+        int bottomLeft = (upperBlockY * (blockColumns + 1) + lowerBlockX) * palette.length;
+        int topRight = (lowerBlockY * (blockColumns + 1) + upperBlockX) * palette.length;
+        int topLeft = (lowerBlockY * (blockColumns + 1) + lowerBlockX) * palette.length;
+        int best = 0;
+        int bestCount = -1;
+        for (int i = 0; i < palette.length; ++i) {
+            int count = blockCounts[bottomRight + i] - blockCounts[bottomLeft + i] - blockCounts[topRight + i] +
+                    blockCounts[topLeft + i];
+            if (count > bestCount) {
+                bestCount = count;
+                best = i;
+            }
+        }
+        return palette[best];
+    }
+
+    /**
+     * @return smallest side of the blocks, for which the summed-area tables fit into {@link #MAX_BYTES_PER_PIXEL}
+     */
+    private static int getBlockSize(int paletteLength) {
+        int blockSize = MIN_BLOCK_SIZE;
+        while ((long) Integer.BYTES * paletteLength > (long) MAX_BYTES_PER_PIXEL * blockSize * blockSize) {
+            blockSize *= 2;
+        }
+        return blockSize;
+    }
+
+    /**
+     * Count the palette colours of the pixels of the circle.
+     */
+    private int pickExactly(int centerX, int centerY, int diameter) {
+        int[] counts = this.counts.get();
+        int width = upperBoundX - lowerBoundX;
+        CircleSpans spans = CircleSpans.of(diameter);
+        int lowerY = Math.max(lowerBoundY, centerY - diameter);
+        int upperY = Math.min(upperBoundY, centerY + diameter);
+        int best = -1;
+        int bestCount = 0;
+        for (int j = lowerY; j < upperY; ++j) {
+            int row = j - (centerY - diameter);
+            int lowerX = Math.max(lowerBoundX, centerX + spans.getStart(row));
+            int upperX = Math.min(upperBoundX, centerX + spans.getEnd(row));
+            int rowOffset = (j - lowerBoundY) * width - lowerBoundX;
+            for (int i = lowerX; i < upperX; ++i) {
+                int index = paletteIndices[rowOffset + i] & 0xff;
+                int count = ++counts[index];
+                if (count > bestCount) {
+                    bestCount = count;
+                    best = index;
+                }
+            }
+        }
+        Arrays.fill(counts, 0);
+        if (best == -1) {
+            return input[centerY * imageWidth + centerX];
+        }
+        return palette[best];
+    }
+
+    /**
+     * Run the {@code Color Thief} quantization over the region.
+     *
+     * @return packed ARGB colours of the palette
+     */
+    private int[] extractPalette(int width, int height) {
+        BufferedImage region = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        region.setRGB(0, 0, width, height, input, lowerBoundY * imageWidth + lowerBoundX, imageWidth);
+        int[][] rgb = ColorThief.getPalette(region, paletteSize, PALETTE_QUALITY, false);
+        if (rgb == null || rgb.length == 0) {
+            // too few pixels to quantize, use the colour of the first pixel
+            return new int[]{input[lowerBoundY * imageWidth + lowerBoundX] | 0xff000000};
+        }
+        int[] palette = new int[rgb.length];
+        for (int i = 0; i < rgb.length; ++i) {
+            palette[i] = (0xff << 24) + (rgb[i][0] << 16) + (rgb[i][1] << 8) + rgb[i][2];
+        }
+        return palette;
+    }
+
+    /**
+     * @return index of the palette colour closest to given colour
+     */
+    private int getNearest(int colour) {
+        int nearest = 0;
+        int nearestDistance = Integer.MAX_VALUE;
+        for (int i = 0; i < palette.length; ++i) {
+            int red = GraphicHelper.getRed(colour) - GraphicHelper.getRed(palette[i]);
+            int green = GraphicHelper.getGreen(colour) - GraphicHelper.getGreen(palette[i]);
+            int blue = GraphicHelper.getBlue(colour) - GraphicHelper.getBlue(palette[i]);
+            int distance = red * red + green * green + blue * blue;
+            if (distance < nearestDistance) {
+                nearestDistance = distance;
+                nearest = i;
+            }
+        }
+        return nearest;
+    }
+}
@@ -0,0 +1,82 @@
+package localsearch;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Headless replacement of {@link Gui}, which periodically writes the progress of the compression into numbered PNG
+ * files {@code preview-00001.png}, {@code preview-00002.png}, ... in given directory. A preview is only written when
+ * the output has changed, and the final output is always written by {@link #finish()}.
+ *
+ * @author Ondřej Kratochvíl
+ */
+public class PreviewWriter implements FrameRenderer {
+
+    private final File directory;
+    private final long interval;
+    private FramePublisher publisher;
+    private BufferedImage image;
+    private int[] frame;
+    private ScheduledExecutorService executor;
+    private int previewCount;
+
+    /**
+     * @param directory directory the previews are written to
+     * @param interval interval between the previews in milliseconds
+     */
+    public PreviewWriter(File directory, long interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Preview interval must be positive, got " + interval);
+        }
+        this.directory = directory;
+        this.interval = interval;
+    }
+
+    @Override
+    public void start(FramePublisher publisher) {
+        this.publisher = publisher;
+        image = new BufferedImage(publisher.getWidth(), publisher.getHeight(), BufferedImage.TYPE_INT_RGB);
+        frame = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "preview-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // the first request only makes the search threads stage their changes for the first preview
+        executor.scheduleWithFixedDelay(this::render, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void finish() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        publisher.collectAll(frame);
+        write();
+    }
+
+    private void render() {
+        publisher.requestFrame();
+        if (publisher.collect(frame) != null) {
+            write();
+        }
+    }
+
+    private void write() {
+        File file = new File(directory, String.format("preview-%05d.png", ++previewCount));
+        try {
+            ImageIO.write(image, "png", file);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
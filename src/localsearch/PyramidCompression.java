@@ -0,0 +1,204 @@
+package localsearch;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Coarse-to-fine search, which places the large circles of the early phases of the diameter schedule into a copy of
+ * the input image downsampled by an integer factor, where each candidate covers {@code factor^2} times fewer pixels.
+ * The placed circles are scaled up to the full resolution, and the remaining phases run on the full image as usual,
+ * starting from the upscaled circles (see {@link HillClimber#setInitialCircles(Circle[])}).
+ * <p>
+ * The amount of circles placed in the downsampled image is the same as in the coarse phases of the full resolution
+ * run, so the result has the same amount of circles and the same format. A phase only runs on the downsampled image
+ * while its diameters stay at least {@link #MIN_COARSE_DIAMETER} after the downsampling, so with small diameters
+ * (e.g. {@link CompressionQuality#HIGH} on a small image), fewer phases or none at all are coarse.
+ *
+ * @author Ondřej Kratochvíl
+ */
+public class PyramidCompression {
+
+    // first phase of the diameter schedule, which always runs on the full resolution image
+    private final static int FINE_PHASE = 2;
+    // smallest upper bound of the diameter in the downsampled image, smaller circles lose too much detail
+    private final static int MIN_COARSE_DIAMETER = 3;
+
+    private final BufferedImage inputImage;
+    private final CompressionQuality quality;
+    private final int retryCount;
+    private final TetraFunction<BufferedImage, Integer, Integer, Integer, Integer> colourPickingStrategy;
+    private final int factor;
+    private CompressionMetrics metrics;
+    private RasterEngine.Scoring scoring = RasterEngine.Scoring.ABSOLUTE;
+    private Random random;
+    private Function<RasterEngine, CandidateSampler> sampler = engine ->
+            new UniformCandidateSampler(engine.getWidth(), engine.getHeight());
+
+    /**
+     * @param inputImage input image
+     * @param quality quality of the compression
+     * @param retryCount amount of tries when placing new circles
+     * @param colourPickingStrategy strategy for choosing the colour of the new circles
+     * @param factor factor the image is downsampled by
+     */
+    public PyramidCompression(BufferedImage inputImage, CompressionQuality quality, int retryCount,
+                              TetraFunction<BufferedImage, Integer, Integer, Integer, Integer> colourPickingStrategy,
+                              int factor) {
+        if (factor < 2) {
+            throw new IllegalArgumentException("Pyramid factor must be at least 2, got " + factor);
+        }
+        this.inputImage = inputImage;
+        this.quality = quality;
+        this.retryCount = retryCount;
+        this.colourPickingStrategy = colourPickingStrategy;
+        this.factor = factor;
+    }
+
+    /**
+     * @param metrics metrics the counters of the coarse phases are added to, or {@code null}. The error samples of
+     *                the coarse phases are not recorded, since they are measured in the downsampled image
+     */
+    public void setMetrics(CompressionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param scoring measure of the fitness change of the candidate circles in the downsampled image
+     */
+    public void setScoring(RasterEngine.Scoring scoring) {
+        this.scoring = scoring;
+    }
+
+    /**
+     * @param sampler creates the generator of the candidate circles for the engine of the downsampled image
+     */
+    public void setSampler(Function<RasterEngine, CandidateSampler> sampler) {
+        this.sampler = sampler;
+    }
+
+    /**
+     * @param random source of randomness of the coarse phases, or {@code null} to use
+     *               {@link java.util.concurrent.ThreadLocalRandom}
+     */
+    public void setRandom(Random random) {
+        this.random = random;
+    }
+
+    /**
+     * Place the circles of the coarse phases into the downsampled image.
+     *
+     * @param circleCount amount of circles placed by the whole compression
+     * @param deadline {@link System#nanoTime()} at which the compression stops, or {@link Long#MAX_VALUE}
+     * @param runner runs the climber, sequentially or batched
+     * @return placed circles scaled up to the full resolution, in the order they were drawn
+     */
+    public Circle[] placeCoarseCircles(int circleCount, long deadline, Consumer<HillClimber> runner) {
+        int minDimension = Math.min(inputImage.getWidth(), inputImage.getHeight());
+        int coarseCircleCount = getCoarseCircleCount(circleCount, minDimension, quality, factor);
+        if (coarseCircleCount == 0) {
+            return new Circle[0];
+        }
+        BufferedImage coarseImage = downsample(inputImage, factor);
+        RasterEngine coarseEngine = new RasterEngine(coarseImage);
+        coarseEngine.setScoring(scoring);
+        HillClimber climber = new HillClimber(coarseImage, coarseEngine, quality, retryCount, colourPickingStrategy,
+                sampler.apply(coarseEngine), coarseCircleCount);
+        climber.setDiameterSchedule(minDimension, circleCount, factor);
+        CompressionMetrics coarseMetrics = metrics != null ? new CompressionMetrics() : null;
+        climber.setMetrics(coarseMetrics);
+        climber.setRandom(random);
+        // the quality targets and the size budget are checked at the full resolution
+        climber.setStopCondition(new StopCondition(coarseEngine, deadline, 0, 0, 0, circleCount));
+        runner.accept(climber);
+        if (metrics != null) {
+            metrics.addCounters(coarseMetrics);
+        }
+        return upscale(climber.getCircles(), factor, inputImage.getWidth(), inputImage.getHeight());
+    }
+
+    /**
+     * Get the amount of circles placed before the first phase of the diameter schedule, which runs on the full
+     * resolution image.
+     *
+     * @param circleCount amount of circles placed by the whole compression
+     * @param minDimension smaller of the dimensions of the full resolution image
+     * @param quality quality of the compression
+     * @param factor factor the image is downsampled by
+     * @return amount of circles placed in the downsampled image
+     */
+    public static int getCoarseCircleCount(int circleCount, int minDimension, CompressionQuality quality,
+                                           int factor) {
+        int coarseCircleCount = 0;
+        while (coarseCircleCount < circleCount) {
+            double percentageDone = coarseCircleCount / (double) circleCount * 100;
+            int coarseMaxDiameter = HillClimber.getMaxDiameter(minDimension, quality, percentageDone) / factor;
+            if (HillClimber.getPhase(percentageDone) >= FINE_PHASE || coarseMaxDiameter < MIN_COARSE_DIAMETER) {
+                break;
+            }
+            ++coarseCircleCount;
+        }
+        return coarseCircleCount;
+    }
+
+    /**
+     * Downsample the image, averaging each block of {@code factor x factor} pixels. Blocks at the right and bottom
+     * border may be smaller.
+     *
+     * @param image image to be downsampled
+     * @param factor factor the image is downsampled by
+     * @return downsampled image
+     */
+    public static BufferedImage downsample(BufferedImage image, int factor) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int coarseWidth = (width + factor - 1) / factor;
+        int coarseHeight = (height + factor - 1) / factor;
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        int[] coarsePixels = new int[coarseWidth * coarseHeight];
+        for (int coarseY = 0; coarseY < coarseHeight; ++coarseY) {
+            for (int coarseX = 0; coarseX < coarseWidth; ++coarseX) {
+                int red = 0;
+                int green = 0;
+                int blue = 0;
+                int count = 0;
+                for (int y = coarseY * factor; y < Math.min(height, (coarseY + 1) * factor); ++y) {
+                    for (int x = coarseX * factor; x < Math.min(width, (coarseX + 1) * factor); ++x) {
+                        int colour = pixels[y * width + x];
+                        red += (colour >> 16) & 0xff;
+                        green += (colour >> 8) & 0xff;
+                        blue += colour & 0xff;
+                        ++count;
+                    }
+                }
+                coarsePixels[coarseY * coarseWidth + coarseX] =
+                        ((red / count) << 16) | ((green / count) << 8) | (blue / count);
+            }
+        }
+        BufferedImage coarseImage = new BufferedImage(coarseWidth, coarseHeight, BufferedImage.TYPE_INT_RGB);
+        coarseImage.setRGB(0, 0, coarseWidth, coarseHeight, coarsePixels, 0, coarseWidth);
+        return coarseImage;
+    }
+
+    /**
+     * Scale the circles of the downsampled image up to the full resolution. The center of a circle is moved to the
+     * center of the block of pixels it was downsampled from.
+     *
+     * @param circles circles placed in the downsampled image
+     * @param factor factor the image was downsampled by
+     * @param width width of the full resolution image
+     * @param height height of the full resolution image
+     * @return scaled circles
+     */
+    public static Circle[] upscale(Circle[] circles, int factor, int width, int height) {
+        Circle[] scaled = new Circle[circles.length];
+        for (int i = 0; i < circles.length; ++i) {
+            Circle circle = circles[i];
+            scaled[i] = new Circle(Math.min(width - 1, circle.getX() * factor + factor / 2),
+                    Math.min(height - 1, circle.getY() * factor + factor / 2), circle.getDiameter() * factor,
+                    circle.getColour());
+        }
+        return scaled;
+    }
+}
@@ -0,0 +1,428 @@
+package localsearch;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+import static localsearch.GraphicHelper.mixColour;
+
+/**
+ * Raster engine for the hot loops of the algorithm. Works directly on packed ARGB {@code int[]} copies of the input
+ * and output images instead of calling {@link BufferedImage#getRGB(int, int)} and
+ * {@link BufferedImage#setRGB(int, int, int)} for every pixel. Circles are iterated using precomputed
+ * {@link CircleSpans}.
+ *
+ * @author Ondřej Kratochvíl
+ */
+public class RasterEngine {
+
+    /**
+     * Measure of the fitness change of a candidate circle, see {@link #calculateFitnessChange(Circle)}.
+     */
+    public enum Scoring {
+        // absolute difference of the packed RGB values over the circumscribed square of the circle, as in the original
+        // algorithm, dominated by the red channel
+        PACKED,
+        // sum of absolute differences of the colour channels over the circle
+        ABSOLUTE,
+        // sum of squared differences of the colour channels over the circle
+        SQUARED
+    }
+
+    private final int width;
+    private final int height;
+    // row-major packed ARGB pixels
+    private final int[] input;
+    private final int[] output;
+    // image sharing the output array, used for visualization
+    private final BufferedImage outputView;
+    // sum of absolute differences of all colour channels between the input and the output
+    private final LongAdder error = new LongAdder();
+    // sum of squared differences of all colour channels between the input and the output
+    private final LongAdder squaredError = new LongAdder();
+    // per-block residual error, updated by drawn circles when attached
+    private ResidualIndex residualIndex;
+    private final FitnessKernel kernel = FitnessKernel.getInstance();
+    private Scoring scoring = Scoring.ABSOLUTE;
+
+    /**
+     * Create the engine for given input image, with a black output image of the same size.
+     *
+     * @param inputImage input image
+     */
+    public RasterEngine(BufferedImage inputImage) {
+        this(inputImage, new int[inputImage.getWidth() * inputImage.getHeight()],
+                new int[inputImage.getWidth() * inputImage.getHeight()]);
+    }
+
+    /**
+     * Create the engine for given input image in preallocated buffers, e.g. taken from a {@link RasterPool}. The
+     * buffers may be longer than the image, only their beginning is used. The output is cleared to black.
+     *
+     * @param inputImage input image
+     * @param input buffer for the pixels of the input image
+     * @param output buffer for the pixels of the output image
+     */
+    public RasterEngine(BufferedImage inputImage, int[] input, int[] output) {
+        this.width = inputImage.getWidth();
+        this.height = inputImage.getHeight();
+        int size = width * height;
+        if (input.length < size || output.length < size || input == output) {
+            throw new IllegalArgumentException("Buffers must be distinct and hold " + size + " pixels, got " +
+                    input.length + " and " + output.length);
+        }
+        this.input = inputImage.getRGB(0, 0, width, height, input, 0, width);
+        this.output = output;
+        Arrays.fill(output, 0, size, 0);
+        DirectColorModel colorModel = new DirectColorModel(24, 0xff0000, 0xff00, 0xff);
+        WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(output, size), width, height,
+                width, colorModel.getMasks(), null);
+        this.outputView = new BufferedImage(colorModel, raster, false, null);
+        long initialError = 0;
+        long initialSquaredError = 0;
+        for (int i = 0; i < size; ++i) {
+            initialError += getError(input[i], 0);
+            initialSquaredError += getSquaredError(input[i], 0);
+        }
+        error.add(initialError);
+        squaredError.add(initialSquaredError);
+    }
+
+    /**
+     * Calculate the change of the fitness caused by drawing given circle, measured by the scoring of the engine. The
+     * circle is accepted by the hill climbing algorithm when the change is positive.
+     * <p>
+     * With {@link Scoring#PACKED}, the difference between the input and the output image is computed over the whole
+     * circumscribed square of the circle. With the other scorings, the fitness change is the decrease of the error
+     * over the pixels of the circle, see {@link #calculateErrorChange(Circle)} and
+     * {@link #calculateSquaredErrorChange(Circle)}.
+     *
+     * @param circle circle to be evaluated
+     * @return fitness change
+     */
+    public long calculateFitnessChange(Circle circle) {
+        switch (scoring) {
+            case ABSOLUTE:
+                return -calculateErrorChange(circle);
+            case SQUARED:
+                return -calculateSquaredErrorChange(circle);
+            default:
+                return calculatePackedFitnessChange(circle);
+        }
+    }
+
+    private long calculatePackedFitnessChange(Circle circle) {
+        long oldFitness = 0;
+        long newFitness = 0;
+        int colour = circle.getColour();
+        int lowerBoundX = Math.max(0, circle.getX() - circle.getDiameter());
+        int upperBoundX = Math.min(width, circle.getX() + circle.getDiameter());
+        int lowerBoundY = Math.max(0, circle.getY() - circle.getDiameter());
+        int upperBoundY = Math.min(height, circle.getY() + circle.getDiameter());
+        for (int j = lowerBoundY; j < upperBoundY; ++j) {
+            int rowOffset = j * width;
+            for (int i = lowerBoundX; i < upperBoundX; ++i) {
+                // TODO scale the difference?
+                int inputRGB = input[rowOffset + i] & 0x00ffffff;
+                int outputRGB = output[rowOffset + i] & 0x00ffffff;
+                oldFitness += Math.abs(inputRGB - outputRGB);
+                // the mixed colour keeps its alpha channel, as in the original per-pixel implementation
+                int newOutputRGB = mixColour(outputRGB, colour);
+                newFitness += Math.abs(inputRGB - newOutputRGB);
+            }
+        }
+        assert oldFitness >= 0 && newFitness >= 0;
+        return newFitness - oldFitness;
+    }
+
+    /**
+     * Calculate the change of the total error of the output image (see {@link #getError()}) caused by drawing given
+     * circle. Unlike {@link #calculateFitnessChange(Circle)}, only the pixels of the circle are scored.
+     *
+     * @param circle circle to be evaluated
+     * @return error change, negative if the circle improves the output
+     */
+    public long calculateErrorChange(Circle circle) {
+        return calculateErrorChange(circle, false);
+    }
+
+    /**
+     * Calculate the change of the total squared error of the output image (see {@link #getSquaredError()}) caused by
+     * drawing given circle. Only the pixels of the circle are scored.
+     *
+     * @param circle circle to be evaluated
+     * @return squared error change, negative if the circle improves the output
+     */
+    public long calculateSquaredErrorChange(Circle circle) {
+        return calculateErrorChange(circle, true);
+    }
+
+    /**
+     * Score the spans of the circle by the kernel.
+     */
+    private long calculateErrorChange(Circle circle, boolean squared) {
+        int diameter = circle.getDiameter();
+        int colour = circle.getColour();
+        CircleSpans spans = CircleSpans.of(diameter);
+        int lowerBoundY = Math.max(0, circle.getY() - diameter);
+        int upperBoundY = Math.min(height, circle.getY() + diameter);
+        long errorChange = 0;
+        for (int j = lowerBoundY; j < upperBoundY; ++j) {
+            int row = j - (circle.getY() - diameter);
+            int lowerBoundX = Math.max(0, circle.getX() + spans.getStart(row));
+            int upperBoundX = Math.min(width, circle.getX() + spans.getEnd(row));
+            if (upperBoundX <= lowerBoundX) {
+                continue;
+            }
+            int offset = j * width + lowerBoundX;
+            errorChange += squared ?
+                    kernel.squaredErrorChange(input, output, offset, upperBoundX - lowerBoundX, colour) :
+                    kernel.absoluteErrorChange(input, output, offset, upperBoundX - lowerBoundX, colour);
+        }
+        return errorChange;
+    }
+
+    /**
+     * Draw the circle into the output image, mixing its colour with the current colour of each covered pixel.
+     *
+     * @param circle circle to be drawn
+     * @return the drawn circle
+     */
+    public Circle drawCircle(Circle circle) {
+        int diameter = circle.getDiameter();
+        int colour = circle.getColour();
+        CircleSpans spans = CircleSpans.of(diameter);
+        int lowerBoundY = Math.max(0, circle.getY() - diameter);
+        int upperBoundY = Math.min(height, circle.getY() + diameter);
+        long errorChange = 0;
+        long squaredErrorChange = 0;
+        ResidualIndex residualIndex = this.residualIndex;
+        for (int j = lowerBoundY; j < upperBoundY; ++j) {
+            int row = j - (circle.getY() - diameter);
+            int lowerBoundX = Math.max(0, circle.getX() + spans.getStart(row));
+            int upperBoundX = Math.min(width, circle.getX() + spans.getEnd(row));
+            int rowOffset = j * width;
+            for (int i = lowerBoundX; i < upperBoundX; ++i) {
+                int oldColour = output[rowOffset + i];
+                int newColour = mixColour(oldColour, colour);
+                output[rowOffset + i] = newColour;
+                int inputColour = input[rowOffset + i];
+                int pixelErrorChange = getError(inputColour, newColour) - getError(inputColour, oldColour);
+                errorChange += pixelErrorChange;
+                squaredErrorChange += getSquaredError(inputColour, newColour) -
+                        getSquaredError(inputColour, oldColour);
+                if (residualIndex != null) {
+                    residualIndex.stage(i, j, pixelErrorChange);
+                }
+            }
+        }
+        error.add(errorChange);
+        squaredError.add(squaredErrorChange);
+        if (residualIndex != null) {
+            residualIndex.commit(Math.max(0, circle.getX() - diameter), lowerBoundY,
+                    Math.min(width, circle.getX() + diameter), upperBoundY);
+        }
+        return circle;
+    }
+
+    /**
+     * Replace a region of the output image, e.g. after it was composited again from changed circles.
+     *
+     * @param lowerBoundX left border of the region (inclusive)
+     * @param lowerBoundY top border of the region (inclusive)
+     * @param upperBoundX right border of the region (exclusive)
+     * @param upperBoundY bottom border of the region (exclusive)
+     * @param pixels new pixels of the region, row-major packed ARGB
+     */
+    public void replaceRegion(int lowerBoundX, int lowerBoundY, int upperBoundX, int upperBoundY, int[] pixels) {
+        int regionWidth = upperBoundX - lowerBoundX;
+        long errorChange = 0;
+        long squaredErrorChange = 0;
+        ResidualIndex residualIndex = this.residualIndex;
+        for (int j = lowerBoundY; j < upperBoundY; ++j) {
+            int rowOffset = j * width;
+            int regionOffset = (j - lowerBoundY) * regionWidth - lowerBoundX;
+            for (int i = lowerBoundX; i < upperBoundX; ++i) {
+                int oldColour = output[rowOffset + i];
+                int newColour = pixels[regionOffset + i];
+                output[rowOffset + i] = newColour;
+                int inputColour = input[rowOffset + i];
+                int pixelErrorChange = getError(inputColour, newColour) - getError(inputColour, oldColour);
+                errorChange += pixelErrorChange;
+                squaredErrorChange += getSquaredError(inputColour, newColour) -
+                        getSquaredError(inputColour, oldColour);
+                if (residualIndex != null) {
+                    residualIndex.stage(i, j, pixelErrorChange);
+                }
+            }
+        }
+        error.add(errorChange);
+        squaredError.add(squaredErrorChange);
+        if (residualIndex != null) {
+            residualIndex.commit(lowerBoundX, lowerBoundY, upperBoundX, upperBoundY);
+        }
+    }
+
+    /**
+     * @return amount of pixels scored by {@link #calculateFitnessChange(Circle)}, i.e. the area of the circumscribed
+     * square of the circle clipped by the image borders with {@link Scoring#PACKED}, the area of the circle otherwise
+     */
+    public int getFootprint(Circle circle) {
+        if (scoring != Scoring.PACKED) {
+            return getCoverage(circle);
+        }
+        int lowerBoundX = Math.max(0, circle.getX() - circle.getDiameter());
+        int upperBoundX = Math.min(width, circle.getX() + circle.getDiameter());
+        int lowerBoundY = Math.max(0, circle.getY() - circle.getDiameter());
+        int upperBoundY = Math.min(height, circle.getY() + circle.getDiameter());
+        return Math.max(0, upperBoundX - lowerBoundX) * Math.max(0, upperBoundY - lowerBoundY);
+    }
+
+    /**
+     * @return amount of pixels written by {@link #drawCircle(Circle)}, i.e. the area of the circle clipped by the
+     * image borders
+     */
+    public int getCoverage(Circle circle) {
+        int diameter = circle.getDiameter();
+        CircleSpans spans = CircleSpans.of(diameter);
+        int lowerBoundY = Math.max(0, circle.getY() - diameter);
+        int upperBoundY = Math.min(height, circle.getY() + diameter);
+        int coverage = 0;
+        for (int j = lowerBoundY; j < upperBoundY; ++j) {
+            int row = j - (circle.getY() - diameter);
+            int lowerBoundX = Math.max(0, circle.getX() + spans.getStart(row));
+            int upperBoundX = Math.min(width, circle.getX() + spans.getEnd(row));
+            coverage += Math.max(0, upperBoundX - lowerBoundX);
+        }
+        return coverage;
+    }
+
+    /**
+     * Get the total error of the output image, i.e. the sum of absolute differences of all colour channels between
+     * the input and the output image. Unlike the fitness change, the error ignores the alpha channel and does not
+     * let a difference in one channel carry into another. It is updated by every drawn circle.
+     *
+     * @return total error of the output image
+     */
+    public long getError() {
+        return error.sum();
+    }
+
+    /**
+     * @return sum of squared differences of all colour channels between the input and the output image
+     */
+    public long getSquaredError() {
+        return squaredError.sum();
+    }
+
+    /**
+     * @return peak signal-to-noise ratio of the output image in dB, {@link Double#POSITIVE_INFINITY} if the output
+     * equals the input
+     */
+    public double getPsnr() {
+        double meanSquaredError = getSquaredError() / (3.0 * width * height);
+        return 10 * Math.log10(255 * 255 / meanSquaredError);
+    }
+
+    private static int getSquaredError(int inputColour, int outputColour) {
+        int red = ((inputColour >> 16) & 0xff) - ((outputColour >> 16) & 0xff);
+        int green = ((inputColour >> 8) & 0xff) - ((outputColour >> 8) & 0xff);
+        int blue = (inputColour & 0xff) - (outputColour & 0xff);
+        return red * red + green * green + blue * blue;
+    }
+
+    static int getError(int inputColour, int outputColour) {
+        return Math.abs(((inputColour >> 16) & 0xff) - ((outputColour >> 16) & 0xff)) +
+                Math.abs(((inputColour >> 8) & 0xff) - ((outputColour >> 8) & 0xff)) +
+                Math.abs((inputColour & 0xff) - (outputColour & 0xff));
+    }
+
+    /**
+     * @param scoring measure of the fitness change of the candidate circles
+     */
+    public void setScoring(Scoring scoring) {
+        this.scoring = scoring;
+    }
+
+    public Scoring getScoring() {
+        return scoring;
+    }
+
+    /**
+     * Replace the output image by the output of another engine with the same input image. The residual index is
+     * detached, since it no longer matches the output.
+     *
+     * @param other engine to copy the output from
+     */
+    public void copyFrom(RasterEngine other) {
+        if (other.width != width || other.height != height) {
+            throw new IllegalArgumentException("Cannot copy the output of a " + other.width + "x" + other.height +
+                    " engine into a " + width + "x" + height + " engine");
+        }
+        System.arraycopy(other.output, 0, output, 0, width * height);
+        error.reset();
+        error.add(other.getError());
+        squaredError.reset();
+        squaredError.add(other.getSquaredError());
+        residualIndex = null;
+    }
+
+    /**
+     * Attach an index of the residual error of the blocks of the output, which is kept up to date by every drawn
+     * circle. Once attached, circles must not be drawn concurrently.
+     *
+     * @return the attached index, built from the current output
+     */
+    public ResidualIndex attachResidualIndex() {
+        if (residualIndex == null) {
+            residualIndex = new ResidualIndex(width, height, input, output);
+        }
+        return residualIndex;
+    }
+
+    /**
+     * Copy the output pixels into a new image.
+     *
+     * @param imageType type of the created image, see {@link BufferedImage#getType()}
+     * @return output image
+     */
+    public BufferedImage toImage(int imageType) {
+        BufferedImage image = new BufferedImage(width, height,
+                imageType == BufferedImage.TYPE_CUSTOM ? BufferedImage.TYPE_INT_RGB : imageType);
+        image.setRGB(0, 0, width, height, output, 0, width);
+        return image;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return input pixels, row-major packed ARGB. The array may be longer than the image
+     */
+    public int[] getInput() {
+        return input;
+    }
+
+    /**
+     * @return output pixels, row-major packed ARGB. The array may be longer than the image
+     */
+    public int[] getOutput() {
+        return output;
+    }
+
+    /**
+     * @return image backed by the output pixels, reflecting every drawn circle
+     */
+    public BufferedImage getOutputView() {
+        return outputView;
+    }
+}
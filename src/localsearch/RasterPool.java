@@ -0,0 +1,64 @@
+package localsearch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pool of pixel buffers, which lets a long-running process reuse the buffers of the {@link RasterEngine} across
+ * compressions instead of allocating two arrays of the size of the image for each of them. A buffer is acquired for
+ * a compression and released after its result was copied out of the engine.
+ * <p>
+ * All methods are synchronized, so the pool may be shared by concurrent compressions.
+ *
+ * @author Ondřej Kratochvíl
+ */
+public class RasterPool {
+
+    private final int maxRetained;
+    private final List<int[]> buffers = new ArrayList<>();
+
+    /**
+     * @param maxRetained amount of released buffers kept for reuse
+     */
+    public RasterPool(int maxRetained) {
+        if (maxRetained < 0) {
+            throw new IllegalArgumentException("Retained buffer count must not be negative, got " + maxRetained);
+        }
+        this.maxRetained = maxRetained;
+    }
+
+    /**
+     * Take the smallest released buffer holding given amount of pixels, or allocate a new one.
+     *
+     * @param size amount of pixels
+     * @return buffer of at least {@code size} pixels, with undefined content
+     */
+    public synchronized int[] acquire(int size) {
+        int best = -1;
+        for (int i = 0; i < buffers.size(); ++i) {
+            int length = buffers.get(i).length;
+            if (length >= size && (best < 0 || length < buffers.get(best).length)) {
+                best = i;
+            }
+        }
+        return best >= 0 ? buffers.remove(best) : new int[size];
+    }
+
+    /**
+     * Return a buffer into the pool. When the pool is full, the smallest buffer is dropped.
+     *
+     * @param buffer buffer, which is no longer used
+     */
+    public synchronized void release(int[] buffer) {
+        buffers.add(buffer);
+        if (buffers.size() > maxRetained) {
+            int smallest = 0;
+            for (int i = 1; i < buffers.size(); ++i) {
+                if (buffers.get(i).length < buffers.get(smallest).length) {
+                    smallest = i;
+                }
+            }
+            buffers.remove(smallest);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package localsearch;
+
+import java.util.Random;
+
+/**
+ * Generates candidate circles with centers in the blocks of the image picked with probability proportional to their
+ * residual error, so that the candidates concentrate in the areas which are not yet well approximated. The center is
+ * uniformly distributed within the picked block. A share of {@link #UNIFORM_SHARE} of the candidates has its center
+ * uniformly distributed over the whole image, so that no area is starved completely.
+ * <p>
+ * Sampling takes logarithmic time in the amount of blocks, see {@link ResidualIndex}. The sampler attaches the index
+ * to the engine, so it can only be used by a single climber drawing into the engine.
+ *
+ * @author Ondřej Kratochvíl
+ */
+public class ResidualCandidateSampler implements CandidateSampler {
+
+    // probability of sampling the center uniformly instead of by the residual error
+    private final static double UNIFORM_SHARE = 0.1;
+
+    private final int width;
+    private final int height;
+    private final ResidualIndex index;
+
+    /**
+     * @param engine raster engine with the output image the circles are drawn into
+     */
+    public ResidualCandidateSampler(RasterEngine engine) {
+        this.width = engine.getWidth();
+        this.height = engine.getHeight();
+        this.index = engine.attachResidualIndex();
+    }
+
+    @Override
+    public Circle sample(Random random, int maxDiameter) {
+        int centerX;
+        int centerY;
+        long total = index.getTotal();
+        if (total <= 0 || random.nextDouble() < UNIFORM_SHARE) {
+            centerX = random.nextInt(width);
+            centerY = random.nextInt(height);
+        } else {
+            int block = index.find((long) (random.nextDouble() * total));
+            int blockX = (block % index.getColumns()) * ResidualIndex.BLOCK_SIZE;
+            int blockY = (block / index.getColumns()) * ResidualIndex.BLOCK_SIZE;
+            centerX = blockX + random.nextInt(Math.min(ResidualIndex.BLOCK_SIZE, width - blockX));
+            centerY = blockY + random.nextInt(Math.min(ResidualIndex.BLOCK_SIZE, height - blockY));
+        }
+        int diameter = random.nextInt(maxDiameter);
+        return new Circle(centerX, centerY, diameter, 0);
+    }
+}
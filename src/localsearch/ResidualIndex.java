@@ -0,0 +1,158 @@
+package localsearch;
+
+/**
+ * Index of the residual error between the input and the output image, divided into square blocks of
+ * {@link #BLOCK_SIZE} pixels. The errors of the blocks are kept in a Fenwick tree over the blocks in row-major order,
+ * so both updating the error of a block and finding the block at given position of the cumulative error take
+ * logarithmic time. This allows picking blocks with probability proportional to their error.
+ * <p>
+ * The index is created by {@link RasterEngine#attachResidualIndex()} and updated by every drawn circle. It is not
+ * thread-safe, so circles must not be drawn concurrently into an engine with an attached index.
+ *
+ * @author Ondřej Kratochvíl
+ */
+public class ResidualIndex {
+
+    // side of the blocks in pixels, a power of two
+    public final static int BLOCK_SIZE = 8;
+    private final static int BLOCK_SHIFT = Integer.numberOfTrailingZeros(BLOCK_SIZE);
+
+    private final int columns;
+    private final int rows;
+    // Fenwick tree of the errors of the blocks, 1-based
+    private final long[] tree;
+    // error changes of the blocks covered by the circle being drawn
+    private final long[] pending;
+    private long total;
+
+    /**
+     * Build the index from the current state of the output.
+     *
+     * @param width width of the image
+     * @param height height of the image
+     * @param input input pixels, row-major packed ARGB
+     * @param output output pixels, row-major packed ARGB
+     */
+    ResidualIndex(int width, int height, int[] input, int[] output) {
+        this.columns = (width + BLOCK_SIZE - 1) >> BLOCK_SHIFT;
+        this.rows = (height + BLOCK_SIZE - 1) >> BLOCK_SHIFT;
+        this.tree = new long[columns * rows + 1];
+        this.pending = new long[columns * rows];
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                int error = RasterEngine.getError(input[y * width + x], output[y * width + x]);
+                tree[getBlock(x, y) + 1] += error;
+                total += error;
+            }
+        }
+        // build the tree in linear time, each node passes its sum to its parent
+        for (int i = 1; i < tree.length; ++i) {
+            int parent = i + (i & -i);
+            if (parent < tree.length) {
+                tree[parent] += tree[i];
+            }
+        }
+    }
+
+    /**
+     * Add the error change of a pixel of the circle being drawn. The change is applied by {@link #commit}.
+     *
+     * @param x x coordinate of the pixel
+     * @param y y coordinate of the pixel
+     * @param errorChange change of the error of the pixel
+     */
+    void stage(int x, int y, int errorChange) {
+        pending[getBlock(x, y)] += errorChange;
+    }
+
+    /**
+     * Apply the staged error changes of the pixels within given region.
+     *
+     * @param lowerBoundX left border of the region (inclusive)
+     * @param lowerBoundY top border of the region (inclusive)
+     * @param upperBoundX right border of the region (exclusive)
+     * @param upperBoundY bottom border of the region (exclusive)
+     */
+    void commit(int lowerBoundX, int lowerBoundY, int upperBoundX, int upperBoundY) {
+        if (upperBoundX <= lowerBoundX || upperBoundY <= lowerBoundY) {
+            return;
+        }
+        for (int row = lowerBoundY >> BLOCK_SHIFT; row <= (upperBoundY - 1) >> BLOCK_SHIFT; ++row) {
+            for (int column = lowerBoundX >> BLOCK_SHIFT; column <= (upperBoundX - 1) >> BLOCK_SHIFT; ++column) {
+                int block = row * columns + column;
+                if (pending[block] != 0) {
+                    add(block, pending[block]);
+                    pending[block] = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the block containing given position of the cumulative error of the blocks in row-major order.
+     *
+     * @param position position of the cumulative error, from 0 (inclusive) to {@link #getTotal()} (exclusive)
+     * @return index of the block in row-major order
+     */
+    public int find(long position) {
+        int block = 0;
+        for (int step = Integer.highestOneBit(tree.length - 1); step > 0; step >>= 1) {
+            if (block + step < tree.length && tree[block + step] <= position) {
+                block += step;
+                position -= tree[block];
+            }
+        }
+        return Math.min(block, columns * rows - 1);
+    }
+
+    /**
+     * @return total error of the output image
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * @param block index of the block in row-major order
+     * @return error of the block
+     */
+    public long getError(int block) {
+        return getPrefixSum(block + 1) - getPrefixSum(block);
+    }
+
+    /**
+     * @return amount of blocks in a row
+     */
+    public int getColumns() {
+        return columns;
+    }
+
+    /**
+     * @return amount of blocks in a column
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    private int getBlock(int x, int y) {
+        return (y >> BLOCK_SHIFT) * columns + (x >> BLOCK_SHIFT);
+    }
+
+    private void add(int block, long errorChange) {
+        total += errorChange;
+        for (int i = block + 1; i < tree.length; i += i & -i) {
+            tree[i] += errorChange;
+        }
+    }
+
+    /**
+     * @return sum of the errors of the first {@code count} blocks
+     */
+    private long getPrefixSum(int count) {
+        long sum = 0;
+        for (int i = count; i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,53 @@
+package localsearch;
+
+/**
+ * Portable {@link FitnessKernel}, scoring one pixel at a time.
+ *
+ * @author Ondřej Kratochvíl
+ */
+public class ScalarFitnessKernel implements FitnessKernel {
+
+    @Override
+    public long absoluteErrorChange(int[] input, int[] output, int offset, int length, int colour) {
+        int red = (colour >> 16) & 0xff;
+        int green = (colour >> 8) & 0xff;
+        int blue = colour & 0xff;
+        long errorChange = 0;
+        for (int i = offset; i < offset + length; ++i) {
+            int inputColour = input[i];
+            int outputColour = output[i];
+            int inputRed = (inputColour >> 16) & 0xff;
+            int inputGreen = (inputColour >> 8) & 0xff;
+            int inputBlue = inputColour & 0xff;
+            int outputRed = (outputColour >> 16) & 0xff;
+            int outputGreen = (outputColour >> 8) & 0xff;
+            int outputBlue = outputColour & 0xff;
+            errorChange += Math.abs(inputRed - ((outputRed + red) >> 1)) - Math.abs(inputRed - outputRed) +
+                    Math.abs(inputGreen - ((outputGreen + green) >> 1)) - Math.abs(inputGreen - outputGreen) +
+                    Math.abs(inputBlue - ((outputBlue + blue) >> 1)) - Math.abs(inputBlue - outputBlue);
+        }
+        return errorChange;
+    }
+
+    @Override
+    public long squaredErrorChange(int[] input, int[] output, int offset, int length, int colour) {
+        int red = (colour >> 16) & 0xff;
+        int green = (colour >> 8) & 0xff;
+        int blue = colour & 0xff;
+        long errorChange = 0;
+        for (int i = offset; i < offset + length; ++i) {
+            int inputColour = input[i];
+            int outputColour = output[i];
+            errorChange += getSquaredErrorChange((inputColour >> 16) & 0xff, (outputColour >> 16) & 0xff, red) +
+                    getSquaredErrorChange((inputColour >> 8) & 0xff, (outputColour >> 8) & 0xff, green) +
+                    getSquaredErrorChange(inputColour & 0xff, outputColour & 0xff, blue);
+        }
+        return errorChange;
+    }
+
+    private static int getSquaredErrorChange(int input, int output, int colour) {
+        int oldDifference = input - output;
+        int newDifference = input - ((output + colour) >> 1);
+        return newDifference * newDifference - oldDifference * oldDifference;
+    }
+}
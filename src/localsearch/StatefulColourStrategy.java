@@ -0,0 +1,34 @@
+package localsearch;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Colour picking strategy, which keeps state derived from the current output image. The configured instance serves
+ * as a prototype: each {@link HillClimber} binds its own instance to the region of the output it works on, and
+ * notifies it about every circle it draws.
+ *
+ * @author Ondřej Kratochvíl
+ */
+public interface StatefulColourStrategy extends TetraFunction<BufferedImage, Integer, Integer, Integer, Integer> {
+
+    /**
+     * Create an instance of the strategy bound to given region of the output image. Circles passed to the bound
+     * instance lie within the region, apart from the parts clipped by the image borders.
+     *
+     * @param engine raster engine with the input and the current output image
+     * @param lowerBoundX left border of the region (inclusive)
+     * @param lowerBoundY top border of the region (inclusive)
+     * @param upperBoundX right border of the region (exclusive)
+     * @param upperBoundY bottom border of the region (exclusive)
+     * @return bound instance of the strategy
+     */
+    StatefulColourStrategy bind(RasterEngine engine, int lowerBoundX, int lowerBoundY, int upperBoundX,
+                                int upperBoundY);
+
+    /**
+     * Update the state after the circle was drawn into the output image.
+     *
+     * @param circle drawn circle
+     */
+    void circleDrawn(Circle circle);
+}
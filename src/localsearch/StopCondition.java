@@ -0,0 +1,216 @@
+package localsearch;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Criteria for stopping the compression before all circles are placed, shared by all climbers of a compression. The
+ * compression stops when the deadline passes, the output reaches the target quality, the next circle would not fit
+ * into the size budget, or the caller cancels it.
+ * <p>
+ * The encoded size is estimated incrementally as the size of the binary data file (see {@link CircleFileWriter})
+ * storing the colours directly, which is an upper bound of its real size when the circles are placed by a single
+ * climber. With multiple climbers, the estimate may be off by a few bytes at the points where their circles are
+ * concatenated.
+ *
+ * @author Ondřej Kratochvíl
+ */
+public class StopCondition {
+
+    /**
+     * Reason of stopping the compression.
+     */
+    public enum Reason {
+        // all circles given by the quality were placed
+        CIRCLE_COUNT,
+        DEADLINE,
+        TARGET_ERROR,
+        TARGET_PSNR,
+        MAX_ENCODED_SIZE,
+        // the caller of the compression cancelled it
+        CANCELLED
+    }
+
+    private final RasterEngine engine;
+    private final long deadline;
+    private final double targetError;
+    private final double targetPsnr;
+    private final long maxEncodedSize;
+    private final long headerSize;
+    private final AtomicLong encodedSize;
+    private final AtomicReference<Reason> reason = new AtomicReference<>();
+    private BooleanSupplier cancellation;
+
+    /**
+     * @param engine raster engine with the output image
+     * @param deadline {@link System#nanoTime()} at which the compression stops, or {@link Long#MAX_VALUE}
+     * @param targetError mean absolute error per colour channel at which the compression stops, or 0
+     * @param targetPsnr peak signal-to-noise ratio in dB at which the compression stops, or 0
+     * @param maxEncodedSize maximum size of the binary data file in bytes, or 0
+     * @param circleCount maximum amount of circles, needed for the size of the file header
+     */
+    public StopCondition(RasterEngine engine, long deadline, double targetError, double targetPsnr,
+                         long maxEncodedSize, int circleCount) {
+        this.engine = engine;
+        this.deadline = deadline;
+        this.targetError = targetError;
+        this.targetPsnr = targetPsnr;
+        this.maxEncodedSize = maxEncodedSize;
+        // magic, version, flags, dimensions, amount of circles and background colour
+        this.headerSize = CircleFileWriter.MAGIC.length + 2 + CircleFileWriter.varintSize(engine.getWidth()) +
+                CircleFileWriter.varintSize(engine.getHeight()) + CircleFileWriter.varintSize(circleCount) + 3;
+        this.encodedSize = new AtomicLong(headerSize);
+    }
+
+    private StopCondition(StopCondition criteria, RasterEngine engine) {
+        this.engine = engine;
+        this.deadline = criteria.deadline;
+        this.targetError = criteria.targetError;
+        this.targetPsnr = criteria.targetPsnr;
+        this.maxEncodedSize = criteria.maxEncodedSize;
+        this.headerSize = criteria.headerSize;
+        this.encodedSize = new AtomicLong(headerSize);
+        this.cancellation = criteria.cancellation;
+    }
+
+    /**
+     * @param cancellation returns {@code true} once the compression should be cancelled, or {@code null}. Checked
+     *                     with the other criteria, from any thread running the compression
+     */
+    public void setCancellation(BooleanSupplier cancellation) {
+        this.cancellation = cancellation;
+    }
+
+    /**
+     * Create a condition with the same criteria checked on another engine of the same size, with no circles placed.
+     * Used by searches which keep multiple outputs, see {@link IslandSearch}.
+     *
+     * @param engine raster engine with the output image
+     * @return new stop condition
+     */
+    public StopCondition forEngine(RasterEngine engine) {
+        return new StopCondition(this, engine);
+    }
+
+    /**
+     * Take over the encoded size and the reason of stopping from another condition, e.g. after the output of its
+     * engine was adopted.
+     *
+     * @param other condition created by {@link #forEngine(RasterEngine)}
+     */
+    public void adopt(StopCondition other) {
+        encodedSize.set(other.encodedSize.get());
+        Reason otherReason = other.reason.get();
+        if (otherReason != null) {
+            stop(otherReason);
+        }
+    }
+
+    /**
+     * Check the criteria after a circle was placed. Once a criterion is met, it stays met.
+     *
+     * @return {@code true} if the compression should stop
+     */
+    public boolean isReached() {
+        if (reason.get() != null) {
+            return true;
+        }
+        if (isCancelled()) {
+            return true;
+        }
+        if (isDeadlinePassed()) {
+            return stop(Reason.DEADLINE);
+        }
+        if (targetError > 0 &&
+                engine.getError() <= targetError * 3 * engine.getWidth() * engine.getHeight()) {
+            return stop(Reason.TARGET_ERROR);
+        }
+        if (targetPsnr > 0 && engine.getPsnr() >= targetPsnr) {
+            return stop(Reason.TARGET_PSNR);
+        }
+        return false;
+    }
+
+    /**
+     * Add the encoded size of a circle to be placed, if it fits into the size budget.
+     *
+     * @param size encoded size of the circle in bytes
+     * @return {@code true} if the circle fits and can be placed, {@code false} if the compression should stop
+     */
+    public boolean reserve(int size) {
+        return fits(size) || !stop(Reason.MAX_ENCODED_SIZE);
+    }
+
+    /**
+     * Add a change of the encoded size, if the result fits into the size budget, without stopping the compression
+     * otherwise. Used when changing already placed circles.
+     *
+     * @param sizeChange change of the encoded size in bytes, possibly negative
+     * @return {@code true} if the change fits and was added
+     */
+    public boolean fits(int sizeChange) {
+        if (maxEncodedSize <= 0) {
+            encodedSize.addAndGet(sizeChange);
+            return true;
+        }
+        while (true) {
+            long current = encodedSize.get();
+            if (sizeChange > 0 && current + sizeChange > maxEncodedSize) {
+                return false;
+            }
+            if (encodedSize.compareAndSet(current, current + sizeChange)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if the compression was cancelled, regardless of the other criteria
+     */
+    public boolean isCancelled() {
+        return cancellation != null && cancellation.getAsBoolean() && stop(Reason.CANCELLED);
+    }
+
+    /**
+     * @return {@code true} if the deadline has passed, regardless of the other criteria
+     */
+    public boolean isDeadlinePassed() {
+        return deadline != Long.MAX_VALUE && System.nanoTime() - deadline >= 0;
+    }
+
+    /**
+     * @return the reason of stopping, or {@code null} if no criterion was met
+     */
+    public Reason getReason() {
+        return reason.get();
+    }
+
+    /**
+     * @return estimated size of the binary data file of the placed circles in bytes
+     */
+    public long getEncodedSize() {
+        return encodedSize.get();
+    }
+
+    private boolean stop(Reason reason) {
+        this.reason.compareAndSet(null, reason);
+        return true;
+    }
+
+    /**
+     * Get the size of the circle in the binary data file, when stored after the previous circle.
+     *
+     * @param circle circle to be stored
+     * @param previous previously stored circle, or {@code null}
+     * @return encoded size of the circle in bytes
+     */
+    public static int getEncodedSize(Circle circle, Circle previous) {
+        int previousX = previous != null ? previous.getX() : 0;
+        int previousY = previous != null ? previous.getY() : 0;
+        int previousDiameter = previous != null ? previous.getDiameter() : 0;
+        return CircleFileWriter.varintSize(CircleFileWriter.zigzag(circle.getX() - previousX)) +
+                CircleFileWriter.varintSize(CircleFileWriter.zigzag(circle.getY() - previousY)) +
+                CircleFileWriter.varintSize(CircleFileWriter.zigzag(circle.getDiameter() - previousDiameter)) + 3;
+    }
+}
@@ -0,0 +1,310 @@
+package localsearch;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compression of large images, which splits the image into tiles and runs a {@link HillClimber} on each tile in
+ * parallel. Circles placed in a tile never cross its internal borders, so the tiles are independent and their
+ * circles can be concatenated in any order. Afterwards, a seam pass places circles across the tile borders, so the
+ * joins do not show.
+ *
+ * @author Ondřej Kratochvíl
+ */
+public class TiledCompression {
+
+    /**
+     * Strategy of dividing the circles between the tiles.
+     */
+    public enum Budget {
+        // proportionally to the area of the tile
+        AREA,
+        // proportionally to the initial error of the tile, i.e. the sum of all colour channels of the input
+        RESIDUAL_ERROR
+    }
+
+    private final BufferedImage inputImage;
+    private final RasterEngine engine;
+    private final CompressionQuality quality;
+    private final int retryCount;
+    private final TetraFunction<BufferedImage, Integer, Integer, Integer, Integer> colourPickingStrategy;
+    private final Budget budget;
+    private final int width;
+    private final int height;
+    private final int maxDiameter;
+    // tile borders, including the image borders
+    private final int[] columns;
+    private final int[] rows;
+    private CompressionMetrics metrics;
+    private StopCondition stopCondition;
+    private Long seed;
+
+    /**
+     * @param inputImage input image
+     * @param engine raster engine with the output image
+     * @param quality quality of the compression
+     * @param retryCount amount of tries when placing new circles
+     * @param colourPickingStrategy strategy for choosing the colour of the new circles
+     * @param tileSize minimum width and height of the tiles
+     * @param budget strategy of dividing the circles between the tiles
+     */
+    public TiledCompression(BufferedImage inputImage, RasterEngine engine, CompressionQuality quality,
+                            int retryCount,
+                            TetraFunction<BufferedImage, Integer, Integer, Integer, Integer> colourPickingStrategy,
+                            int tileSize, Budget budget) {
+        this.inputImage = inputImage;
+        this.engine = engine;
+        this.quality = quality;
+        this.retryCount = retryCount;
+        this.colourPickingStrategy = colourPickingStrategy;
+        this.budget = budget;
+        this.width = engine.getWidth();
+        this.height = engine.getHeight();
+        this.maxDiameter = HillClimber.getMaxDiameter(Math.min(width, height), quality, 0);
+        // tiles have to fit the largest circles without crossing their borders
+        int effectiveTileSize = Math.max(tileSize, 4 * maxDiameter);
+        this.columns = split(width, effectiveTileSize);
+        this.rows = split(height, effectiveTileSize);
+    }
+
+    /**
+     * @param metrics metrics the counters of all tiles and of the seam pass are added to, or {@code null}
+     */
+    public void setMetrics(CompressionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param stopCondition criteria for stopping all tiles and the seam pass before all circles are placed, or
+     *                      {@code null}
+     */
+    public void setStopCondition(StopCondition stopCondition) {
+        this.stopCondition = stopCondition;
+    }
+
+    /**
+     * @param seed seed of the random generators, tile {@code i} (row-major) uses {@code seed + i} and the seam pass
+     *             uses {@code seed + tileCount}, or {@code null} to use {@link java.util.concurrent.ThreadLocalRandom}
+     */
+    public void setSeed(Long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Place given amount of circles, running the tiles on {@code parallelism} threads.
+     *
+     * @param circleCount total amount of circles to be placed
+     * @param parallelism amount of threads
+     * @param publisher publisher the placed circles are published to for visualization, or {@code null}
+     * @return placed circles, in the order they should be drawn
+     */
+    public Circle[] compress(int circleCount, int parallelism, FramePublisher publisher) {
+        int tileCount = (columns.length - 1) * (rows.length - 1);
+        int seamCircleCount = tileCount == 1 ? 0 : (int) Math.min(circleCount,
+                (long) circleCount * getSeamArea() / ((long) width * height));
+        int[] tileCircleCounts = distribute(circleCount - seamCircleCount, getTileWeights());
+
+        List<HillClimber> climbers = new ArrayList<>();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int row = 0; row < rows.length - 1; ++row) {
+            for (int column = 0; column < columns.length - 1; ++column) {
+                HillClimber climber = new HillClimber(inputImage, engine, quality, retryCount, colourPickingStrategy,
+                        new TileSampler(columns[column], rows[row], columns[column + 1], rows[row + 1]),
+                        tileCircleCounts[row * (columns.length - 1) + column]);
+                climber.setRegion(columns[column], rows[row], columns[column + 1], rows[row + 1]);
+                climber.setPublisher(publisher);
+                climber.setMetrics(metrics);
+                climber.setStopCondition(stopCondition);
+                if (seed != null) {
+                    climber.setRandom(new Random(seed + climbers.size()));
+                }
+                climbers.add(climber);
+                tasks.add(() -> {
+                    climber.run();
+                    return null;
+                });
+            }
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Tiled compression was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Compression of a tile failed", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+
+        // seam pass over the whole image, after all tiles are finished
+        HillClimber seamClimber = new HillClimber(inputImage, engine, quality, retryCount, colourPickingStrategy,
+                new SeamSampler(), seamCircleCount);
+        seamClimber.setPublisher(publisher);
+        seamClimber.setMetrics(metrics);
+        seamClimber.setStopCondition(stopCondition);
+        if (seed != null) {
+            seamClimber.setRandom(new Random(seed + tileCount));
+        }
+        seamClimber.run();
+        climbers.add(seamClimber);
+
+        List<Circle> circles = new ArrayList<>(circleCount);
+        for (HillClimber climber : climbers) {
+            for (Circle circle : climber.getCircles()) {
+                circles.add(circle);
+            }
+        }
+        return circles.toArray(new Circle[0]);
+    }
+
+    /**
+     * @return area of the bands along the internal tile borders, in which the seam circles are placed
+     */
+    private long getSeamArea() {
+        return 2L * maxDiameter * ((long) (columns.length - 2) * height + (long) (rows.length - 2) * width);
+    }
+
+    private double[] getTileWeights() {
+        double[] weights = new double[(columns.length - 1) * (rows.length - 1)];
+        int[] input = engine.getInput();
+        for (int row = 0; row < rows.length - 1; ++row) {
+            for (int column = 0; column < columns.length - 1; ++column) {
+                int tile = row * (columns.length - 1) + column;
+                if (budget == Budget.AREA) {
+                    weights[tile] = (double) (columns[column + 1] - columns[column]) * (rows[row + 1] - rows[row]);
+                    continue;
+                }
+                long error = 0;
+                for (int j = rows[row]; j < rows[row + 1]; ++j) {
+                    for (int i = columns[column]; i < columns[column + 1]; ++i) {
+                        int colour = input[j * width + i];
+                        error += GraphicHelper.getRed(colour) + GraphicHelper.getGreen(colour) +
+                                GraphicHelper.getBlue(colour);
+                    }
+                }
+                weights[tile] = error;
+            }
+        }
+        return weights;
+    }
+
+    /**
+     * Divide the amount proportionally to given weights, using the largest remainder method.
+     */
+    private static int[] distribute(int amount, double[] weights) {
+        double totalWeight = 0;
+        for (double weight : weights) {
+            totalWeight += weight;
+        }
+        int[] shares = new int[weights.length];
+        if (totalWeight == 0) {
+            // nothing to approximate, spread evenly
+            totalWeight = weights.length;
+            weights = new double[weights.length];
+            Arrays.fill(weights, 1);
+        }
+        double[] remainders = new double[weights.length];
+        int distributed = 0;
+        for (int i = 0; i < weights.length; ++i) {
+            double share = amount * weights[i] / totalWeight;
+            shares[i] = (int) share;
+            remainders[i] = share - shares[i];
+            distributed += shares[i];
+        }
+        for (; distributed < amount; ++distributed) {
+            int largest = 0;
+            for (int i = 1; i < remainders.length; ++i) {
+                if (remainders[i] > remainders[largest]) {
+                    largest = i;
+                }
+            }
+            ++shares[largest];
+            remainders[largest] = -1;
+        }
+        return shares;
+    }
+
+    /**
+     * Split the dimension into parts of at least given size.
+     *
+     * @return borders of the parts, including 0 and the dimension itself
+     */
+    static int[] split(int dimension, int minSize) {
+        int parts = Math.max(1, dimension / Math.max(1, minSize));
+        int[] borders = new int[parts + 1];
+        for (int i = 0; i <= parts; ++i) {
+            borders[i] = (int) ((long) i * dimension / parts);
+        }
+        return borders;
+    }
+
+    /**
+     * Generates circles, whose circumscribed square lies within the tile. Only the borders of the image may be
+     * crossed, since the circles are clipped by them anyway.
+     */
+    private class TileSampler implements CandidateSampler {
+
+        private final int lowerBoundX;
+        private final int lowerBoundY;
+        private final int upperBoundX;
+        private final int upperBoundY;
+
+        TileSampler(int lowerBoundX, int lowerBoundY, int upperBoundX, int upperBoundY) {
+            this.lowerBoundX = lowerBoundX;
+            this.lowerBoundY = lowerBoundY;
+            this.upperBoundX = upperBoundX;
+            this.upperBoundY = upperBoundY;
+        }
+
+        @Override
+        public Circle sample(Random random, int maxDiameter) {
+            int diameter = random.nextInt(maxDiameter);
+            int centerX = sampleCoordinate(random, lowerBoundX, upperBoundX, width, diameter);
+            int centerY = sampleCoordinate(random, lowerBoundY, upperBoundY, height, diameter);
+            return new Circle(centerX, centerY, diameter, 0);
+        }
+
+        private int sampleCoordinate(Random random, int lowerBound, int upperBound, int dimension, int diameter) {
+            int min = lowerBound == 0 ? 0 : lowerBound + diameter;
+            int max = upperBound == dimension ? dimension - 1 : upperBound - diameter;
+            return min + random.nextInt(max - min + 1);
+        }
+    }
+
+    /**
+     * Generates circles with centers in the bands along the internal tile borders.
+     */
+    private class SeamSampler implements CandidateSampler {
+
+        @Override
+        public Circle sample(Random random, int maxDiameter) {
+            int diameter = random.nextInt(maxDiameter);
+            long verticalLength = (long) (columns.length - 2) * height;
+            long position = (long) (random.nextDouble() * (verticalLength + (long) (rows.length - 2) * width));
+            int offset = random.nextInt(2 * maxDiameter) - maxDiameter;
+            int centerX;
+            int centerY;
+            if (position < verticalLength) {
+                centerX = columns[1 + (int) (position / height)] + offset;
+                centerY = (int) (position % height);
+            } else {
+                position -= verticalLength;
+                centerX = (int) (position % width);
+                centerY = rows[1 + (int) (position / width)] + offset;
+            }
+            return new Circle(Math.max(0, Math.min(width - 1, centerX)), Math.max(0, Math.min(height - 1, centerY)),
+                    diameter, 0);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package localsearch;
+
+import java.util.Random;
+
+/**
+ * Generates candidate circles with centers uniformly distributed over the whole image.
+ *
+ * @author Ondřej Kratochvíl
+ */
+public class UniformCandidateSampler implements CandidateSampler {
+
+    private final int width;
+    private final int height;
+
+    public UniformCandidateSampler(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    @Override
+    public Circle sample(Random random, int maxDiameter) {
+        int centerX = random.nextInt(width);
+        int centerY = random.nextInt(height);
+        int diameter = random.nextInt(maxDiameter);
+        return new Circle(centerX, centerY, diameter, 0);
+    }
+}
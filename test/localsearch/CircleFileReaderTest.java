@@ -0,0 +1,145 @@
+package localsearch;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Checks that {@link CircleFileReader} reads back the circles written by {@link CircleFileWriter}, also when they
+ * span several mapped windows or the file is larger than a single mapping.
+ *
+ * @author Ondřej Kratochvíl
+ */
+public class CircleFileReaderTest {
+
+    // 16 bytes per circle, which makes the file larger than 2 GB
+    private final static int LARGE_CIRCLE_COUNT = 140_000_000;
+    private final static int SYNC_INTERVAL = 16;
+
+    @TempDir
+    File directory;
+
+    @Test
+    public void readsAcrossWindows() throws IOException {
+        File file = new File(directory, "data.bin");
+        int circleCount = 10_000;
+        write(file, circleCount);
+        // a window smaller than a single circle makes every read cross a window border sooner or later
+        try (CircleFileReader reader = new CircleFileReader(file, 7)) {
+            assertEquals(circleCount, reader.getCircleCount());
+            verifyAll(reader);
+            verifySyncPoints(reader);
+        }
+    }
+
+    @Test
+    public void readsFileLargerThanTwoGigabytes() throws IOException {
+        assumeTrue(directory.getUsableSpace() > 3L << 30, "Not enough disk space for a 2 GB data file");
+        File file = new File(directory, "data.bin");
+        try {
+            write(file, LARGE_CIRCLE_COUNT);
+            assertTrue(file.length() > Integer.MAX_VALUE, "Data file has only " + file.length() + " B");
+            try (CircleFileReader reader = new CircleFileReader(file)) {
+                assertEquals(LARGE_CIRCLE_COUNT, reader.getCircleCount());
+                verifyAll(reader);
+                verifySyncPoints(reader);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void write(File file, int circleCount) throws IOException {
+        Iterator<Circle> circles = new Iterator<Circle>() {
+
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < circleCount;
+            }
+
+            @Override
+            public Circle next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int i = next++;
+                return new Circle(getX(i), getY(i), getDiameter(i), getColour(i));
+            }
+        };
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) {
+            CircleFileWriter.write(out, 1 << 28, 1 << 28, 0xff000000, circleCount, circles);
+        }
+    }
+
+    private static void verifyAll(CircleFileReader reader) throws IOException {
+        int[] index = {0};
+        reader.forEach((x, y, diameter, colour) -> {
+            int i = index[0]++;
+            if (x != getX(i) || y != getY(i) || diameter != getDiameter(i) || colour != getColour(i)) {
+                throw new AssertionError("Circle " + i + " differs");
+            }
+        });
+        assertEquals(reader.getCircleCount(), index[0]);
+    }
+
+    /**
+     * Decode the first and the last block of circles from their sync points.
+     */
+    private static void verifySyncPoints(CircleFileReader reader) throws IOException {
+        // position, x, y and diameter of the first and the last sync point
+        long[][] syncPoints = new long[2][];
+        int[] syncPointCount = {0};
+        reader.forEachSyncPoint(SYNC_INTERVAL, (position, x, y, diameter) -> {
+            syncPoints[syncPointCount[0]++ == 0 ? 0 : 1] = new long[]{position, x, y, diameter};
+        });
+        assertEquals((reader.getCircleCount() + SYNC_INTERVAL - 1) / SYNC_INTERVAL, syncPointCount[0]);
+        int[] xs = new int[SYNC_INTERVAL];
+        int[] ys = new int[SYNC_INTERVAL];
+        int[] diameters = new int[SYNC_INTERVAL];
+        int[] colours = new int[SYNC_INTERVAL];
+        for (int last = 0; last < 2; ++last) {
+            long[] syncPoint = syncPoints[last];
+            int first = last == 0 ? 0 : (syncPointCount[0] - 1) * SYNC_INTERVAL;
+            int count = Math.min(SYNC_INTERVAL, reader.getCircleCount() - first);
+            reader.read(syncPoint[0], (int) syncPoint[1], (int) syncPoint[2], (int) syncPoint[3], count, xs, ys,
+                    diameters, colours);
+            for (int i = 0; i < count; ++i) {
+                assertEquals(getX(first + i), xs[i], "x of circle " + (first + i));
+                assertEquals(getY(first + i), ys[i], "y of circle " + (first + i));
+                assertEquals(getDiameter(first + i), diameters[i], "diameter of circle " + (first + i));
+                assertEquals(getColour(first + i), colours[i], "colour of circle " + (first + i));
+            }
+        }
+    }
+
+    // large jumps between the consecutive circles give long varints
+
+    private static int getX(int i) {
+        return ((i & 1) << 27) + i % 1000;
+    }
+
+    private static int getY(int i) {
+        return ((i & 1) << 27) + i % 997;
+    }
+
+    private static int getDiameter(int i) {
+        return ((i & 1) << 26) + 1 + i % 50;
+    }
+
+    private static int getColour(int i) {
+        return 0xff000000 | (i * 0x9e3779b1 & 0xffffff);
+    }
+}
@@ -0,0 +1,75 @@
+package localsearch;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that {@link CircleIndex} finds exactly the circles intersecting a region, in the order they are drawn.
+ *
+ * @author Ondřej Kratochvíl
+ */
+public class CircleIndexTest {
+
+    private final static int WIDTH = 1000;
+    private final static int HEIGHT = 700;
+    private final static int CIRCLE_COUNT = 20000;
+
+    @TempDir
+    File directory;
+
+    @Test
+    public void findsCirclesIntersectingRegions() throws IOException {
+        Random random = new Random(42);
+        Circle[] circles = new Circle[CIRCLE_COUNT];
+        for (int i = 0; i < circles.length; ++i) {
+            // some of the circles lie partly or completely outside the image
+            circles[i] = new Circle(random.nextInt(WIDTH + 200) - 100, random.nextInt(HEIGHT + 200) - 100,
+                    1 + random.nextInt(i % 100 == 0 ? 300 : 30), 0xff000000 | random.nextInt(0x1000000));
+        }
+        File circleFile = new File(directory, "data.bin");
+        File indexFile = CircleIndex.getIndexFile(circleFile);
+        CircleFileWriter.write(circleFile, WIDTH, HEIGHT, 0xffffffff, circles);
+        long indexSize = CircleIndex.write(circleFile, indexFile, 37);
+        assertEquals(indexFile.length(), indexSize);
+
+        try (CircleFileReader reader = new CircleFileReader(circleFile);
+             CircleIndex index = new CircleIndex(indexFile)) {
+            for (int region = 0; region < 200; ++region) {
+                int x = random.nextInt(WIDTH + 100) - 50;
+                int y = random.nextInt(HEIGHT + 100) - 50;
+                int regionWidth = 1 + random.nextInt(region % 10 == 0 ? WIDTH : 100);
+                int regionHeight = 1 + random.nextInt(region % 10 == 0 ? HEIGHT : 100);
+                List<String> expected = new ArrayList<>();
+                for (Circle circle : circles) {
+                    int lowerBoundX = Math.max(Math.max(0, x), circle.getX() - circle.getDiameter());
+                    int upperBoundX = Math.min(Math.min(WIDTH, x + regionWidth), circle.getX() + circle.getDiameter());
+                    int lowerBoundY = Math.max(Math.max(0, y), circle.getY() - circle.getDiameter());
+                    int upperBoundY = Math.min(Math.min(HEIGHT, y + regionHeight),
+                            circle.getY() + circle.getDiameter());
+                    if (lowerBoundX < upperBoundX && lowerBoundY < upperBoundY) {
+                        expected.add(describe(circle.getX(), circle.getY(), circle.getDiameter(),
+                                circle.getColour()));
+                    }
+                }
+                List<String> actual = new ArrayList<>();
+                index.forEachIntersecting(reader, x, y, regionWidth, regionHeight,
+                        (circleX, circleY, diameter, colour) -> actual.add(describe(circleX, circleY, diameter,
+                                colour)));
+                assertEquals(expected, actual, "circles of region " + x + "," + y + "," + regionWidth + ","
+                        + regionHeight);
+            }
+        }
+    }
+
+    private static String describe(int x, int y, int diameter, int colour) {
+        return x + "," + y + "," + diameter + "," + Integer.toHexString(colour);
+    }
+}
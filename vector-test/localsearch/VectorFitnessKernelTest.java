@@ -0,0 +1,66 @@
+package localsearch;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks {@link VectorFitnessKernel} against a per-pixel reference, including the spans longer than the chunk of the
+ * kernel and the colours with different alpha channels, which the scoring ignores.
+ *
+ * @author Ondřej Kratochvíl
+ */
+public class VectorFitnessKernelTest {
+
+    private final static int SPANS = 20000;
+    private final static int PIXELS = 1 << 16;
+
+    @Test
+    public void vectorKernelIsSelected() {
+        assertTrue(FitnessKernel.getInstance() instanceof VectorFitnessKernel,
+                "Vector kernel not loaded, is jdk.incubator.vector added to the JVM?");
+    }
+
+    @Test
+    public void matchesReferenceOnRandomSpans() {
+        Random random = new Random(42);
+        int[] input = new int[PIXELS];
+        int[] output = new int[PIXELS];
+        for (int i = 0; i < PIXELS; ++i) {
+            input[i] = random.nextInt();
+            output[i] = random.nextInt();
+        }
+        FitnessKernel kernel = new VectorFitnessKernel();
+        for (int span = 0; span < SPANS; ++span) {
+            // every hundredth span is longer than the chunk summed in the lanes
+            int length = span % 100 == 0 ? 8192 + random.nextInt(16384) : random.nextInt(300);
+            int offset = random.nextInt(PIXELS - length + 1);
+            int colour = random.nextInt();
+            assertEquals(referenceErrorChange(input, output, offset, length, colour, false),
+                    kernel.absoluteErrorChange(input, output, offset, length, colour),
+                    "absolute error of span " + span);
+            assertEquals(referenceErrorChange(input, output, offset, length, colour, true),
+                    kernel.squaredErrorChange(input, output, offset, length, colour),
+                    "squared error of span " + span);
+        }
+    }
+
+    private static long referenceErrorChange(int[] input, int[] output, int offset, int length, int colour,
+                                             boolean squared) {
+        long errorChange = 0;
+        for (int i = offset; i < offset + length; ++i) {
+            int mixed = GraphicHelper.mixColour(output[i], colour);
+            for (int shift = 0; shift <= 16; shift += 8) {
+                int inputChannel = (input[i] >> shift) & 0xff;
+                int newDifference = inputChannel - ((mixed >> shift) & 0xff);
+                int oldDifference = inputChannel - ((output[i] >> shift) & 0xff);
+                errorChange += squared ? newDifference * newDifference - oldDifference * oldDifference :
+                        Math.abs(newDifference) - Math.abs(oldDifference);
+            }
+        }
+        return errorChange;
+    }
+}
@@ -0,0 +1,79 @@
+package localsearch;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link FitnessKernel} using the Vector API, which unpacks, mixes and scores as many pixels at once as the widest
+ * vector of the CPU holds. The partial sums are kept in the lanes of an int vector and reduced once per
+ * {@link #CHUNK} pixels, before they could overflow. The last pixels of a span are scored under a mask.
+ * <p>
+ * Compiled by the {@code vector} profile only, and loaded by {@link FitnessKernel#getInstance()}.
+ *
+ * @author Ondřej Kratochvíl
+ */
+public class VectorFitnessKernel implements FitnessKernel {
+
+    private final static VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+    // amount of pixels summed in the lanes before the reduction, 3 * 255^2 * CHUNK must fit into an int
+    private final static int CHUNK = 8192;
+
+    @Override
+    public long absoluteErrorChange(int[] input, int[] output, int offset, int length, int colour) {
+        long errorChange = 0;
+        for (int chunkStart = 0; chunkStart < length; chunkStart += CHUNK) {
+            int end = offset + Math.min(length, chunkStart + CHUNK);
+            IntVector sum = IntVector.zero(SPECIES);
+            for (int i = offset + chunkStart; i < end; i += SPECIES.length()) {
+                VectorMask<Integer> mask = SPECIES.indexInRange(i, end);
+                IntVector inputColours = IntVector.fromArray(SPECIES, input, i, mask);
+                IntVector outputColours = IntVector.fromArray(SPECIES, output, i, mask);
+                for (int shift = 0; shift <= 16; shift += 8) {
+                    IntVector inputChannel = getChannel(inputColours, shift);
+                    IntVector outputChannel = getChannel(outputColours, shift);
+                    IntVector mixedChannel = mix(outputChannel, (colour >> shift) & 0xff);
+                    sum = sum.add(inputChannel.sub(mixedChannel).abs()
+                            .sub(inputChannel.sub(outputChannel).abs()), mask);
+                }
+            }
+            errorChange += sum.reduceLanes(VectorOperators.ADD);
+        }
+        return errorChange;
+    }
+
+    @Override
+    public long squaredErrorChange(int[] input, int[] output, int offset, int length, int colour) {
+        long errorChange = 0;
+        for (int chunkStart = 0; chunkStart < length; chunkStart += CHUNK) {
+            int end = offset + Math.min(length, chunkStart + CHUNK);
+            IntVector sum = IntVector.zero(SPECIES);
+            for (int i = offset + chunkStart; i < end; i += SPECIES.length()) {
+                VectorMask<Integer> mask = SPECIES.indexInRange(i, end);
+                IntVector inputColours = IntVector.fromArray(SPECIES, input, i, mask);
+                IntVector outputColours = IntVector.fromArray(SPECIES, output, i, mask);
+                for (int shift = 0; shift <= 16; shift += 8) {
+                    IntVector inputChannel = getChannel(inputColours, shift);
+                    IntVector outputChannel = getChannel(outputColours, shift);
+                    IntVector newDifference = inputChannel.sub(mix(outputChannel, (colour >> shift) & 0xff));
+                    IntVector oldDifference = inputChannel.sub(outputChannel);
+                    sum = sum.add(newDifference.mul(newDifference).sub(oldDifference.mul(oldDifference)), mask);
+                }
+            }
+            errorChange += sum.reduceLanes(VectorOperators.ADD);
+        }
+        return errorChange;
+    }
+
+    private static IntVector getChannel(IntVector colours, int shift) {
+        return colours.lanewise(VectorOperators.LSHR, shift).and(0xff);
+    }
+
+    /**
+     * Mix a channel of the output with the channel of the circle, as {@link GraphicHelper#mixColour(int, int)}.
+     */
+    private static IntVector mix(IntVector channel, int colourChannel) {
+        return channel.add(colourChannel).lanewise(VectorOperators.LSHR, 1);
+    }
+}